@@ -0,0 +1,88 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Données communes aux benchmarks : PDF fournis (classpath du projet) et vecteurs synthétiques.
+ */
+final class BenchData {
+
+    static final int DIMENSION = 384; // AllMiniLmL6V2
+
+    private BenchData() {
+    }
+
+    /** Contenu brut d'un PDF de src/main/resources. */
+    static byte[] pdfBytes(String resourceName) {
+        try (InputStream in = BenchData.class.getClassLoader().getResourceAsStream(resourceName)) {
+            if (in == null) {
+                throw new IllegalStateException("Ressource introuvable : " + resourceName);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copie d'un PDF dans un fichier temporaire : dans benchmarks.jar les ressources
+     * ne sont pas des fichiers, or le pipeline d'ingestion lit un Path.
+     */
+    static Path pdfFile(String resourceName) {
+        try {
+            // même nom de fichier que la ressource : l'index reste réutilisable via le cache disque
+            Path dir = Files.createTempDirectory("bench-");
+            Path file = Files.write(dir.resolve(resourceName), pdfBytes(resourceName));
+            file.toFile().deleteOnExit();
+            dir.toFile().deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Document parse(byte[] pdf) {
+        return new ApacheTikaDocumentParser().parse(new ByteArrayInputStream(pdf));
+    }
+
+    /** Vecteurs aléatoires normalisés (graine fixe : même corpus à chaque exécution). */
+    static List<Embedding> randomEmbeddings(int count, long seed) {
+        Random random = new Random(seed);
+        List<Embedding> embeddings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] v = new float[DIMENSION];
+            double norm = 0;
+            for (int d = 0; d < DIMENSION; d++) {
+                v[d] = (float) random.nextGaussian();
+                norm += v[d] * v[d];
+            }
+            float inv = (float) (1 / Math.sqrt(norm));
+            for (int d = 0; d < DIMENSION; d++) {
+                v[d] *= inv;
+            }
+            embeddings.add(Embedding.from(v));
+        }
+        return embeddings;
+    }
+
+    static List<TextSegment> placeholderSegments(int count) {
+        List<TextSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(TextSegment.from("segment " + i));
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,45 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Point d'entrée de benchmarks.jar : options JMH habituelles en ligne de commande
+ * (ex : "SearchBenchmark -p corpusSize=10000"), mais résultats écrits par défaut en JSON
+ * dans benchmarks/results/jmh-AAAAMMJJ-HHMMSS.json, pour suivre les mesures dans le temps.
+ *
+ * -rf / -rff restent prioritaires s'ils sont donnés.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            Path dir = Paths.get(System.getProperty("bench.results.dir", "benchmarks/results"));
+            Files.createDirectories(dir);
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            Path file = dir.resolve("jmh-" + stamp + ".json");
+            options.result(file.toString());
+            System.out.println("Résultats JMH : " + file.toAbsolutePath());
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,64 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Débit d'AllMiniLmL6V2EmbeddingModel.embedAll (segments / s) selon la taille des lots.
+ *
+ * Chaque invocation embedde les mêmes SEGMENTS segments réels (langchain4j.pdf, 500 / 50),
+ * découpés en lots de batchSize : le score est directement comparable entre tailles de lot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    private static final int SEGMENTS = 64;
+
+    @Param({"1", "8", "32", "64"})
+    public int batchSize;
+
+    private EmbeddingModel embeddingModel;
+    private List<TextSegment> segments;
+
+    @Setup
+    public void setup() {
+        embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        List<TextSegment> all = DocumentSplitters.recursive(500, 50)
+                .split(BenchData.parse(BenchData.pdfBytes("langchain4j.pdf")));
+        if (all.size() < SEGMENTS) {
+            throw new IllegalStateException("Pas assez de segments : " + all.size());
+        }
+        segments = all.subList(0, SEGMENTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public void embedAll(Blackhole blackhole) {
+        for (int from = 0; from < SEGMENTS; from += batchSize) {
+            blackhole.consume(embeddingModel.embedAll(segments.subList(from, Math.min(from + batchSize, SEGMENTS))));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.data.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing Tika de chacun des PDF fournis (lecture disque exclue : octets déjà en mémoire).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @Param({"langchain4j.pdf", "QCM_MAD-AI_COMPLET.pdf", "llm.pdf"})
+    public String pdf;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = BenchData.pdfBytes(pdf);
+    }
+
+    @Benchmark
+    public Document parse() {
+        return BenchData.parse(bytes);
+    }
+}
@@ -0,0 +1,76 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EmbeddingStoreContentRetriever.retrieve de bout en bout (embedding de la question + recherche)
+ * sur l'index réel de langchain4j.pdf, avec ou sans cache des embeddings de questions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RetrieverBenchmark {
+
+    private static final List<String> QUESTIONS = List.of(
+            "Quelle est la signification de 'RAG' ; à quoi ça sert ?",
+            "À quoi sert LangChain4j ?",
+            "Comment créer un EmbeddingStore ?",
+            "Qu'est-ce qu'un ContentRetriever ?",
+            "Comment fonctionne le routage des requêtes ?",
+            "Qu'est-ce qu'un embedding ?",
+            "Comment découper un document en segments ?",
+            "Quelle est la différence entre un LLM et un modèle d'embeddings ?");
+
+    @Param({"false", "true"})
+    public boolean queryCache;
+
+    private ContentRetriever retriever;
+    private int next;
+
+    @Setup
+    public void setup() {
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingIndex index = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(BenchData.pdfFile("langchain4j.pdf"));
+        retriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingStore(DenseVectorStore.of(index))
+                .embeddingModel(queryCache ? new CachingEmbeddingModel(embeddingModel, 1000) : embeddingModel)
+                .maxResults(2)
+                .minScore(0.5)
+                .build();
+    }
+
+    @Benchmark
+    public List<Content> retrieve() {
+        String question = QUESTIONS.get(next++ % QUESTIONS.size());
+        return retriever.retrieve(Query.from(question));
+    }
+}
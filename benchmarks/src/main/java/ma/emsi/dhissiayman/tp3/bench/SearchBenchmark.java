@@ -0,0 +1,76 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.store.HnswEmbeddingStore;
+import ma.emsi.dhissiayman.tp3.store.QuantizedVectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latence d'une recherche top-5 selon la taille du corpus et le type de store :
+ * InMemoryEmbeddingStore (LangChain4j, référence) et les stores du projet.
+ *
+ * Corpus et requêtes : vecteurs aléatoires normalisés de dimension 384 (graine fixe).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SearchBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"inmemory", "dense", "hnsw", "int8", "binary"})
+    public String store;
+
+    @Param({"1000", "10000", "50000"})
+    public int corpusSize;
+
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private List<Embedding> queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        embeddingStore = switch (store) {
+            case "inmemory" -> new InMemoryEmbeddingStore<>();
+            case "dense" -> new DenseVectorStore();
+            case "hnsw" -> HnswEmbeddingStore.builder().build();
+            case "int8" -> new QuantizedVectorStore(QuantizedVectorStore.Mode.INT8);
+            case "binary" -> new QuantizedVectorStore(QuantizedVectorStore.Mode.BINARY);
+            default -> throw new IllegalArgumentException("Store inconnu : " + store);
+        };
+        embeddingStore.addAll(BenchData.randomEmbeddings(corpusSize, 1), BenchData.placeholderSegments(corpusSize));
+        queries = BenchData.randomEmbeddings(QUERIES, 2);
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search() {
+        Embedding query = queries.get(next++ & (QUERIES - 1));
+        return embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(5)
+                .minScore(0.0)
+                .build());
+    }
+}
@@ -0,0 +1,53 @@
+package ma.emsi.dhissiayman.tp3.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DocumentSplitters.recursive sur un document déjà parsé, pour plusieurs tailles de segment
+ * (overlap = 10 % de la taille, comme 500 / 50 dans le projet).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplittingBenchmark {
+
+    @Param({"langchain4j.pdf", "llm.pdf"})
+    public String pdf;
+
+    @Param({"200", "500", "1000"})
+    public int maxSegmentSize;
+
+    private Document document;
+    private DocumentSplitter splitter;
+
+    @Setup
+    public void setup() {
+        document = BenchData.parse(BenchData.pdfBytes(pdf));
+        splitter = DocumentSplitters.recursive(maxSegmentSize, maxSegmentSize / 10);
+    }
+
+    @Benchmark
+    public List<TextSegment> split() {
+        return splitter.split(document);
+    }
+}
@@ -0,0 +1,105 @@
+package ma.emsi.dhissiayman.tp3.assistant;
+
+import dev.langchain4j.service.TokenStream;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Affiche la réponse d'un {@link StreamingAssistant} dans la console au fur et à mesure
+ * de l'arrivée des tokens, et mesure pour chaque question :
+ *  - la durée de la récupération RAG (avant le début de la génération)
+ *  - le temps jusqu'au premier token (TTFT), depuis l'envoi de la question
+ *  - la durée totale de la réponse
+ */
+public class ConsoleStreamRenderer {
+
+    private static final int MAX_SAMPLES = 1024;
+
+    private final long[] ttftMillis = new long[MAX_SAMPLES];
+    private final long[] totalMillis = new long[MAX_SAMPLES];
+    private int answers;
+
+    /**
+     * Pose la question, affiche la réponse en streaming et la renvoie complète.
+     */
+    public String ask(StreamingAssistant assistant, String question) {
+        long start = System.nanoTime();
+        TokenStream stream = assistant.chat(question); // récupération RAG faite ici
+        long retrievalMillis = (System.nanoTime() - start) / 1_000_000;
+
+        StringBuilder answer = new StringBuilder();
+        AtomicLong firstToken = new AtomicLong();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        System.out.println("--------------------------------------------------");
+        System.out.print("Assistant : ");
+        stream.onPartialResponse(token -> {
+                    firstToken.compareAndSet(0, System.nanoTime());
+                    answer.append(token);
+                    System.out.print(token);
+                    System.out.flush();
+                })
+                .onCompleteResponse(response -> done.complete(null))
+                .onError(done::completeExceptionally)
+                .start();
+
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Réponse interrompue", e);
+        } catch (ExecutionException e) {
+            System.out.println();
+            throw new IllegalStateException("Erreur pendant la génération de la réponse", e.getCause());
+        }
+
+        long end = System.nanoTime();
+        long ttft = firstToken.get() == 0 ? -1 : (firstToken.get() - start) / 1_000_000;
+        long total = (end - start) / 1_000_000;
+        record(ttft, total);
+
+        System.out.println();
+        System.out.println("[Latence] récupération : " + retrievalMillis + " ms, premier token : "
+                + (ttft < 0 ? "-" : ttft + " ms") + ", total : " + total + " ms");
+        return answer.toString();
+    }
+
+    public synchronized Stats stats() {
+        int n = Math.min(answers, MAX_SAMPLES);
+        long[] ttft = Arrays.stream(ttftMillis, 0, n).filter(v -> v >= 0).sorted().toArray();
+        long[] total = Arrays.copyOf(totalMillis, n);
+        Arrays.sort(total);
+        return new Stats(answers, median(ttft), median(total), max(ttft), max(total));
+    }
+
+    private synchronized void record(long ttft, long total) {
+        ttftMillis[answers % MAX_SAMPLES] = ttft;
+        totalMillis[answers % MAX_SAMPLES] = total;
+        answers++;
+    }
+
+    private static long median(long[] sorted) {
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+    }
+
+    private static long max(long[] sorted) {
+        return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+    }
+
+    /**
+     * Latences (ms) des réponses affichées : premier token et total, séparément.
+     */
+    public record Stats(int answers, long medianTtftMillis, long medianTotalMillis,
+                        long maxTtftMillis, long maxTotalMillis) {
+
+        @Override
+        public String toString() {
+            return String.format("streaming : %d réponses, premier token médian = %d ms (max %d ms),"
+                            + " réponse complète médiane = %d ms (max %d ms)",
+                    answers, medianTtftMillis, maxTtftMillis, medianTotalMillis, maxTotalMillis);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ma.emsi.dhissiayman.tp3.assistant;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import ma.emsi.dhissiayman.tp3.cache.SemanticAnswerCache;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Assistant qui consulte un {@link SemanticAnswerCache} avant de déléguer.
+ *
+ * Une question proche d'une question déjà posée reçoit la réponse en cache ;
+ * sinon l'assistant d'origine (RAG + Gemini) est appelé et sa réponse est enregistrée,
+ * à condition que le store n'ait pas changé pendant le calcul.
+ * {@link #chat(String, UnaryOperator)} permet de calculer la réponse autrement
+ * (ex : assistant en streaming) tout en gardant la même logique de cache.
+ *
+ * Le cache ne connaît que le texte de la question. Si la mémoire de conversation de l'assistant
+ * d'origine est fournie :
+ *  - dès qu'elle contient un tour précédent, le cache n'est ni consulté ni alimenté
+ *    (une relance comme "Peux-tu donner un exemple ?" dépend de la conversation)
+ *  - une réponse servie depuis le cache y est ajoutée (question + réponse), pour que
+ *    la suite de la conversation voie ce tour
+ */
+public class SemanticCachingAssistant implements Assistant {
+
+    private final Assistant delegate;
+    private final SemanticAnswerCache cache;
+    private final ChatMemory memory;
+    private final LongAdder bypasses = new LongAdder();
+
+    public SemanticCachingAssistant(Assistant delegate, SemanticAnswerCache cache) {
+        this(delegate, cache, null);
+    }
+
+    /**
+     * @param memory mémoire de conversation de delegate (null : le cache est toujours consulté)
+     */
+    public SemanticCachingAssistant(Assistant delegate, SemanticAnswerCache cache, ChatMemory memory) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.memory = memory;
+    }
+
+    @Override
+    public String chat(String userMessage) {
+        return chat(userMessage, delegate::chat).text();
+    }
+
+    /**
+     * Réponse en cache si elle existe ; sinon onMiss calcule la réponse, qui est enregistrée.
+     * En cours de conversation (mémoire non vide), onMiss est appelé sans passer par le cache.
+     */
+    public Answer chat(String userMessage, UnaryOperator<String> onMiss) {
+        if (memory != null && !memory.messages().isEmpty()) {
+            bypasses.increment();
+            return new Answer(onMiss.apply(userMessage), false);
+        }
+        long version = cache.storeVersion();
+        Optional<String> cached = cache.lookup(userMessage);
+        if (cached.isPresent()) {
+            if (memory != null) {
+                memory.add(UserMessage.from(userMessage));
+                memory.add(AiMessage.from(cached.get()));
+            }
+            return new Answer(cached.get(), true);
+        }
+        String answer = onMiss.apply(userMessage);
+        cache.put(userMessage, answer, version);
+        return new Answer(answer, false);
+    }
+
+    public SemanticAnswerCache cache() {
+        return cache;
+    }
+
+    /** Questions posées en cours de conversation, traitées sans le cache. */
+    public long bypasses() {
+        return bypasses.sum();
+    }
+
+    /**
+     * Réponse et son origine (cache ou calcul).
+     */
+    public record Answer(String text, boolean fromCache) {
+    }
+}
@@ -0,0 +1,14 @@
+package ma.emsi.dhissiayman.tp3.assistant;
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+
+/**
+ * Assistant multi-utilisateurs : chaque session a sa propre mémoire de conversation,
+ * fournie par le ChatMemoryProvider de l'AiService à partir de sessionId.
+ * Les méthodes de {@link ChatMemoryAccess} permettent d'oublier une session (evictChatMemory).
+ */
+public interface SessionAssistant extends ChatMemoryAccess {
+    String chat(@MemoryId String sessionId, @UserMessage String userMessage);
+}
@@ -0,0 +1,13 @@
+package ma.emsi.dhissiayman.tp3.assistant;
+
+import dev.langchain4j.service.TokenStream;
+
+/**
+ * Variante de {@link Assistant} dont la réponse arrive token par token.
+ *
+ * La récupération RAG a lieu pendant l'appel à chat(...) ; la génération
+ * ne commence qu'au start() du TokenStream renvoyé (voir {@link ConsoleStreamRenderer}).
+ */
+public interface StreamingAssistant {
+    TokenStream chat(String userMessage);
+}
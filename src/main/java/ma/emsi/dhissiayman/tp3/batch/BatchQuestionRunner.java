@@ -0,0 +1,318 @@
+package ma.emsi.dhissiayman.tp3.batch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.service.AiServices;
+import ma.emsi.dhissiayman.tp3.assistant.SessionAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.memory.SessionMemoryProvider;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.LatencyHistogram;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mode batch : pose à l'assistant toutes les questions d'un fichier JSONL, en parallèle.
+ *
+ * Entrée : une question par ligne, {"id": "q1", "question": "Qu'est-ce que le RAG ?"}
+ * ("id" facultatif : numéro de ligne par défaut ; lignes vides ignorées).
+ * Sortie : une ligne JSON par question, écrite dès qu'elle est terminée (ordre d'achèvement) :
+ * {"id", "question", "status": "ok" | "erreur" | "invalide", "answer" | "error", "latencyMs", "waitMs"}.
+ *
+ * Au plus parallelism questions sont en cours (un thread virtuel chacune) ; chaque appel
+ * à l'assistant prend d'abord un jeton du {@link TokenBucket} (requêtes Gemini par seconde).
+ * Chaque question a sa propre session : les réponses ne dépendent pas de l'ordre d'exécution.
+ *
+ * Usage : BatchQuestionRunner questions.jsonl [résultats.jsonl]
+ *   -Drag.batch.parallelism=4  -Drag.batch.rps=1.0  -Drag.batch.burst=1
+ */
+public final class BatchQuestionRunner {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SessionAssistant assistant;
+    private final SessionMemoryProvider memories;
+    private final int parallelism;
+    private final TokenBucket rateLimiter;
+
+    private BatchQuestionRunner(Builder builder) {
+        if (builder.assistant == null) {
+            throw new IllegalArgumentException("assistant est obligatoire");
+        }
+        this.assistant = builder.assistant;
+        this.memories = builder.memories;
+        this.parallelism = builder.parallelism;
+        this.rateLimiter = new TokenBucket(builder.requestsPerSecond, builder.burst);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Exécute toutes les questions de input et écrit les résultats dans output (écrasé).
+     * Rend la main quand toutes les questions sont terminées.
+     */
+    public Summary run(Path input, Path output) throws IOException, InterruptedException {
+        Semaphore slots = new Semaphore(parallelism);
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder ok = new LongAdder();
+        LongAdder errors = new LongAdder();
+        LongAdder invalid = new LongAdder();
+        AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null && writeFailure.get() == null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String id = String.valueOf(lineNumber);
+                String question;
+                try {
+                    JsonNode node = MAPPER.readTree(line);
+                    id = node.hasNonNull("id") ? node.path("id").asText() : id;
+                    question = node.path("question").asText("");
+                } catch (JsonProcessingException e) {
+                    question = "";
+                }
+                if (question.isBlank()) {
+                    invalid.increment();
+                    write(writer, result(id, line).put("status", "invalide")
+                            .put("error", "ligne " + lineNumber + " : champ 'question' attendu"), writeFailure);
+                    continue;
+                }
+
+                slots.acquire();
+                String questionId = id;
+                String text = question;
+                Thread.ofVirtual().name("batch-" + questionId).start(() -> {
+                    try {
+                        ObjectNode result = ask(questionId, text, latencies);
+                        ("ok".equals(result.path("status").asText()) ? ok : errors).increment();
+                        write(writer, result, writeFailure);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            // attend la fin des questions en cours
+            slots.acquire(parallelism);
+        }
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+        return new Summary(ok.sum(), errors.sum(), invalid.sum(), System.nanoTime() - start,
+                latencies.meanMillis(), latencies.percentileMillis(0.50), latencies.percentileMillis(0.95),
+                latencies.percentileMillis(0.99), latencies.maxNanos() / 1e6,
+                rateLimiter.waits(), rateLimiter.waitedMillis());
+    }
+
+    private ObjectNode ask(String id, String question, LatencyHistogram latencies) throws InterruptedException {
+        long queued = System.nanoTime();
+        rateLimiter.acquire();
+        long start = System.nanoTime();
+        String session = "batch-" + id;
+        ObjectNode result = result(id, question);
+        try {
+            result.put("status", "ok").put("answer", assistant.chat(session, question));
+        } catch (RuntimeException e) {
+            result.put("status", "erreur").put("error", String.valueOf(e.getMessage()));
+        } finally {
+            assistant.evictChatMemory(session);
+            if (memories != null) {
+                memories.remove(session);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        latencies.record(elapsed);
+        System.out.printf("[Batch] %s : %s en %d ms%n", id, result.path("status").asText(), elapsed / 1_000_000);
+        return result
+                .put("latencyMs", elapsed / 1_000_000)
+                .put("waitMs", (start - queued) / 1_000_000);
+    }
+
+    private static ObjectNode result(String id, String question) {
+        return MAPPER.createObjectNode().put("id", id).put("question", question);
+    }
+
+    private static void write(BufferedWriter writer, ObjectNode result, AtomicReference<IOException> failure) {
+        synchronized (writer) {
+            try {
+                writer.write(MAPPER.writeValueAsString(result));
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Bilan d'un batch : questions par statut, débit et latences de l'assistant (ms,
+     * hors attente du limiteur de débit).
+     */
+    public record Summary(long ok, long errors, long invalid, long elapsedNanos,
+                          double meanMillis, double p50Millis, double p95Millis, double p99Millis, double maxMillis,
+                          long rateLimitWaits, long rateLimitWaitMillis) {
+
+        public double seconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        /** Questions traitées (ok + erreurs) par seconde. */
+        public double throughput() {
+            return seconds() == 0 ? 0 : (ok + errors) / seconds();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[Batch] %d questions en %.1f s (%.2f questions/s) : %d ok, %d erreurs, %d lignes invalides%n"
+                            + "[Batch] latence moyenne = %.0f ms, p50 ≤ %.0f ms, p95 ≤ %.0f ms, p99 ≤ %.0f ms, max = %.0f ms%n"
+                            + "[Batch] limiteur de débit : %d attentes, %d ms au total",
+                    ok + errors, seconds(), throughput(), ok, errors, invalid,
+                    meanMillis, p50Millis, p95Millis, p99Millis, maxMillis, rateLimitWaits, rateLimitWaitMillis);
+        }
+    }
+
+    public static final class Builder {
+        private SessionAssistant assistant;
+        private SessionMemoryProvider memories;
+        private int parallelism = 4;
+        private double requestsPerSecond = 1.0;
+        private int burst = 1;
+
+        private Builder() {
+        }
+
+        /** Assistant interrogé, une session par question (obligatoire). */
+        public Builder assistant(SessionAssistant assistant) {
+            this.assistant = assistant;
+            return this;
+        }
+
+        /** Mémoires de l'assistant : la session d'une question est oubliée dès qu'elle est terminée. */
+        public Builder memories(SessionMemoryProvider memories) {
+            this.memories = memories;
+            return this;
+        }
+
+        /** Nombre maximum de questions en cours en même temps. */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = positive(parallelism, "parallelism");
+            return this;
+        }
+
+        /** Débit maximum d'appels à l'assistant (requêtes Gemini par seconde). */
+        public Builder requestsPerSecond(double requestsPerSecond) {
+            if (requestsPerSecond <= 0) {
+                throw new IllegalArgumentException("requestsPerSecond doit être > 0 : " + requestsPerSecond);
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /** Nombre d'appels pouvant partir d'un coup après une période calme. */
+        public Builder burst(int burst) {
+            this.burst = positive(burst, "burst");
+            return this;
+        }
+
+        public BatchQuestionRunner build() {
+            return new BatchQuestionRunner(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println("Usage : BatchQuestionRunner questions.jsonl [résultats.jsonl]");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        Path output = args.length > 1 ? Paths.get(args[1]) : Paths.get(args[0] + ".resultats.jsonl");
+        int parallelism = Integer.getInteger("rag.batch.parallelism", 4);
+
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
+
+        ResilientChatModel chatModel = GeminiModels.chatModel(List.of(new MetricsChatModelListener()));
+
+        // Même RAG que le serveur : une question = un appel Gemini (pas de routage par LLM),
+        // le limiteur de débit borne donc directement les requêtes Gemini par seconde
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        DenseVectorStore embeddingStore = DenseVectorStore.of(IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(IngestionPipeline.resourcePath("langchain4j.pdf")));
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 10_000);
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
+
+        int maxTokens = Integer.getInteger("rag.memory.maxTokens", 2000);
+        SessionMemoryProvider memories = new SessionMemoryProvider(
+                id -> TokenBudgetChatMemory.builder().id(id).maxTokens(maxTokens).build(), parallelism * 2);
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(memories)
+                .retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .contentRetriever(EmbeddingStoreContentRetriever.builder()
+                                .embeddingStore(embeddingStore)
+                                .embeddingModel(queryEmbeddingModel)
+                                .maxResults(5)
+                                .minScore(0.5)
+                                .build())
+                        .contentAggregator(contentAggregator)
+                        .build())
+                .build();
+        memories.onEviction(assistant::evictChatMemory);
+
+        BatchQuestionRunner runner = builder()
+                .assistant(assistant)
+                .memories(memories)
+                .parallelism(parallelism)
+                .requestsPerSecond(Double.parseDouble(System.getProperty("rag.batch.rps", "1.0")))
+                .burst(Integer.getInteger("rag.batch.burst", 1))
+                .build();
+        System.out.println("Batch : " + input + " → " + output + " (" + parallelism + " questions en parallèle)");
+        System.out.println(runner.run(input, output));
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(contentAggregator.stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+    }
+}
@@ -0,0 +1,66 @@
+package ma.emsi.dhissiayman.tp3.batch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limiteur de débit "token bucket" : permitsPerSecond jetons par seconde,
+ * au plus burst jetons accumulés pendant les périodes calmes.
+ *
+ * {@link #acquire()} réserve un jeton sous le verrou (le solde peut devenir négatif)
+ * puis attend, hors verrou, le temps que ce jeton soit produit : les appelants
+ * sont servis dans l'ordre de leurs réservations, espacés de 1 / permitsPerSecond.
+ */
+public final class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final double burst;
+
+    private double available;
+    private long lastRefillNanos;
+
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond doit être > 0 : " + permitsPerSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst doit être > 0 : " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.available = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Prend un jeton, en attendant qu'il soit disponible.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(burst, available + (now - lastRefillNanos) * permitsPerSecond / 1e9);
+            lastRefillNanos = now;
+            available -= 1;
+            waitNanos = available >= 0 ? 0 : (long) (-available / permitsPerSecond * 1e9);
+        }
+        if (waitNanos > 0) {
+            waits.increment();
+            waitedNanos.add(waitNanos);
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /** Nombre d'appels à {@link #acquire()} qui ont dû attendre. */
+    public long waits() {
+        return waits.sum();
+    }
+
+    /** Temps total d'attente imposé par le limiteur, en millisecondes. */
+    public long waitedMillis() {
+        return waitedNanos.sum() / 1_000_000;
+    }
+}
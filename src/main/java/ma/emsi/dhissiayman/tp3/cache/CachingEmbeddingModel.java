@@ -0,0 +1,140 @@
+package ma.emsi.dhissiayman.tp3.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * EmbeddingModel qui garde en cache (LRU borné) les embeddings des requêtes.
+ *
+ * EmbeddingStoreContentRetriever appelle embed(question) à chaque message :
+ * une question déjà posée (même texte, aux espaces de début/fin près)
+ * ne repasse plus par le modèle ONNX. Le texte est embeddé sans ces espaces,
+ * pour que l'entrée du cache corresponde exactement à sa clé.
+ *
+ * Seuls les appels embed (une requête) sont mis en cache ; tous les embedAll
+ * (segments de l'ingestion, même un seul) sont transmis tels quels au modèle,
+ * pour ne pas remplir le cache avec le contenu des documents.
+ *
+ * Thread-safe : la map LRU est protégée par un verrou, le calcul d'un
+ * embedding manquant se fait hors verrou.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final int maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Embedding> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries doit être > 0 : " + maxEntries);
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        // accessOrder = true : l'entrée la moins récemment utilisée est évincée en premier
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Embedding> eldest) {
+                if (size() > CachingEmbeddingModel.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        String key = text.strip();
+
+        lock.lock();
+        Embedding cached;
+        try {
+            cached = cache.get(key);
+        } finally {
+            lock.unlock();
+        }
+        if (cached != null) {
+            hits.increment();
+            return Response.from(cached);
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        Embedding embedding = delegate.embed(key).content();
+        StageMetrics.global().record(StageMetrics.Stage.QUERY_EMBED, start);
+        lock.lock();
+        try {
+            cache.put(key, embedding);
+        } finally {
+            lock.unlock();
+        }
+        return Response.from(embedding);
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            cache.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = cache.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, maxEntries);
+    }
+
+    /**
+     * Compteurs du cache à un instant donné.
+     */
+    public record Stats(long hits, long misses, long evictions, int size, int maxEntries) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cache d'embeddings : %d hits, %d misses (%.0f %%), %d évictions, %d/%d entrées",
+                    hits, misses, 100 * hitRate(), evictions, size, maxEntries);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ma.emsi.dhissiayman.tp3.cache;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import ma.emsi.dhissiayman.tp3.store.VectorMath;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache sémantique de réponses : une question "presque identique" à une question
+ * déjà traitée (similarité cosinus des embeddings ≥ seuil) reçoit la même réponse,
+ * sans nouvel appel au LLM.
+ *
+ * Règles d'éviction :
+ *  - TTL : une entrée plus vieille que ttl n'est plus servie
+ *  - taille : au-delà de maxEntries, l'entrée la moins récemment utilisée est évincée
+ *  - contenu : si la version du store (storeVersion) change, tout le cache est vidé,
+ *    car les réponses ont été construites à partir de l'ancien contenu ; pour la même raison,
+ *    une réponse calculée avant le changement est refusée par put (version lue avant lookup)
+ *
+ * La recherche est un parcours linéaire des entrées (quelques centaines au plus),
+ * bien plus rapide que l'appel au LLM qu'elle évite.
+ */
+public class SemanticAnswerCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final double similarityThreshold;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LongSupplier storeVersion;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long knownVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder staleAnswers = new LongAdder();
+
+    /**
+     * @param embeddingModel      modèle utilisé pour embedder les questions (de préférence un {@link CachingEmbeddingModel})
+     * @param similarityThreshold similarité cosinus minimale pour réutiliser une réponse (ex : 0.95)
+     * @param ttl                 durée de validité d'une réponse
+     * @param maxEntries          nombre maximum de réponses gardées
+     * @param storeVersion        version du contenu indexé (ex : VersionedStore::version)
+     */
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, double similarityThreshold, Duration ttl,
+                               int maxEntries, LongSupplier storeVersion) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries doit être > 0 : " + maxEntries);
+        }
+        this.embeddingModel = embeddingModel;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.storeVersion = storeVersion;
+        this.knownVersion = storeVersion.getAsLong();
+    }
+
+    /**
+     * Réponse déjà connue pour une question suffisamment proche, si elle existe.
+     */
+    public Optional<String> lookup(String question) {
+        float[] vector = embed(question);
+        long now = System.nanoTime();
+
+        lock.lock();
+        try {
+            invalidateIfStoreChanged();
+
+            Entry best = null;
+            float bestScore = (float) similarityThreshold;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.createdAt > ttlNanos) {
+                    iterator.remove();
+                    expirations.increment();
+                    continue;
+                }
+                float score = VectorMath.dot(vector, 0, entry.vector, 0, vector.length);
+                if (score >= bestScore) {
+                    bestScore = score;
+                    best = entry;
+                }
+            }
+            if (best == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            entries.get(best.key); // mise à jour de l'ordre LRU
+            hits.increment();
+            return Optional.of(best.answer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Version actuelle du contenu indexé : à lire avant {@link #lookup}, puis à passer à {@link #put}.
+     */
+    public long storeVersion() {
+        return storeVersion.getAsLong();
+    }
+
+    /**
+     * Enregistre la réponse donnée à une question, sauf si le store a changé depuis
+     * lookupVersion (la réponse a pu être construite à partir de l'ancien contenu).
+     *
+     * @param lookupVersion valeur de {@link #storeVersion()} lue avant le lookup de la question
+     */
+    public void put(String question, String answer, long lookupVersion) {
+        float[] vector = embed(question);
+        String key = question.strip();
+
+        lock.lock();
+        try {
+            invalidateIfStoreChanged();
+            if (knownVersion != lookupVersion) {
+                staleAnswers.increment();
+                return;
+            }
+            entries.put(key, new Entry(key, vector, answer, System.nanoTime()));
+            while (entries.size() > maxEntries) {
+                Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(hits.sum(), misses.sum(), expirations.sum(), evictions.sum(), invalidations.sum(),
+                staleAnswers.sum(), size);
+    }
+
+    private void invalidateIfStoreChanged() {
+        long current = storeVersion.getAsLong();
+        if (current != knownVersion) {
+            knownVersion = current;
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidations.increment();
+            }
+        }
+    }
+
+    private float[] embed(String question) {
+        return VectorMath.normalizedCopy(embeddingModel.embed(question).content().vector());
+    }
+
+    private record Entry(String key, float[] vector, String answer, long createdAt) {
+    }
+
+    /**
+     * Compteurs du cache à un instant donné.
+     */
+    public record Stats(long hits, long misses, long expirations, long evictions, long invalidations,
+                        long staleAnswers, int size) {
+
+        @Override
+        public String toString() {
+            return String.format("cache de réponses : %d hits, %d misses, %d expirées, %d évincées, %d invalidations, "
+                            + "%d réponses périmées refusées, %d entrées",
+                    hits, misses, expirations, evictions, invalidations, staleAnswers, size);
+        }
+    }
+}
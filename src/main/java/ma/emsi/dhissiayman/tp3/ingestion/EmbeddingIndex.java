@@ -0,0 +1,100 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Résultat d'une ingestion : les segments d'un document et leurs embeddings.
+ *
+ * Les vecteurs sont rangés bout à bout dans un seul tableau de floats
+ * (segment i → positions [i * dimension, (i + 1) * dimension[),
+ * ce qui évite de créer un objet Embedding par segment au chargement.
+ */
+public final class EmbeddingIndex {
+
+    private final List<TextSegment> segments;
+    private final float[] vectors;
+    private final int dimension;
+
+    public EmbeddingIndex(List<TextSegment> segments, float[] vectors, int dimension) {
+        if (vectors.length != segments.size() * dimension) {
+            throw new IllegalArgumentException("Taille du tableau de vecteurs incohérente : "
+                    + vectors.length + " floats pour " + segments.size() + " segments de dimension " + dimension);
+        }
+        this.segments = List.copyOf(segments);
+        this.vectors = vectors;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Construit un index à partir du résultat classique de embedAll.
+     */
+    public static EmbeddingIndex from(List<TextSegment> segments, List<Embedding> embeddings) {
+        if (segments.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Nombre de segments (" + segments.size()
+                    + ") différent du nombre d'embeddings (" + embeddings.size() + ")");
+        }
+        int dimension = embeddings.isEmpty() ? 0 : embeddings.get(0).dimension();
+        float[] vectors = new float[segments.size() * dimension];
+        for (int i = 0; i < embeddings.size(); i++) {
+            System.arraycopy(embeddings.get(i).vector(), 0, vectors, i * dimension, dimension);
+        }
+        return new EmbeddingIndex(segments, vectors, dimension);
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public List<TextSegment> segments() {
+        return segments;
+    }
+
+    /**
+     * Tableau contigu de tous les vecteurs (partagé, ne pas modifier).
+     */
+    public float[] vectors() {
+        return vectors;
+    }
+
+    public TextSegment segment(int i) {
+        return segments.get(i);
+    }
+
+    /**
+     * Copie du vecteur du segment i.
+     */
+    public float[] vector(int i) {
+        return Arrays.copyOfRange(vectors, i * dimension, (i + 1) * dimension);
+    }
+
+    /**
+     * Matérialise les embeddings sous forme d'objets LangChain4j
+     * (utile pour les EmbeddingStore qui n'acceptent que des Embedding).
+     */
+    public List<Embedding> embeddings() {
+        List<Embedding> embeddings = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            embeddings.add(Embedding.from(vector(i)));
+        }
+        return embeddings;
+    }
+
+    /**
+     * Ajoute tous les segments + embeddings de l'index dans le store.
+     */
+    public void addTo(EmbeddingStore<TextSegment> store) {
+        if (!segments.isEmpty()) {
+            store.addAll(embeddings(), segments);
+        }
+    }
+}
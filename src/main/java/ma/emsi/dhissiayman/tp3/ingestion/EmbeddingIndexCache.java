@@ -0,0 +1,453 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cache disque des index d'embeddings, pour ne pas refaire
+ * parsing Tika + découpage + embedAll à chaque lancement.
+ *
+ * Chaque fichier .idx est identifié par un SHA-256 calculé sur :
+ *  - le contenu binaire du PDF
+ *  - les paramètres du splitter (taille max, overlap)
+ *  - le nom du modèle d'embeddings
+ *  - la version du format
+ * Si l'un d'eux change, la clé change et l'ingestion complète est relancée.
+ *
+ * Nom du fichier : nom du PDF, empreinte de son chemin absolu, début de la clé
+ * (ex. cours.pdf-1a2b3c4d-0011223344556677.idx). Deux PDF de même nom dans des répertoires
+ * différents ont donc des entrées distinctes, et le nettoyage des anciennes versions d'un PDF
+ * ne touche que les fichiers commençant exactement par son préfixe (comparaison littérale).
+ *
+ * Format binaire (entiers en big-endian, vecteurs en little-endian) :
+ * <pre>
+ *  [0..64[   en-tête : magic, version, clé (32 octets), dimension, nombre de segments, offset des segments
+ *  [64..]    bloc contigu des vecteurs : count * dimension floats
+ *  [offset..] segments encodés par {@link SegmentCodec}
+ * </pre>
+ * Le fichier est relu par memory mapping et le bloc de vecteurs est copié
+ * en une seule opération dans un float[] (aucun objet par vecteur).
+ */
+public final class EmbeddingIndexCache {
+
+    /** Modèle utilisé par tous les points d'entrée du TP. */
+    public static final String ALL_MINILM_L6_V2 = "all-minilm-l6-v2";
+
+    private static final int MAGIC = 0x52414749; // "RAGI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final String EXTENSION = ".idx";
+
+    private final Path directory;
+    private final int maxSegmentSize;
+    private final int maxOverlap;
+    private final String modelName;
+
+    public EmbeddingIndexCache(Path directory, int maxSegmentSize, int maxOverlap, String modelName) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxOverlap = maxOverlap;
+        this.modelName = modelName;
+    }
+
+    /**
+     * Cache utilisé par les tests du TP : découpage recursive(500, 50) + AllMiniLmL6V2,
+     * dans le répertoire donné par la propriété système "rag.index.dir" (".rag-index" par défaut).
+     */
+    public static EmbeddingIndexCache defaultCache() {
+        Path directory = Paths.get(System.getProperty("rag.index.dir", ".rag-index"));
+        return new EmbeddingIndexCache(directory, 500, 50, ALL_MINILM_L6_V2);
+    }
+
+    public int maxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public int maxOverlap() {
+        return maxOverlap;
+    }
+
+    /**
+     * Splitter correspondant aux paramètres inclus dans la clé du cache.
+     */
+    public DocumentSplitter splitter() {
+        return DocumentSplitters.recursive(maxSegmentSize, maxOverlap);
+    }
+
+    /**
+     * Charge l'index du PDF depuis le disque s'il est à jour, sinon
+     * exécute l'ingestion complète puis enregistre le résultat.
+     */
+    public EmbeddingIndex loadOrIngest(Path pdfPath, EmbeddingModel embeddingModel) {
+        byte[] key = key(pdfPath);
+
+        Optional<EmbeddingIndex> cached = load(pdfPath, key);
+        if (cached.isPresent()) {
+            System.out.println("Index chargé depuis le cache pour " + pdfPath.getFileName() + " : "
+                    + cached.get().size() + " segments.");
+            return cached.get();
+        }
+
+        EmbeddingIndex index = ingest(pdfPath, embeddingModel);
+        save(pdfPath, key, index);
+        return index;
+    }
+
+    /**
+     * Ingestion complète d'un PDF : parsing Tika, découpage, embedAll.
+     */
+    public EmbeddingIndex ingest(Path pdfPath, EmbeddingModel embeddingModel) {
+        StageMetrics metrics = StageMetrics.global();
+        DocumentParser parser = new ApacheTikaDocumentParser();
+        Document document = metrics.time(StageMetrics.Stage.PARSE,
+                () -> FileSystemDocumentLoader.loadDocument(pdfPath, parser));
+
+        List<TextSegment> segments = metrics.time(StageMetrics.Stage.SPLIT, () -> splitter().split(document));
+
+        List<Embedding> embeddings = metrics.time(StageMetrics.Stage.EMBED,
+                () -> embeddingModel.embedAll(segments).content());
+        return EmbeddingIndex.from(segments, embeddings);
+    }
+
+    /**
+     * Clé du cache pour ce PDF avec la configuration courante.
+     */
+    public byte[] key(Path pdfPath) {
+        return key(pdfPath, "");
+    }
+
+    /**
+     * Clé du cache, en incluant des paramètres supplémentaires qui changent le contenu de l'index
+     * (ex. déduplication des segments). Une chaîne vide donne la même clé que {@link #key(Path)}.
+     */
+    public byte[] key(Path pdfPath, String extraSettings) {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(pdfPath), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire " + pdfPath, e);
+        }
+        String settings = "|recursive|" + maxSegmentSize + "|" + maxOverlap
+                + "|" + modelName + "|v" + FORMAT_VERSION + extraSettings;
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    /**
+     * Index en cache pour ce PDF, s'il existe et correspond à la clé.
+     * Un fichier illisible ou corrompu est ignoré (l'appelant réingère).
+     */
+    public Optional<EmbeddingIndex> load(Path pdfPath, byte[] key) {
+        Path file = fileFor(pdfPath, key);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return Optional.ofNullable(read(buffer, key));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Cache illisible pour " + pdfPath.getFileName() + " (" + e.getMessage()
+                    + "), nouvelle ingestion.");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Enregistre l'index (écriture dans un fichier temporaire puis renommage atomique)
+     * et supprime les anciennes versions du même PDF. Un échec d'écriture n'est pas bloquant.
+     */
+    public void save(Path pdfPath, byte[] key, EmbeddingIndex index) {
+        Path file = fileFor(pdfPath, key);
+        try {
+            Files.createDirectories(directory);
+            deleteStaleEntries(pdfPath, file);
+
+            Path tmp = Files.createTempFile(directory, pdfPath.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                write(channel, key, index);
+            }
+            moveIntoPlace(tmp, file);
+        } catch (IOException e) {
+            System.out.println("Impossible d'enregistrer le cache " + file + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Écriture d'un index lot par lot, sans jamais l'avoir en entier en mémoire
+     * (utilisé par l'ingestion en flux). À fermer dans tous les cas : sans {@link IndexWriter#commit()},
+     * les fichiers temporaires sont supprimés et le cache reste inchangé.
+     */
+    public IndexWriter writer(Path pdfPath, byte[] key, int dimension) {
+        try {
+            Files.createDirectories(directory);
+            return new IndexWriter(pdfPath, key, dimension);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer le cache pour " + pdfPath.getFileName(), e);
+        }
+    }
+
+    /**
+     * Index en cours d'écriture : les segments sont ajoutés à la suite, dans l'ordre du document,
+     * et chaque lot de vecteurs est écrit à la position de sa première ligne (dans un ordre quelconque,
+     * depuis plusieurs threads). {@link #commit()} assemble le fichier .idx au format habituel.
+     */
+    public final class IndexWriter implements AutoCloseable {
+
+        private final Path pdfPath;
+        private final byte[] key;
+        private final int dimension;
+        private final Path vectorsFile;
+        private final Path segmentsFile;
+        private final FileChannel vectors;
+        private final DataOutputStream segments;
+        private int rows;
+        private boolean committed;
+
+        private IndexWriter(Path pdfPath, byte[] key, int dimension) throws IOException {
+            this.pdfPath = pdfPath;
+            this.key = key;
+            this.dimension = dimension;
+            String prefix = pdfPath.getFileName().toString();
+            this.vectorsFile = Files.createTempFile(directory, prefix, ".vec.tmp");
+            this.segmentsFile = Files.createTempFile(directory, prefix, ".seg.tmp");
+            this.vectors = FileChannel.open(vectorsFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.segments = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segmentsFile)));
+        }
+
+        /**
+         * Ajoute des segments après les précédents.
+         *
+         * @return ligne du premier segment ajouté
+         */
+        public synchronized int appendSegments(List<TextSegment> batch) {
+            try {
+                for (TextSegment segment : batch) {
+                    SegmentCodec.write(segments, segment);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Écriture du cache impossible pour " + pdfPath.getFileName(), e);
+            }
+            int firstRow = rows;
+            rows += batch.size();
+            return firstRow;
+        }
+
+        /** Écrit les vecteurs des lignes firstRow, firstRow + 1... (thread-safe). */
+        public void writeVectors(int firstRow, List<Embedding> embeddings) {
+            ByteBuffer buffer = ByteBuffer.allocate(embeddings.size() * dimension * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (Embedding embedding : embeddings) {
+                buffer.asFloatBuffer().put(embedding.vector());
+                buffer.position(buffer.position() + dimension * Float.BYTES);
+            }
+            buffer.flip();
+            long position = (long) firstRow * dimension * Float.BYTES;
+            try {
+                while (buffer.hasRemaining()) {
+                    position += vectors.write(buffer, position);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Écriture du cache impossible pour " + pdfPath.getFileName(), e);
+            }
+        }
+
+        /**
+         * Assemble en-tête + vecteurs + segments dans le fichier .idx (renommage atomique)
+         * et supprime les anciennes versions du même PDF.
+         */
+        public synchronized void commit() {
+            Path file = fileFor(pdfPath, key);
+            try {
+                segments.close();
+                long vectorBytes = (long) rows * dimension * Float.BYTES;
+                if (vectors.size() != vectorBytes) {
+                    throw new IllegalStateException("Index incomplet pour " + pdfPath.getFileName() + " : "
+                            + vectors.size() + " octets de vecteurs au lieu de " + vectorBytes);
+                }
+                deleteStaleEntries(pdfPath, file);
+                Path tmp = Files.createTempFile(directory, pdfPath.getFileName().toString(), ".tmp");
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE);
+                     FileChannel segmentsIn = FileChannel.open(segmentsFile, StandardOpenOption.READ)) {
+                    ByteBuffer header = header(key, dimension, rows, HEADER_SIZE + vectorBytes);
+                    while (header.hasRemaining()) {
+                        out.write(header);
+                    }
+                    transfer(vectors, out);
+                    transfer(segmentsIn, out);
+                }
+                moveIntoPlace(tmp, file);
+                committed = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible d'enregistrer le cache " + file, e);
+            }
+        }
+
+        /** Nombre de segments ajoutés. */
+        public synchronized int rows() {
+            return rows;
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                segments.close();
+                vectors.close();
+                Files.deleteIfExists(vectorsFile);
+                Files.deleteIfExists(segmentsFile);
+            } catch (IOException e) {
+                System.out.println("Fichiers temporaires du cache non supprimés (" + pdfPath.getFileName()
+                        + ") : " + e.getMessage() + (committed ? "" : ", index non enregistré"));
+            }
+        }
+
+        private static void transfer(FileChannel in, FileChannel out) throws IOException {
+            long size = in.size();
+            long done = 0;
+            while (done < size) {
+                done += in.transferTo(done, size - done, out);
+            }
+        }
+    }
+
+    private void write(FileChannel channel, byte[] key, EmbeddingIndex index) throws IOException {
+        ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(segmentBytes)) {
+            for (TextSegment segment : index.segments()) {
+                SegmentCodec.write(out, segment);
+            }
+        }
+
+        long vectorBytes = (long) index.vectors().length * Float.BYTES;
+        ByteBuffer header = header(key, index.dimension(), index.size(), HEADER_SIZE + vectorBytes);
+
+        ByteBuffer vectors = ByteBuffer.allocate((int) vectorBytes).order(ByteOrder.LITTLE_ENDIAN);
+        vectors.asFloatBuffer().put(index.vectors());
+
+        ByteBuffer[] buffers = {header, vectors, ByteBuffer.wrap(segmentBytes.toByteArray())};
+        while (buffers[2].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private static ByteBuffer header(byte[] key, int dimension, int count, long segmentsOffset) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .put(key)
+                .putInt(dimension)
+                .putInt(count)
+                .putLong(segmentsOffset);
+        header.clear();
+        return header;
+    }
+
+    private static void moveIntoPlace(Path tmp, Path file) throws IOException {
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static EmbeddingIndex read(ByteBuffer buffer, byte[] expectedKey) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        byte[] key = new byte[expectedKey.length];
+        buffer.get(key);
+        if (!Arrays.equals(key, expectedKey)) {
+            return null;
+        }
+        int dimension = buffer.getInt();
+        int count = buffer.getInt();
+        long segmentsOffset = buffer.getLong();
+
+        float[] vectors = new float[count * dimension];
+        buffer.position(HEADER_SIZE);
+        buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vectors);
+
+        buffer.position((int) segmentsOffset);
+        List<TextSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(SegmentCodec.read(buffer));
+        }
+        return new EmbeddingIndex(segments, vectors, dimension);
+    }
+
+    /**
+     * Fichier annexe du cache pour ce PDF et cette clé (ex. graphe HNSW construit sur l'index) :
+     * même préfixe que l'index, suffixe au choix de l'appelant.
+     */
+    public Path sidecarFile(Path pdfPath, byte[] key, String suffix) {
+        return directory.resolve(entryPrefix(pdfPath) + HexFormat.of().formatHex(key, 0, 8) + suffix);
+    }
+
+    private Path fileFor(Path pdfPath, byte[] key) {
+        return sidecarFile(pdfPath, key, EXTENSION);
+    }
+
+    /** Début commun à toutes les entrées d'un PDF : nom du fichier + empreinte de son chemin absolu. */
+    private static String entryPrefix(Path pdfPath) {
+        byte[] source = sha256().digest(pdfPath.toAbsolutePath().normalize().toString()
+                .getBytes(StandardCharsets.UTF_8));
+        return pdfPath.getFileName() + "-" + HexFormat.of().formatHex(source, 0, 4) + "-";
+    }
+
+    /** Supprime les index des anciennes versions du PDF, et leurs fichiers annexes. */
+    private void deleteStaleEntries(Path pdfPath, Path current) throws IOException {
+        String prefix = entryPrefix(pdfPath);
+        String currentPrefix = current.getFileName().toString().replace(EXTENSION, "");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && !name.startsWith(currentPrefix)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipeline d'ingestion multi-documents :
+ *
+ *  parsing Tika + découpage (un thread par document, en parallèle)
+ *        │
+ *        ▼  file bornée de lots de segments (backpressure sur les parseurs)
+ *        │
+ *  embedAll par lots de taille fixe (plusieurs workers, un seul EmbeddingModel partagé)
+ *        │
+ *        ▼
+ *  un EmbeddingIndex par document (+ enregistrement dans le cache disque)
+ *
+ * Les documents déjà présents dans le cache ({@link EmbeddingIndexCache}) ne sont ni parsés ni embeddés.
+ * Entre découpage et embeddings, les segments en double d'un même document sont écartés
+ * ({@link SegmentDeduplicator}, propriété rag.dedup).
+ *
+ * Un document d'au moins streamingThresholdBytes octets (propriété rag.ingest.streamingThresholdMb,
+ * 50 Mo par défaut) n'est pas chargé en entier : il passe par {@link StreamingPdfIngestor}
+ * (une page à la fois, même découpage, même déduplication), un document après l'autre.
+ */
+public final class IngestionPipeline {
+
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingIndexCache cache;
+    private final SegmentDeduplicator deduplicator;
+    private final int batchSize;
+    private final int parserThreads;
+    private final int embeddingThreads;
+    private final int queueCapacity;
+    private final long streamingThresholdBytes;
+
+    private IngestionPipeline(Builder builder) {
+        if (builder.embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel est obligatoire");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.cache = builder.cache;
+        this.deduplicator = builder.deduplicator;
+        this.batchSize = builder.batchSize;
+        this.parserThreads = builder.parserThreads;
+        this.embeddingThreads = builder.embeddingThreads;
+        this.queueCapacity = builder.queueCapacity;
+        this.streamingThresholdBytes = builder.streamingThresholdBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Chemin d'un PDF placé dans src/main/resources.
+     * Si l'application tourne depuis un jar (profil fast-start), le PDF est copié une fois dans
+     * java.io.tmpdir/rag-resources : même nom et même contenu, donc même entrée du cache disque.
+     */
+    public static Path resourcePath(String resourceName) {
+        URL resource = IngestionPipeline.class.getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new IllegalStateException("Le fichier " + resourceName + " n'a pas été trouvé dans resources");
+        }
+        if ("jar".equals(resource.getProtocol())) {
+            return extractedResource(resource, resourceName);
+        }
+        try {
+            return Paths.get(resource.toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("URI invalide pour " + resourceName, e);
+        }
+    }
+
+    private static Path extractedResource(URL resource, String resourceName) {
+        Path target = Paths.get(System.getProperty("java.io.tmpdir"), "rag-resources", resourceName);
+        try {
+            URLConnection connection = resource.openConnection();
+            if (Files.isRegularFile(target) && Files.size(target) == connection.getContentLengthLong()) {
+                return target;
+            }
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try (InputStream in = connection.getInputStream()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            return target;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'extraire " + resourceName + " du jar", e);
+        }
+    }
+
+    public EmbeddingIndexCache cache() {
+        return cache;
+    }
+
+    /**
+     * Déduplication appliquée à chaque document (null si désactivée).
+     */
+    public SegmentDeduplicator deduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Clé du cache disque pour ce PDF, paramètres de déduplication et mode d'ingestion compris
+     * (l'ingestion en flux découpe page par page : ses segments diffèrent).
+     */
+    public byte[] cacheKey(Path pdfPath) {
+        return cache.key(pdfPath, (deduplicator == null ? "" : "|dedup-" + deduplicator.settings())
+                + (streams(pdfPath) ? "|stream" : ""));
+    }
+
+    /**
+     * Vrai si ce PDF dépasse le seuil d'ingestion en flux.
+     */
+    public boolean streams(Path pdfPath) {
+        try {
+            return Files.size(pdfPath) >= streamingThresholdBytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire la taille de " + pdfPath, e);
+        }
+    }
+
+    /**
+     * Ingestion d'un seul PDF.
+     */
+    public EmbeddingIndex ingest(Path pdfPath) {
+        return ingestAll(List.of(pdfPath)).get(pdfPath);
+    }
+
+    /**
+     * Ingestion concurrente de plusieurs PDF.
+     *
+     * @return un index par document, dans l'ordre de la liste reçue
+     */
+    public Map<Path, EmbeddingIndex> ingestAll(List<Path> pdfPaths) {
+        Map<Path, CompletableFuture<EmbeddingIndex>> futures = new LinkedHashMap<>();
+        List<DocumentSlot> toIngest = new ArrayList<>();
+        List<DocumentSlot> toStream = new ArrayList<>();
+
+        for (Path pdfPath : pdfPaths) {
+            byte[] key = cacheKey(pdfPath);
+            Optional<EmbeddingIndex> cached = cache.load(pdfPath, key);
+            if (cached.isPresent()) {
+                System.out.println("Index chargé depuis le cache pour " + pdfPath.getFileName() + " : "
+                        + cached.get().size() + " segments.");
+                futures.put(pdfPath, CompletableFuture.completedFuture(cached.get()));
+            } else {
+                DocumentSlot slot = new DocumentSlot(pdfPath, key);
+                (streams(pdfPath) ? toStream : toIngest).add(slot);
+                futures.put(pdfPath, slot.result);
+            }
+        }
+
+        if (!toIngest.isEmpty()) {
+            run(toIngest);
+        }
+        // Gros documents : un à la fois, chacun utilisant déjà tous les workers d'embedding
+        toStream.forEach(this::stream);
+
+        Map<Path, EmbeddingIndex> indexes = new LinkedHashMap<>();
+        futures.forEach((path, future) -> {
+            try {
+                indexes.put(path, future.join());
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Échec de l'ingestion de " + path.getFileName(), e.getCause());
+            }
+        });
+        return indexes;
+    }
+
+    private void run(List<DocumentSlot> slots) {
+        long start = System.nanoTime();
+        int dimension = embeddingModel.dimension();
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicLong embeddedSegments = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try (ExecutorService parsers = Executors.newFixedThreadPool(Math.min(parserThreads, slots.size()));
+             ExecutorService embedders = Executors.newFixedThreadPool(embeddingThreads)) {
+
+            for (int i = 0; i < embeddingThreads; i++) {
+                embedders.submit(() -> embedBatches(queue, embeddedSegments, failure));
+            }
+
+            List<CompletableFuture<Void>> parsing = new ArrayList<>();
+            for (DocumentSlot slot : slots) {
+                parsing.add(CompletableFuture.runAsync(() -> parseAndEnqueue(slot, dimension, queue, failure), parsers));
+            }
+
+            // Une fois tous les documents découpés, un "poison pill" par worker d'embedding ;
+            // après une Error d'un worker, les workers encore actifs sont interrompus
+            CompletableFuture.allOf(parsing.toArray(CompletableFuture[]::new))
+                    .handle((ignored, error) -> null)
+                    .join();
+            for (int i = 0; i < embeddingThreads; i++) {
+                if (!offer(queue, Batch.END, failure)) {
+                    break;
+                }
+            }
+            if (failure.get() != null) {
+                embedders.shutdownNow();
+            }
+        }
+
+        // Documents dont des lots sont restés dans la file après l'arrêt des workers
+        Throwable error = failure.get();
+        if (error != null) {
+            slots.forEach(slot -> slot.result.completeExceptionally(error));
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Pipeline d'ingestion : %d segments embeddés en %.2f s (%.1f segments/s, %d documents)%n",
+                embeddedSegments.get(), seconds, embeddedSegments.get() / Math.max(seconds, 1e-9), slots.size());
+    }
+
+    /**
+     * Gros document : parsing en flux, chaque lot écrit directement dans le fichier du cache
+     * (jamais tout l'index en mémoire pendant l'ingestion), puis l'index est relu une seule fois.
+     */
+    private void stream(DocumentSlot slot) {
+        try {
+            try (EmbeddingIndexCache.IndexWriter writer =
+                         cache.writer(slot.pdfPath, slot.key, embeddingModel.dimension())) {
+                StreamingPdfIngestor.builder()
+                        .embeddingModel(embeddingModel)
+                        .splitter(cache.splitter())
+                        .deduplicator(deduplicator)
+                        .batchSize(batchSize)
+                        .embeddingThreads(embeddingThreads)
+                        .build()
+                        .ingest(slot.pdfPath, writer);
+                writer.commit();
+            }
+            EmbeddingIndex index = cache.load(slot.pdfPath, slot.key).orElseThrow(() -> new IllegalStateException(
+                    "Index en flux de " + slot.pdfPath.getFileName() + " illisible après écriture"));
+            System.out.println("Ingestion terminée pour " + slot.pdfPath.getFileName() + " : "
+                    + index.size() + " segments.");
+            slot.result.complete(index);
+        } catch (Throwable e) {
+            slot.result.completeExceptionally(e);
+        }
+    }
+
+    private void parseAndEnqueue(DocumentSlot slot, int dimension, BlockingQueue<Batch> queue,
+                                 AtomicReference<Throwable> failure) {
+        try {
+            StageMetrics metrics = StageMetrics.global();
+            DocumentParser parser = new ApacheTikaDocumentParser();
+            long start = System.nanoTime();
+            Document document = FileSystemDocumentLoader.loadDocument(slot.pdfPath, parser);
+            metrics.record(StageMetrics.Stage.PARSE, start);
+
+            start = System.nanoTime();
+            List<TextSegment> segments = cache.splitter().split(document);
+            metrics.record(StageMetrics.Stage.SPLIT, start);
+
+            // Doublons (overlap, en-têtes / pieds de page répétés) écartés avant les embeddings
+            if (deduplicator != null) {
+                int before = segments.size();
+                List<TextSegment> split = segments;
+                segments = metrics.time(StageMetrics.Stage.DEDUP, () -> deduplicator.newSession().filter(split));
+                if (segments.size() < before) {
+                    System.out.println("Déduplication de " + slot.pdfPath.getFileName() + " : "
+                            + (before - segments.size()) + " segments sur " + before + " écartés avant embedding.");
+                }
+            }
+
+            slot.start(segments, dimension);
+            if (segments.isEmpty()) {
+                slot.complete(cache);
+                return;
+            }
+            for (int from = 0; from < segments.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, segments.size());
+                if (!offer(queue, new Batch(slot, from, segments.subList(from, to)), failure)) {
+                    slot.result.completeExceptionally(failure.get());
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            slot.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Worker d'embedding. Une RuntimeException n'échoue que le document du lot ;
+     * une Error (OutOfMemoryError...) arrête toute l'ingestion, sans laisser les parseurs
+     * bloqués sur la file ni de document en attente.
+     */
+    private void embedBatches(BlockingQueue<Batch> queue, AtomicLong embeddedSegments,
+                              AtomicReference<Throwable> failure) {
+        while (failure.get() == null) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == Batch.END) {
+                return;
+            }
+            if (batch.slot.result.isDone()) {
+                continue; // document déjà en échec
+            }
+            try {
+                long start = System.nanoTime();
+                List<Embedding> embeddings = embeddingModel.embedAll(batch.segments).content();
+                StageMetrics.global().record(StageMetrics.Stage.EMBED, start);
+                batch.slot.store(batch.offset, embeddings);
+                embeddedSegments.addAndGet(embeddings.size());
+                if (batch.slot.remaining.addAndGet(-embeddings.size()) == 0) {
+                    batch.slot.complete(cache);
+                }
+            } catch (RuntimeException e) {
+                batch.slot.result.completeExceptionally(e);
+            } catch (Throwable e) {
+                batch.slot.result.completeExceptionally(e);
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Dépose un lot dans la file en attendant qu'elle se libère, sauf si l'ingestion a échoué.
+     *
+     * @return false si le lot a été abandonné (Error d'un worker ou interruption)
+     */
+    private static boolean offer(BlockingQueue<Batch> queue, Batch batch, AtomicReference<Throwable> failure) {
+        while (failure.get() == null) {
+            try {
+                if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new IllegalStateException("Ingestion interrompue", e));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * État d'un document en cours d'ingestion : ses segments et le tableau
+     * contigu de vecteurs rempli lot par lot par les workers.
+     */
+    private static final class DocumentSlot {
+        final Path pdfPath;
+        final byte[] key;
+        final CompletableFuture<EmbeddingIndex> result = new CompletableFuture<>();
+        final AtomicInteger remaining = new AtomicInteger();
+        volatile List<TextSegment> segments;
+        volatile float[] vectors;
+        volatile int dimension;
+
+        DocumentSlot(Path pdfPath, byte[] key) {
+            this.pdfPath = pdfPath;
+            this.key = key;
+        }
+
+        void start(List<TextSegment> segments, int dimension) {
+            this.dimension = dimension;
+            this.vectors = new float[segments.size() * dimension];
+            this.segments = segments;
+            this.remaining.set(segments.size());
+        }
+
+        void store(int offset, List<Embedding> embeddings) {
+            for (int i = 0; i < embeddings.size(); i++) {
+                System.arraycopy(embeddings.get(i).vector(), 0, vectors, (offset + i) * dimension, dimension);
+            }
+        }
+
+        void complete(EmbeddingIndexCache cache) {
+            EmbeddingIndex index = new EmbeddingIndex(segments, vectors, dimension);
+            cache.save(pdfPath, key, index);
+            System.out.println("Ingestion terminée pour " + pdfPath.getFileName() + " : "
+                    + index.size() + " segments.");
+            result.complete(index);
+        }
+    }
+
+    private record Batch(DocumentSlot slot, int offset, List<TextSegment> segments) {
+        static final Batch END = new Batch(null, -1, List.of());
+    }
+
+    public static final class Builder {
+        private EmbeddingModel embeddingModel;
+        private EmbeddingIndexCache cache = EmbeddingIndexCache.defaultCache();
+        private SegmentDeduplicator deduplicator = SegmentDeduplicator.fromSystemProperties();
+        private int batchSize = 32;
+        private int parserThreads = Runtime.getRuntime().availableProcessors();
+        private int embeddingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int queueCapacity = 16;
+        private long streamingThresholdBytes = Long.getLong("rag.ingest.streamingThresholdMb", 50) * 1024 * 1024;
+
+        private Builder() {
+        }
+
+        /** Modèle partagé par tous les workers d'embedding (obligatoire). */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Cache disque et paramètres de découpage (par défaut {@link EmbeddingIndexCache#defaultCache()}). */
+        public Builder cache(EmbeddingIndexCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Déduplication des segments de chaque document avant embedding
+         * (par défaut {@link SegmentDeduplicator#fromSystemProperties()} ; null pour la désactiver).
+         */
+        public Builder deduplicator(SegmentDeduplicator deduplicator) {
+            this.deduplicator = deduplicator;
+            return this;
+        }
+
+        /** Nombre de segments envoyés à chaque appel embedAll. */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = positive(batchSize, "batchSize");
+            return this;
+        }
+
+        /** Nombre maximum de documents parsés simultanément. */
+        public Builder parserThreads(int parserThreads) {
+            this.parserThreads = positive(parserThreads, "parserThreads");
+            return this;
+        }
+
+        /** Nombre de workers qui consomment la file de lots. */
+        public Builder embeddingThreads(int embeddingThreads) {
+            this.embeddingThreads = positive(embeddingThreads, "embeddingThreads");
+            return this;
+        }
+
+        /** Nombre maximum de lots en attente avant de bloquer les parseurs. */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = positive(queueCapacity, "queueCapacity");
+            return this;
+        }
+
+        /** Taille (octets) à partir de laquelle un document est ingéré en flux plutôt que chargé en entier. */
+        public Builder streamingThresholdBytes(long streamingThresholdBytes) {
+            if (streamingThresholdBytes < 0) {
+                throw new IllegalArgumentException("streamingThresholdBytes doit être >= 0 : " + streamingThresholdBytes);
+            }
+            this.streamingThresholdBytes = streamingThresholdBytes;
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            return new IngestionPipeline(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
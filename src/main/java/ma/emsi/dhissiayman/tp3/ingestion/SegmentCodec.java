@@ -0,0 +1,102 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sérialisation binaire compacte d'un TextSegment (texte + métadonnées).
+ *
+ * Chaque valeur de métadonnée est précédée d'un octet de type pour
+ * restituer exactement les types acceptés par Metadata
+ * (String, Integer, Long, Float, Double, UUID).
+ */
+public final class SegmentCodec {
+
+    private static final byte TYPE_STRING = 'S';
+    private static final byte TYPE_INTEGER = 'I';
+    private static final byte TYPE_LONG = 'L';
+    private static final byte TYPE_FLOAT = 'F';
+    private static final byte TYPE_DOUBLE = 'D';
+    private static final byte TYPE_UUID = 'U';
+
+    private SegmentCodec() {
+    }
+
+    public static void write(DataOutput out, TextSegment segment) throws IOException {
+        writeString(out, segment.text());
+
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Integer i) {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt(i);
+            } else if (value instanceof Long l) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(l);
+            } else if (value instanceof Float f) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat(f);
+            } else if (value instanceof Double d) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(d);
+            } else if (value instanceof UUID uuid) {
+                out.writeByte(TYPE_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            } else {
+                out.writeByte(TYPE_STRING);
+                writeString(out, String.valueOf(value));
+            }
+        }
+    }
+
+    /**
+     * Lit un segment à la position courante du buffer (qui doit être en big-endian,
+     * l'ordre utilisé par DataOutput).
+     */
+    public static TextSegment read(ByteBuffer in) {
+        String text = readString(in);
+
+        int entries = in.getInt();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            String key = readString(in);
+            byte type = in.get();
+            Object value = switch (type) {
+                case TYPE_INTEGER -> in.getInt();
+                case TYPE_LONG -> in.getLong();
+                case TYPE_FLOAT -> in.getFloat();
+                case TYPE_DOUBLE -> in.getDouble();
+                case TYPE_UUID -> new UUID(in.getLong(), in.getLong());
+                case TYPE_STRING -> readString(in);
+                default -> throw new IllegalStateException("Type de métadonnée inconnu : " + type);
+            };
+            metadata.put(key, value);
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    /** Chaîne UTF-8 précédée de sa longueur en octets. */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
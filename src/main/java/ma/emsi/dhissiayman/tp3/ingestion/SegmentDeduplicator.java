@@ -0,0 +1,295 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Étape de déduplication entre le découpage et les embeddings.
+ *
+ * Le recursive splitter (overlap de 50) et les en-têtes / pieds de page répétés produisent
+ * beaucoup de segments identiques ou presque dans un même document : chacun coûterait
+ * un embedding et une ligne dans le store pour rien. Pour chaque segment :
+ *  - doublon exact : même texte après normalisation (casse, espaces) → écarté
+ *  - quasi-doublon (optionnel) : similarité de Jaccard estimée par MinHash ≥ threshold
+ *    avec un segment déjà gardé → écarté. Les candidats sont trouvés par LSH (bandes de la
+ *    signature), sans comparer chaque segment à tous les autres.
+ * La première occurrence est toujours gardée.
+ *
+ * La portée de la déduplication est une {@link Session} (un document) : deux documents rangés
+ * dans des stores différents (Test3Routage) gardent chacun leurs segments. Les compteurs
+ * sont cumulés sur toutes les sessions. Thread-safe (une session par thread).
+ */
+public final class SegmentDeduplicator {
+
+    private final boolean nearDuplicates;
+    private final double threshold;
+    private final int numHashes;
+    private final int bands;
+    private final int shingleSize;
+    private final long[] seeds;
+
+    private final LongAdder segments = new LongAdder();
+    private final LongAdder exactDuplicates = new LongAdder();
+    private final LongAdder nearDuplicatesRemoved = new LongAdder();
+    private final LongAdder charsSaved = new LongAdder();
+
+    private SegmentDeduplicator(Builder builder) {
+        if (builder.numHashes % builder.bands != 0) {
+            throw new IllegalArgumentException("numHashes (" + builder.numHashes
+                    + ") doit être un multiple de bands (" + builder.bands + ")");
+        }
+        this.nearDuplicates = builder.nearDuplicates;
+        this.threshold = builder.threshold;
+        this.numHashes = builder.numHashes;
+        this.bands = builder.bands;
+        this.shingleSize = builder.shingleSize;
+        this.seeds = new long[numHashes];
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < numHashes; i++) {
+            seed = mix(seed + i);
+            seeds[i] = seed;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Déduplicateur choisi par la propriété système "rag.dedup" :
+     *  - "exact" (défaut) : doublons exacts seulement
+     *  - "minhash"        : doublons exacts + quasi-doublons (seuil rag.dedup.threshold, défaut 0.9)
+     *  - "none"           : pas de déduplication (null)
+     */
+    public static SegmentDeduplicator fromSystemProperties() {
+        String mode = System.getProperty("rag.dedup", "exact");
+        return switch (mode) {
+            case "none" -> null;
+            case "exact" -> builder().build();
+            case "minhash" -> builder()
+                    .nearDuplicates(true)
+                    .threshold(Double.parseDouble(System.getProperty("rag.dedup.threshold", "0.9")))
+                    .build();
+            default -> throw new IllegalArgumentException("Mode de déduplication inconnu (rag.dedup) : " + mode);
+        };
+    }
+
+    /**
+     * Nouvelle portée de déduplication (en général : un document).
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Raccourci : déduplique une liste de segments dans une session à part.
+     */
+    public List<TextSegment> filter(List<TextSegment> input) {
+        return newSession().filter(input);
+    }
+
+    /**
+     * Paramètres qui changent le résultat (inclus dans la clé du cache disque des index).
+     */
+    public String settings() {
+        return nearDuplicates
+                ? "minhash-" + numHashes + "-" + bands + "-" + shingleSize + "-" + threshold
+                : "exact";
+    }
+
+    /** Nombre total de segments écartés (doublons exacts + quasi-doublons). */
+    public long removed() {
+        return exactDuplicates.sum() + nearDuplicatesRemoved.sum();
+    }
+
+    public String stats() {
+        return "[Déduplication] " + segments.sum() + " segments examinés, " + exactDuplicates.sum()
+                + " doublons exacts, " + nearDuplicatesRemoved.sum() + " quasi-doublons → " + removed()
+                + " embeddings évités (" + charsSaved.sum() + " caractères)";
+    }
+
+    /**
+     * État de déduplication d'un document : empreintes des textes gardés,
+     * et (si MinHash) signatures + index LSH par bande.
+     */
+    public final class Session {
+
+        private final Set<Long> exact = new HashSet<>();
+        private final List<int[]> signatures = new ArrayList<>();
+        private final Map<Long, List<Integer>> buckets = new HashMap<>();
+
+        private Session() {
+        }
+
+        /**
+         * @return les segments à garder, dans l'ordre d'origine
+         */
+        public List<TextSegment> filter(List<TextSegment> input) {
+            List<TextSegment> kept = new ArrayList<>(input.size());
+            for (TextSegment segment : input) {
+                segments.increment();
+                String normalized = normalize(segment.text());
+                if (!exact.add(hash(normalized))) {
+                    exactDuplicates.increment();
+                    charsSaved.add(segment.text().length());
+                    continue;
+                }
+                if (nearDuplicates && !keepNear(normalized)) {
+                    nearDuplicatesRemoved.increment();
+                    charsSaved.add(segment.text().length());
+                    continue;
+                }
+                kept.add(segment);
+            }
+            return kept;
+        }
+
+        private boolean keepNear(String normalized) {
+            int[] signature = signature(normalized);
+            int rows = numHashes / bands;
+            long[] keys = new long[bands];
+            for (int band = 0; band < bands; band++) {
+                long key = band;
+                for (int r = band * rows; r < (band + 1) * rows; r++) {
+                    key = mix(key * 31 + signature[r]);
+                }
+                keys[band] = key;
+                List<Integer> candidates = buckets.get(key);
+                if (candidates != null) {
+                    for (int candidate : candidates) {
+                        if (similarity(signature, signatures.get(candidate)) >= threshold) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            int index = signatures.size();
+            signatures.add(signature);
+            for (long key : keys) {
+                buckets.computeIfAbsent(key, k -> new ArrayList<>(1)).add(index);
+            }
+            return true;
+        }
+    }
+
+    // ----- MinHash -----
+
+    /**
+     * Signature MinHash des shingles de shingleSize mots consécutifs
+     * (le texte entier s'il a moins de shingleSize mots).
+     */
+    int[] signature(String normalized) {
+        String[] words = normalized.split(" ");
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        int count = Math.max(1, words.length - shingleSize + 1);
+        for (int s = 0; s < count; s++) {
+            long shingle = 0;
+            for (int w = s; w < Math.min(s + shingleSize, words.length); w++) {
+                shingle = mix(shingle * 31 + words[w].hashCode());
+            }
+            for (int i = 0; i < numHashes; i++) {
+                int h = (int) mix(shingle ^ seeds[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /** Proportion de minima égaux : estimation de la similarité de Jaccard. */
+    static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+
+    static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /** Empreinte 64 bits du texte (collision négligeable à l'échelle d'un document). */
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** Mélange SplitMix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static final class Builder {
+        private boolean nearDuplicates;
+        private double threshold = 0.9;
+        private int numHashes = 64;
+        private int bands = 16;
+        private int shingleSize = 3;
+
+        private Builder() {
+        }
+
+        /** Active la détection des quasi-doublons par MinHash (désactivée par défaut). */
+        public Builder nearDuplicates(boolean nearDuplicates) {
+            this.nearDuplicates = nearDuplicates;
+            return this;
+        }
+
+        /** Similarité de Jaccard estimée à partir de laquelle un segment est un quasi-doublon. */
+        public Builder threshold(double threshold) {
+            if (threshold <= 0 || threshold > 1) {
+                throw new IllegalArgumentException("threshold doit être dans ]0, 1] : " + threshold);
+            }
+            this.threshold = threshold;
+            return this;
+        }
+
+        /** Taille de la signature MinHash. */
+        public Builder numHashes(int numHashes) {
+            this.numHashes = positive(numHashes, "numHashes");
+            return this;
+        }
+
+        /** Nombre de bandes LSH (plus de bandes : plus de candidats comparés). */
+        public Builder bands(int bands) {
+            this.bands = positive(bands, "bands");
+            return this;
+        }
+
+        /** Nombre de mots par shingle. */
+        public Builder shingleSize(int shingleSize) {
+            this.shingleSize = positive(shingleSize, "shingleSize");
+            return this;
+        }
+
+        public SegmentDeduplicator build() {
+            return new SegmentDeduplicator(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
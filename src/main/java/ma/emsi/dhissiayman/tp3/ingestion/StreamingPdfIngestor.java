@@ -0,0 +1,461 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ingestion en flux d'un gros PDF, à mémoire bornée :
+ *
+ *  Tika (SAX) → texte d'une page à la fois → découpage de la page
+ *        │
+ *        ▼  file bornée de lots de segments (le parsing attend si les embeddings sont en retard)
+ *        │
+ *  embedAll par lot → écriture immédiate du lot dans l'EmbeddingStore
+ *
+ * Contrairement à FileSystemDocumentLoader.loadDocument + split + embedAll, ni le texte complet
+ * du document, ni la liste de tous ses segments, ni celle de tous ses embeddings ne sont gardés
+ * en mémoire : le pipeline texte → embeddings reste borné (au plus queueCapacity + embeddingThreads
+ * lots en vol), quel que soit le nombre de pages. Seuls le store et, si la déduplication est active,
+ * ses empreintes (quelques octets par segment) grandissent avec le document.
+ *
+ * Limite : le PDFParser de Tika ouvre tout le PDDocument PDFBox avant d'émettre la première page.
+ * Le cache des flux PDFBox est placé sur disque (pdfMainMemoryBytes, 0 par défaut = fichiers
+ * temporaires seulement), mais l'arbre des objets COS du PDF reste en mémoire : le parsing
+ * n'est donc pas strictement à mémoire constante pour un PDF à très nombreux objets.
+ *
+ * Tika découpe les PDF en éléments {@code <div class="page">} ; pour les autres formats (sans pages),
+ * le texte est traité par morceaux d'au plus maxChunkChars caractères.
+ * Les segments ne chevauchent pas deux pages (chaque page est découpée séparément) et portent
+ * la métadonnée "page_number".
+ *
+ * Deux destinations : un EmbeddingStore, ou un fichier du cache disque
+ * ({@link EmbeddingIndexCache.IndexWriter}, segments dans l'ordre du document, vecteurs écrits à leur ligne).
+ * {@link IngestionPipeline} utilise la seconde pour les documents au-delà de son seuil d'ingestion en flux.
+ *
+ * Une erreur quelconque d'un worker (Exception ou Error) arrête le parsing : les dépôts dans la file
+ * sont faits par offer avec délai et abandonnés dès qu'un échec est connu, puis les workers restants
+ * sont interrompus. L'erreur est relancée par ingest / index.
+ */
+public final class StreamingPdfIngestor {
+
+    private static final Batch END = new Batch(-1, List.of());
+
+    private final EmbeddingModel embeddingModel;
+    private final DocumentSplitter splitter;
+    private final SegmentDeduplicator deduplicator;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final int embeddingThreads;
+    private final int maxChunkChars;
+    private final long pdfMainMemoryBytes;
+
+    private StreamingPdfIngestor(Builder builder) {
+        if (builder.embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel est obligatoire");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.splitter = builder.splitter;
+        this.deduplicator = builder.deduplicator;
+        this.batchSize = builder.batchSize;
+        this.queueCapacity = builder.queueCapacity;
+        this.embeddingThreads = builder.embeddingThreads;
+        this.maxChunkChars = builder.maxChunkChars;
+        this.pdfMainMemoryBytes = builder.pdfMainMemoryBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Parse, découpe et embedde le PDF en flux ; chaque lot est ajouté au store dès qu'il est prêt
+     * (dans l'ordre où les lots sont embeddés).
+     * Le parsing s'exécute sur le thread appelant, les embeddings sur embeddingThreads workers.
+     */
+    public Result ingest(Path pdfPath, EmbeddingStore<TextSegment> store) {
+        return stream(pdfPath, new BatchSink() {
+            @Override
+            public void queued(List<TextSegment> segments) {
+            }
+
+            @Override
+            public void embedded(int firstRow, List<TextSegment> segments, List<Embedding> embeddings) {
+                store.addAll(embeddings, segments);
+            }
+        });
+    }
+
+    /**
+     * Même ingestion en flux, écrite directement dans un fichier du cache disque : les segments
+     * dans l'ordre du document (thread de parsing), chaque lot de vecteurs à la position de sa
+     * première ligne (workers). Le heap ne contient que les lots en vol ; l'appelant termine
+     * par {@link EmbeddingIndexCache.IndexWriter#commit()}.
+     */
+    public Result ingest(Path pdfPath, EmbeddingIndexCache.IndexWriter writer) {
+        return stream(pdfPath, new BatchSink() {
+            @Override
+            public void queued(List<TextSegment> segments) {
+                writer.appendSegments(segments);
+            }
+
+            @Override
+            public void embedded(int firstRow, List<TextSegment> segments, List<Embedding> embeddings) {
+                writer.writeVectors(firstRow, embeddings);
+            }
+        });
+    }
+
+    private Result stream(Path pdfPath, BatchSink sink) {
+        long start = System.nanoTime();
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicLong embedded = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        PageHandler handler = new PageHandler(pdfPath, queue, sink, failure);
+
+        ParseContext context = new ParseContext();
+        PDFParserConfig pdfConfig = new PDFParserConfig();
+        pdfConfig.setMaxMainMemoryBytes(pdfMainMemoryBytes);
+        context.set(PDFParserConfig.class, pdfConfig);
+
+        try (ExecutorService embedders = Executors.newFixedThreadPool(embeddingThreads)) {
+            for (int i = 0; i < embeddingThreads; i++) {
+                embedders.submit(() -> embedBatches(queue, sink, embedded, failure));
+            }
+            try (InputStream in = TikaInputStream.get(pdfPath)) {
+                new AutoDetectParser().parse(in, handler, new org.apache.tika.metadata.Metadata(), context);
+            } catch (IOException e) {
+                failure.compareAndSet(null, new UncheckedIOException("Impossible de lire " + pdfPath, e));
+            } catch (SAXException | TikaException e) {
+                failure.compareAndSet(null, new IllegalStateException("Échec du parsing de " + pdfPath.getFileName(), e));
+            } finally {
+                // Dernier lot partiel, puis un "poison pill" par worker ;
+                // en cas d'échec, les workers encore actifs sont interrompus
+                handler.flushBatch();
+                for (int i = 0; i < embeddingThreads; i++) {
+                    if (!offer(queue, END, failure)) {
+                        break;
+                    }
+                }
+                if (failure.get() != null) {
+                    embedders.shutdownNow();
+                }
+            }
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof RuntimeException e) {
+            throw e;
+        }
+        if (error instanceof Error e) {
+            throw e;
+        }
+        if (error != null) {
+            throw new IllegalStateException("Échec de l'ingestion de " + pdfPath.getFileName(), error);
+        }
+        Result result = new Result(handler.pages, embedded.get(), handler.duplicates, System.nanoTime() - start);
+        System.out.printf("Ingestion en flux de %s : %d pages, %d segments en %.2f s (%.1f segments/s, %d doublons écartés)%n",
+                pdfPath.getFileName(), result.pages(), result.segments(), result.seconds(),
+                result.segments() / Math.max(result.seconds(), 1e-9), result.duplicates());
+        return result;
+    }
+
+    private void embedBatches(BlockingQueue<Batch> queue, BatchSink sink,
+                              AtomicLong embedded, AtomicReference<Throwable> failure) {
+        while (failure.get() == null) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == END) {
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                List<Embedding> embeddings = embeddingModel.embedAll(batch.segments()).content();
+                StageMetrics.global().record(StageMetrics.Stage.EMBED, start);
+                sink.embedded(batch.firstRow(), batch.segments(), embeddings);
+                embedded.addAndGet(batch.segments().size());
+            } catch (Throwable e) {
+                // Error comprise (OutOfMemoryError...) : le parsing ne doit pas rester bloqué sur la file
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Dépose un lot dans la file en attendant qu'elle se libère, sauf si l'ingestion a échoué.
+     *
+     * @return false si le lot a été abandonné (échec d'un worker ou interruption)
+     */
+    private static boolean offer(BlockingQueue<Batch> queue, Batch batch,
+                                 AtomicReference<Throwable> failure) {
+        while (failure.get() == null) {
+            try {
+                if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new IllegalStateException("Ingestion interrompue", e));
+            }
+        }
+        return false;
+    }
+
+    /** Destination des lots (store ou fichier du cache). */
+    private interface BatchSink {
+
+        /** Thread de parsing, dans l'ordre du document, avant la mise en file du lot. */
+        void queued(List<TextSegment> segments);
+
+        /** Workers d'embedding, en parallèle et dans un ordre quelconque. */
+        void embedded(int firstRow, List<TextSegment> segments, List<Embedding> embeddings);
+    }
+
+    /** Lot de segments consécutifs du document, à partir de la ligne firstRow. */
+    private record Batch(int firstRow, List<TextSegment> segments) {
+    }
+
+    /**
+     * Reçoit les événements SAX de Tika et découpe le texte page par page.
+     * Le tampon de texte est réutilisé d'une page à l'autre.
+     */
+    private final class PageHandler extends DefaultHandler {
+
+        private final Path pdfPath;
+        private final BlockingQueue<Batch> queue;
+        private final BatchSink sink;
+        private final AtomicReference<Throwable> failure;
+        private final StringBuilder text = new StringBuilder();
+        // une seule session pour tout le document : les en-têtes / pieds de page répétés d'une page à l'autre sont écartés
+        private final SegmentDeduplicator.Session dedup = deduplicator == null ? null : deduplicator.newSession();
+        private List<TextSegment> batch = new ArrayList<>();
+        private int rows;
+        private int pages;
+        private long duplicates;
+        private int divDepth;
+        private int pageDepth = -1;
+        private long pageStart = System.nanoTime();
+
+        PageHandler(Path pdfPath, BlockingQueue<Batch> queue, BatchSink sink, AtomicReference<Throwable> failure) {
+            this.pdfPath = pdfPath;
+            this.queue = queue;
+            this.sink = sink;
+            this.failure = failure;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("div".equals(localName)) {
+                divDepth++;
+                if ("page".equals(attributes.getValue("class"))) {
+                    // texte éventuel hors page (en-tête du document) : traité à part
+                    flushPage();
+                    pageDepth = divDepth;
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("p".equals(localName) || "div".equals(localName)) {
+                text.append('\n');
+            }
+            if ("div".equals(localName)) {
+                if (divDepth == pageDepth) {
+                    flushPage();
+                    pages++;
+                    pageDepth = -1;
+                    checkFailure();
+                }
+                divDepth--;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            text.append(ch, start, length);
+            if (text.length() >= maxChunkChars) {
+                flushPage(); // document sans pages : traitement par morceaux
+                checkFailure();
+            }
+        }
+
+        @Override
+        public void endDocument() {
+            flushPage();
+        }
+
+        private void flushPage() {
+            String content = text.toString();
+            text.setLength(0);
+            if (content.isBlank()) {
+                return;
+            }
+            StageMetrics metrics = StageMetrics.global();
+            metrics.record(StageMetrics.Stage.PARSE, pageStart);
+
+            Metadata metadata = new Metadata()
+                    .put("file_name", pdfPath.getFileName().toString())
+                    .put("page_number", pages + 1);
+            Document page = Document.from(content, metadata);
+            List<TextSegment> segments = metrics.time(StageMetrics.Stage.SPLIT, () -> splitter.split(page));
+            if (dedup != null) {
+                List<TextSegment> split = segments;
+                segments = metrics.time(StageMetrics.Stage.DEDUP, () -> dedup.filter(split));
+                duplicates += split.size() - segments.size();
+            }
+
+            for (TextSegment segment : segments) {
+                batch.add(segment);
+                if (batch.size() == batchSize) {
+                    flushBatch();
+                }
+            }
+            // le temps passé à attendre les embeddings (backpressure) n'est pas compté dans PARSE
+            pageStart = System.nanoTime();
+        }
+
+        void flushBatch() {
+            if (!batch.isEmpty() && failure.get() == null) {
+                try {
+                    sink.queued(batch);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+                offer(queue, new Batch(rows, batch), failure);
+                rows += batch.size();
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        /** Interrompt le parsing dès qu'un worker d'embedding a échoué. */
+        private void checkFailure() throws SAXException {
+            Throwable error = failure.get();
+            if (error != null) {
+                throw new SAXException("Ingestion interrompue", error instanceof Exception e ? e : null);
+            }
+        }
+    }
+
+    /**
+     * Bilan d'une ingestion en flux.
+     */
+    public record Result(int pages, long segments, long duplicates, long elapsedNanos) {
+
+        public double seconds() {
+            return elapsedNanos / 1e9;
+        }
+    }
+
+    public static final class Builder {
+        private EmbeddingModel embeddingModel;
+        private DocumentSplitter splitter = EmbeddingIndexCache.defaultCache().splitter();
+        private SegmentDeduplicator deduplicator = SegmentDeduplicator.fromSystemProperties();
+        private int batchSize = 32;
+        private int queueCapacity = 4;
+        private int embeddingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int maxChunkChars = 20_000;
+        private long pdfMainMemoryBytes = 0;
+
+        private Builder() {
+        }
+
+        /** Modèle partagé par les workers d'embedding (obligatoire). */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Découpage appliqué à chaque page (par défaut recursive(500, 50), comme le cache). */
+        public Builder splitter(DocumentSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        /** Déduplication des segments sur tout le document (null pour la désactiver). */
+        public Builder deduplicator(SegmentDeduplicator deduplicator) {
+            this.deduplicator = deduplicator;
+            return this;
+        }
+
+        /** Nombre de segments envoyés à chaque appel embedAll. */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = positive(batchSize, "batchSize");
+            return this;
+        }
+
+        /** Nombre maximum de lots en attente avant de bloquer le parsing. */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = positive(queueCapacity, "queueCapacity");
+            return this;
+        }
+
+        /** Nombre de workers qui consomment la file de lots. */
+        public Builder embeddingThreads(int embeddingThreads) {
+            this.embeddingThreads = positive(embeddingThreads, "embeddingThreads");
+            return this;
+        }
+
+        /** Taille maximum du texte accumulé avant découpage, pour les documents sans pages. */
+        public Builder maxChunkChars(int maxChunkChars) {
+            this.maxChunkChars = positive(maxChunkChars, "maxChunkChars");
+            return this;
+        }
+
+        /**
+         * Mémoire du cache des flux PDFBox avant passage en fichiers temporaires
+         * (0 : fichiers temporaires seulement ; -1 : tout en mémoire).
+         */
+        public Builder pdfMainMemoryBytes(long pdfMainMemoryBytes) {
+            if (pdfMainMemoryBytes < -1) {
+                throw new IllegalArgumentException("pdfMainMemoryBytes doit être >= -1 : " + pdfMainMemoryBytes);
+            }
+            this.pdfMainMemoryBytes = pdfMainMemoryBytes;
+            return this;
+        }
+
+        public StreamingPdfIngestor build() {
+            return new StreamingPdfIngestor(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package ma.emsi.dhissiayman.tp3.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingestion incrémentale d'un répertoire de PDF surveillé par le WatchService NIO.
+ *
+ *  - au démarrage : tous les PDF du répertoire passent par {@link IngestionPipeline}
+ *    (cache disque compris) et sont ajoutés au store
+ *  - PDF ajouté ou modifié : parsing + découpage, puis comparaison des segments avec la version
+ *    précédente (par texte) ; seuls les segments nouveaux passent par le modèle d'embeddings,
+ *    les autres reprennent leur vecteur précédent, relu dans le store (aucune autre copie des
+ *    vecteurs n'est gardée en mémoire entre deux versions)
+ *  - PDF supprimé : ses vecteurs sont retirés du store
+ *  - PDF au-delà du seuil d'ingestion en flux du pipeline : réingéré en flux (mémoire bornée),
+ *    tous ses segments repassent alors par le modèle d'embeddings
+ *
+ * Les anciens segments du document sont remplacés par les nouveaux en une seule opération
+ * ({@link DenseVectorStore#replace}) : les requêtes continuent d'être servies pendant la réingestion
+ * et ne voient jamais un document à moitié remplacé. La version du store change à chaque remplacement
+ * (le cache sémantique des réponses est donc invalidé).
+ *
+ * Les événements sont regroupés pendant un court délai de calme (quietPeriod), car la copie
+ * d'un fichier produit souvent plusieurs événements successifs.
+ */
+public final class WatchedDirectoryIngestor implements AutoCloseable {
+
+    private final Path directory;
+    private final DenseVectorStore store;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingIndexCache cache;
+    private final IngestionPipeline pipeline;
+    private final long quietMillis;
+    private final int batchSize;
+
+    // état de chaque document présent dans le store (accès sous le verrou de l'instance)
+    private final Map<Path, DocumentState> documents = new HashMap<>();
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LongAdder embeddedSegments = new LongAdder();
+    private final LongAdder reusedSegments = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    private WatchedDirectoryIngestor(Builder builder) {
+        if (builder.directory == null || builder.store == null || builder.embeddingModel == null) {
+            throw new IllegalArgumentException("directory, store et embeddingModel sont obligatoires");
+        }
+        this.directory = builder.directory.toAbsolutePath().normalize();
+        this.store = builder.store;
+        this.embeddingModel = builder.embeddingModel;
+        this.cache = builder.cache;
+        this.quietMillis = builder.quietPeriod.toMillis();
+        this.batchSize = builder.batchSize;
+        // même découpage, même déduplication et mêmes clés de cache que l'ingestion initiale
+        this.pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .cache(cache)
+                .batchSize(batchSize)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Ingestion initiale du répertoire, puis démarrage de la surveillance
+     * sur un thread dédié. Retourne une fois l'ingestion initiale terminée.
+     */
+    public void start() {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Répertoire de documents introuvable : " + directory);
+        }
+        try {
+            // Surveillance active avant le listing : aucun changement n'est perdu entre les deux
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de surveiller " + directory, e);
+        }
+
+        List<Path> pdfs = listPdfs();
+        Map<Path, EmbeddingIndex> indexes = pipeline.ingestAll(pdfs);
+        synchronized (this) {
+            indexes.forEach((path, index) -> documents.put(path,
+                    DocumentState.of(pipeline.cacheKey(path), index, store.addIndex(index))));
+        }
+        System.out.println("Répertoire surveillé : " + directory + " (" + pdfs.size() + " PDF, "
+                + store.size() + " segments)");
+
+        watcher = Thread.ofPlatform().name("rag-docs-watcher").daemon().start(this::watchLoop);
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = collect(watchService.take(), changed);
+                // Regroupe les événements jusqu'à un délai de calme
+                WatchKey key;
+                while ((key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+                try {
+                    if (overflow) {
+                        rescan();
+                    } else {
+                        changed.forEach(this::sync);
+                    }
+                } catch (Throwable e) {
+                    // Error comprise (OutOfMemoryError...) : le thread de surveillance ne doit pas mourir en silence
+                    errors.increment();
+                    System.out.println("Erreur pendant la synchronisation de " + directory + " : " + e
+                            + " (surveillance poursuivie)");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // arrêt normal (close)
+        }
+    }
+
+    /**
+     * @return true si des événements ont été perdus (OVERFLOW) : il faut alors tout rescanner
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (event.context() instanceof Path name && isPdf(name)) {
+                changed.add(directory.resolve(name));
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    /**
+     * Compare tout le répertoire avec l'état connu (utilisé si des événements ont été perdus).
+     */
+    public synchronized void rescan() {
+        Set<Path> present = new LinkedHashSet<>(listPdfs());
+        present.forEach(this::sync);
+        for (Path known : new ArrayList<>(documents.keySet())) {
+            if (!present.contains(known)) {
+                sync(known);
+            }
+        }
+    }
+
+    /**
+     * Met le store à jour pour un PDF : ajout / réingestion s'il existe, retrait sinon.
+     * Une erreur (fichier en cours de copie, PDF illisible) laisse l'ancienne version en place.
+     */
+    public synchronized void sync(Path pdfPath) {
+        Path path = pdfPath.toAbsolutePath().normalize();
+        try {
+            if (Files.isRegularFile(path)) {
+                update(path);
+            } else {
+                remove(path);
+            }
+        } catch (RuntimeException e) {
+            errors.increment();
+            System.out.println("Réingestion impossible pour " + path.getFileName() + " : " + e.getMessage()
+                    + " (ancienne version conservée)");
+        }
+    }
+
+    private void update(Path path) {
+        byte[] key = pipeline.cacheKey(path);
+        DocumentState previous = documents.get(path);
+        if (previous != null && Arrays.equals(previous.key, key)) {
+            return; // événement sans changement de contenu
+        }
+
+        // Contenu déjà en cache disque (ex. PDF supprimé puis remis) : aucun embedding
+        Optional<EmbeddingIndex> cached = cache.load(path, key);
+        int streamed = 0;
+        if (cached.isEmpty() && pipeline.streams(path)) {
+            // gros document : ingestion en flux par le pipeline (cache disque compris)
+            cached = Optional.of(pipeline.ingest(path));
+            streamed = cached.get().size();
+        }
+        List<TextSegment> segments;
+        if (cached.isPresent()) {
+            segments = cached.get().segments();
+        } else {
+            StageMetrics metrics = StageMetrics.global();
+            Document document = metrics.time(StageMetrics.Stage.PARSE,
+                    () -> FileSystemDocumentLoader.loadDocument(path, new ApacheTikaDocumentParser()));
+            List<TextSegment> split = metrics.time(StageMetrics.Stage.SPLIT, () -> cache.splitter().split(document));
+            SegmentDeduplicator deduplicator = pipeline.deduplicator();
+            segments = deduplicator == null ? split
+                    : metrics.time(StageMetrics.Stage.DEDUP, () -> deduplicator.newSession().filter(split));
+        }
+
+        // Identifiants dans le store des segments déjà connus, par texte (un même texte peut apparaître
+        // plusieurs fois) ; inutile après une ingestion en flux : tous les vecteurs viennent d'être calculés
+        Map<String, ArrayDeque<String>> previousIds = new HashMap<>();
+        if (previous != null && streamed == 0) {
+            for (int i = 0; i < previous.ids.size(); i++) {
+                previousIds.computeIfAbsent(previous.texts.get(i), t -> new ArrayDeque<>()).add(previous.ids.get(i));
+            }
+        }
+
+        int dimension = embeddingModel.dimension();
+        float[] vectors = new float[segments.size() * dimension];
+        List<Integer> toEmbed = new ArrayList<>();
+        int reused = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            ArrayDeque<String> ids = previousIds.get(segments.get(i).text());
+            String id = ids == null ? null : ids.poll();
+            if (id != null && store.copyVector(id, vectors, i * dimension)) {
+                reused++;
+            } else if (cached.isPresent()) {
+                System.arraycopy(cached.get().vectors(), i * dimension, vectors, i * dimension, dimension);
+            } else {
+                toEmbed.add(i);
+            }
+        }
+        embed(segments, toEmbed, vectors, dimension);
+
+        EmbeddingIndex index = new EmbeddingIndex(segments, vectors, dimension);
+        List<String> ids = store.replace(previous == null ? List.of() : previous.ids, index);
+        documents.put(path, DocumentState.of(key, index, ids));
+        if (cached.isEmpty()) {
+            cache.save(path, key, index);
+        }
+
+        updates.increment();
+        reusedSegments.add(reused);
+        embeddedSegments.add(toEmbed.size() + streamed);
+        System.out.println((previous == null ? "Document ajouté : " : "Document modifié : ") + path.getFileName()
+                + " (" + segments.size() + " segments : " + (toEmbed.size() + streamed) + " embeddés, "
+                + reused + " réutilisés, "
+                + (previous == null ? 0 : previous.ids.size() - reused) + " obsolètes retirés)");
+    }
+
+    /**
+     * Embeddings des seuls segments nouveaux, par lots de batchSize.
+     */
+    private void embed(List<TextSegment> segments, List<Integer> rows, float[] vectors, int dimension) {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<Integer> batchRows = rows.subList(from, Math.min(from + batchSize, rows.size()));
+            List<TextSegment> batch = new ArrayList<>(batchRows.size());
+            for (int row : batchRows) {
+                batch.add(segments.get(row));
+            }
+            List<Embedding> embeddings = StageMetrics.global().time(StageMetrics.Stage.EMBED,
+                    () -> embeddingModel.embedAll(batch).content());
+            for (int i = 0; i < embeddings.size(); i++) {
+                System.arraycopy(embeddings.get(i).vector(), 0, vectors, batchRows.get(i) * dimension, dimension);
+            }
+        }
+    }
+
+    private void remove(Path path) {
+        DocumentState previous = documents.remove(path);
+        if (previous == null) {
+            return;
+        }
+        store.removeAll(previous.ids);
+        removals.increment();
+        System.out.println("Document supprimé : " + path.getFileName() + " (" + previous.ids.size()
+                + " segments retirés)");
+    }
+
+    private List<Path> listPdfs() {
+        List<Path> pdfs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (isPdf(path) && Files.isRegularFile(path)) {
+                    pdfs.add(path.toAbsolutePath().normalize());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lister " + directory, e);
+        }
+        return pdfs;
+    }
+
+    private static boolean isPdf(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".pdf");
+    }
+
+    public synchronized int documentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Arrête la surveillance (le contenu du store est conservé).
+     */
+    @Override
+    public void close() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Fermeture du WatchService : " + e.getMessage());
+        }
+        if (watcher != null) {
+            try {
+                watcher.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public String stats() {
+        return "[Répertoire surveillé] " + documentCount() + " documents, " + updates.sum() + " ajouts/modifications, "
+                + removals.sum() + " suppressions, " + embeddedSegments.sum() + " segments embeddés, "
+                + reusedSegments.sum() + " réutilisés, " + errors.sum() + " erreurs";
+    }
+
+    /**
+     * Version d'un document présente dans le store : clé du cache, texte des segments
+     * et leurs identifiants dans le store (même ordre). Les vecteurs restent dans le store seul.
+     */
+    private record DocumentState(byte[] key, List<String> texts, List<String> ids) {
+
+        static DocumentState of(byte[] key, EmbeddingIndex index, List<String> ids) {
+            List<String> texts = new ArrayList<>(index.size());
+            for (int i = 0; i < index.size(); i++) {
+                texts.add(index.segment(i).text());
+            }
+            return new DocumentState(key, texts, ids);
+        }
+    }
+
+    public static final class Builder {
+        private Path directory;
+        private DenseVectorStore store;
+        private EmbeddingModel embeddingModel;
+        private EmbeddingIndexCache cache = EmbeddingIndexCache.defaultCache();
+        private Duration quietPeriod = Duration.ofMillis(500);
+        private int batchSize = 32;
+
+        private Builder() {
+        }
+
+        /** Répertoire de PDF à surveiller (obligatoire). */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /** Store mis à jour au fil des changements (obligatoire). */
+        public Builder store(DenseVectorStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /** Modèle d'embeddings des segments nouveaux (obligatoire). */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Cache disque et paramètres de découpage (par défaut {@link EmbeddingIndexCache#defaultCache()}). */
+        public Builder cache(EmbeddingIndexCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /** Délai sans nouvel événement avant de traiter les changements. */
+        public Builder quietPeriod(Duration quietPeriod) {
+            if (quietPeriod.isNegative()) {
+                throw new IllegalArgumentException("quietPeriod doit être >= 0 : " + quietPeriod);
+            }
+            this.quietPeriod = quietPeriod;
+            return this;
+        }
+
+        /** Nombre de segments envoyés à chaque appel embedAll. */
+        public Builder batchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize doit être > 0 : " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public WatchedDirectoryIngestor build() {
+            return new WatchedDirectoryIngestor(this);
+        }
+    }
+}
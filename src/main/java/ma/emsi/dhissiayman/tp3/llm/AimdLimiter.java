@@ -0,0 +1,115 @@
+package ma.emsi.dhissiayman.tp3.llm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limite adaptative du nombre d'appels simultanés (AIMD, comme la fenêtre de congestion TCP) :
+ *  - chaque appel réussi augmente la limite de 1 / limite (≈ +1 par "tour" d'appels)
+ *  - un signal de surcharge (429, délai dépassé) la multiplie par decreaseFactor,
+ *    une seule fois pour tous les appels partis avant la baisse précédente
+ *
+ * Les appelants au-delà de la limite attendent un créneau, jusqu'à leur deadline.
+ */
+final class AimdLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double decreaseFactor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    AimdLimiter(int initialLimit, int minLimit, int maxLimit, double decreaseFactor) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limites incohérentes : min " + minLimit + ", initiale "
+                    + initialLimit + ", max " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.decreaseFactor = decreaseFactor;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Attend un créneau libre.
+     *
+     * @return false si aucun créneau ne s'est libéré avant deadlineNanos (valeur de System.nanoTime())
+     */
+    boolean acquire(long deadlineNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                slotFreed.await(remaining, TimeUnit.NANOSECONDS);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onSuccess() {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            if ((int) limit > before) {
+                slotFreed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signal de surcharge pour un appel parti à startNanos.
+     */
+    void onOverload(long startNanos) {
+        lock.lock();
+        try {
+            if (startNanos >= lastDecreaseNanos) {
+                limit = Math.max(minLimit, limit * decreaseFactor);
+                lastDecreaseNanos = System.nanoTime();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
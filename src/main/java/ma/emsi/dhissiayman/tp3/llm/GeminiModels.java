@@ -0,0 +1,97 @@
+package ma.emsi.dhissiayman.tp3.llm;
+
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubChatModel;
+import ma.emsi.dhissiayman.tp3.stub.StubStreamingChatModel;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Construction des modèles Gemini, partagée par tous les mains (même modèle, même température,
+ * délai explicite au lieu de celui par défaut du client HTTP).
+ *
+ * Propriétés système :
+ *  - rag.llm.timeoutMs (20000)     délai d'une tentative / d'une réponse en streaming
+ *  - rag.llm.maxConcurrency (16)   plafond de la limite adaptative d'appels simultanés
+ *  - rag.llm.maxAttempts (3)       tentatives par appel (erreurs temporaires seulement)
+ *  - rag.llm.stub=true             modèles simulés en local (StubChatModel, StubStreamingChatModel), sans clé API
+ */
+public final class GeminiModels {
+
+    public static final String MODEL_NAME = "gemini-2.5-flash";
+
+    private static final double TEMPERATURE = 0.3;
+
+    private GeminiModels() {
+    }
+
+    /**
+     * ChatModel protégé ({@link ResilientChatModel}) : Gemini sans retries internes,
+     * ou StubChatModel (latence log-normale, médiane 800 ms) avec -Drag.llm.stub=true.
+     */
+    public static ResilientChatModel chatModel(List<ChatModelListener> listeners) {
+        ChatModel delegate = Boolean.getBoolean("rag.llm.stub")
+                ? stub(listeners)
+                : GoogleAiGeminiChatModel.builder()
+                        .apiKey(apiKey())
+                        .modelName(MODEL_NAME)
+                        .temperature(TEMPERATURE)
+                        .timeout(timeout())
+                        .maxRetries(0)
+                        .listeners(listeners)
+                        .build();
+        return ResilientChatModel.builder()
+                .delegate(delegate)
+                .maxConcurrency(Integer.getInteger("rag.llm.maxConcurrency", 16))
+                .attemptTimeout(timeout())
+                .deadline(timeout().multipliedBy(3))
+                .maxAttempts(Integer.getInteger("rag.llm.maxAttempts", 3))
+                .build();
+    }
+
+    /**
+     * Variante streaming (réponse token par token), avec le même délai, protégée par la limite
+     * et le disjoncteur de chatModel ({@link ResilientChatModel#streaming}) : nouvelle tentative
+     * seulement si l'erreur arrive avant le premier token.
+     * Avec -Drag.llm.stub=true : StubStreamingChatModel (un mot toutes les 20 ms).
+     */
+    public static StreamingChatModel streamingChatModel(ResilientChatModel chatModel,
+                                                        List<ChatModelListener> listeners) {
+        StreamingChatModel delegate = Boolean.getBoolean("rag.llm.stub")
+                ? new StubStreamingChatModel(stub(List.of()), Duration.ofMillis(20), listeners)
+                : GoogleAiGeminiStreamingChatModel.builder()
+                        .apiKey(apiKey())
+                        .modelName(MODEL_NAME)
+                        .temperature(TEMPERATURE)
+                        .timeout(timeout())
+                        .listeners(listeners)
+                        .build();
+        return chatModel.streaming(delegate);
+    }
+
+    /** StubChatModel : latence log-normale, médiane 800 ms. */
+    private static StubChatModel stub(List<ChatModelListener> listeners) {
+        return StubChatModel.builder()
+                .latency(LatencyDistribution.logNormal(Duration.ofMillis(800), 0.5, 42))
+                .listeners(listeners)
+                .build();
+    }
+
+    private static String apiKey() {
+        String apiKey = System.getenv("GEMINI_KEY");
+        if (apiKey == null) {
+            throw new IllegalStateException("La variable d'environnement GEMINI_KEY n'est pas définie");
+        }
+        return apiKey;
+    }
+
+    private static Duration timeout() {
+        return Duration.ofMillis(Long.getLong("rag.llm.timeoutMs", 20_000));
+    }
+}
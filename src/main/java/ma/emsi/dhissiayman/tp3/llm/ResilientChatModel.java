@@ -0,0 +1,548 @@
+package ma.emsi.dhissiayman.tp3.llm;
+
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.exception.RetriableException;
+import dev.langchain4j.exception.TimeoutException;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ChatModel qui protège les appels à un autre ChatModel (Gemini) :
+ *  - limite adaptative d'appels simultanés ({@link AimdLimiter}) : elle baisse dès que le service
+ *    signale une surcharge (429, délai dépassé) et remonte doucement tant que les appels réussissent
+ *  - délai par tentative (attemptTimeout) et deadline globale de l'appel (attente d'un créneau,
+ *    tentatives et pauses comprises)
+ *  - nouvelles tentatives pour les erreurs temporaires (RetriableException : 429, 5xx, délai dépassé),
+ *    après une pause aléatoire entre 0 et min(maxBackoff, baseBackoff × 2^n) ("full jitter")
+ *  - disjoncteur : après failureThreshold échecs temporaires consécutifs, les appels échouent
+ *    immédiatement pendant openDuration, puis un seul appel d'essai décide de la réouverture
+ *
+ * Les erreurs définitives (clé invalide, requête refusée) sont relancées sans nouvelle tentative.
+ * Le ChatModel délégué doit être construit sans retries internes (maxRetries(0)) :
+ * les tentatives sont gérées ici. Ses listeners voient chaque tentative.
+ *
+ * {@link #streaming(StreamingChatModel)} protège aussi un modèle en streaming, avec la même limite
+ * et le même disjoncteur (même service, même quota). Une réponse en streaming n'est retentée que si
+ * l'erreur arrive avant le premier token : une réponse déjà en partie affichée ne peut pas être rejouée.
+ */
+public final class ResilientChatModel implements ChatModel {
+
+    /** État du disjoncteur. */
+    public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    /** Autorisation donnée par le disjoncteur à une tentative. */
+    private enum Permit { DENIED, NORMAL, TRIAL }
+
+    private final ChatModel delegate;
+    private final AimdLimiter limiter;
+    private final long attemptTimeoutNanos;
+    private final long deadlineNanos;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    // disjoncteur (protégé par this)
+    private CircuitState circuit = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder overloads = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private ResilientChatModel(Builder builder) {
+        if (builder.delegate == null) {
+            throw new IllegalArgumentException("delegate est obligatoire");
+        }
+        if (builder.attemptTimeout.compareTo(builder.deadline) > 0) {
+            throw new IllegalArgumentException("attemptTimeout doit être <= deadline : "
+                    + builder.attemptTimeout + " > " + builder.deadline);
+        }
+        this.delegate = builder.delegate;
+        this.limiter = new AimdLimiter(builder.initialConcurrency, builder.minConcurrency,
+                builder.maxConcurrency, 0.5);
+        this.attemptTimeoutNanos = builder.attemptTimeout.toNanos();
+        this.deadlineNanos = builder.deadline.toNanos();
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoffNanos = builder.baseBackoff.toNanos();
+        this.maxBackoffNanos = builder.maxBackoff.toNanos();
+        this.failureThreshold = builder.failureThreshold;
+        this.openDurationNanos = builder.openDuration.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest request) {
+        calls.increment();
+        long deadline = System.nanoTime() + deadlineNanos;
+        RuntimeException last = null;
+        try {
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                Permit permit = acquirePermit();
+                if (permit == Permit.DENIED) {
+                    rejected.increment();
+                    throw circuitOpen(last);
+                }
+                boolean verdict = false;
+                try {
+                    if (!limiter.acquire(deadline)) {
+                        throw new IllegalStateException("Deadline dépassée en attente d'un créneau d'appel au LLM", last);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        ChatResponse response = attempt(request, Math.min(attemptTimeoutNanos, deadline - start));
+                        limiter.onSuccess();
+                        onSuccess();
+                        verdict = true;
+                        successes.increment();
+                        return response;
+                    } catch (RuntimeException e) {
+                        if (!(e instanceof RetriableException)) {
+                            throw e;
+                        }
+                        last = e;
+                        onRetriableFailure(e, start);
+                        verdict = true;
+                    } finally {
+                        limiter.release();
+                    }
+                } finally {
+                    // interruption, Error, erreur définitive : l'appel d'essai ne dit rien du service
+                    if (!verdict) {
+                        releaseTrial(permit);
+                    }
+                }
+
+                long backoff = backoffNanos(attempt);
+                if (attempt == maxAttempts || System.nanoTime() + backoff >= deadline) {
+                    break;
+                }
+                retries.increment();
+                TimeUnit.NANOSECONDS.sleep(backoff);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel au LLM interrompu", e);
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        }
+        failures.increment();
+        throw last;
+    }
+
+    /**
+     * Une tentative, exécutée sur un thread virtuel pour pouvoir l'abandonner après timeoutNanos.
+     */
+    private ChatResponse attempt(ChatRequest request, long timeoutNanos) throws InterruptedException {
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        Thread thread = Thread.ofVirtual().name("llm-call").start(() -> {
+            try {
+                result.complete(delegate.chat(request));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        try {
+            return result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            timeouts.increment();
+            throw new TimeoutException("Pas de réponse du LLM après " + timeoutNanos / 1_000_000 + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // sans effet si la tentative est terminée ; sinon, elle ne sert plus à rien
+            thread.interrupt();
+        }
+    }
+
+    /** Pause aléatoire avant la tentative attempt + 1 ("full jitter"). */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /** Erreur temporaire d'une tentative partie à startNanos : surcharge éventuelle, puis disjoncteur. */
+    private void onRetriableFailure(Throwable error, long startNanos) {
+        if (error instanceof RateLimitException || error instanceof TimeoutException) {
+            overloads.increment();
+            limiter.onOverload(startNanos);
+        }
+        onFailure();
+    }
+
+    private IllegalStateException circuitOpen(Throwable last) {
+        return new IllegalStateException("Disjoncteur ouvert : appels au LLM suspendus après "
+                + failureThreshold + " échecs consécutifs", last);
+    }
+
+    // ----- disjoncteur -----
+
+    private synchronized Permit acquirePermit() {
+        if (circuit == CircuitState.OPEN && System.nanoTime() - openedAtNanos >= openDurationNanos) {
+            circuit = CircuitState.HALF_OPEN;
+        }
+        if (circuit == CircuitState.HALF_OPEN) {
+            if (trialInFlight) {
+                return Permit.DENIED;
+            }
+            trialInFlight = true;
+            return Permit.TRIAL;
+        }
+        return circuit == CircuitState.CLOSED ? Permit.NORMAL : Permit.DENIED;
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        if (circuit != CircuitState.CLOSED) {
+            System.out.println("[LLM] Disjoncteur refermé");
+            circuit = CircuitState.CLOSED;
+        }
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (circuit == CircuitState.HALF_OPEN
+                || (circuit == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+            circuit = CircuitState.OPEN;
+            openedAtNanos = System.nanoTime();
+            System.out.println("[LLM] Disjoncteur ouvert pour " + openDurationNanos / 1_000_000
+                    + " ms après " + consecutiveFailures + " échecs consécutifs");
+        }
+    }
+
+    /** La tentative s'est terminée sans verdict sur la santé du service : libère l'appel d'essai qu'elle portait. */
+    private synchronized void releaseTrial(Permit permit) {
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized CircuitState circuitState() {
+        return circuit;
+    }
+
+    public Stats stats() {
+        return new Stats(calls.sum(), successes.sum(), failures.sum(), retries.sum(), timeouts.sum(),
+                overloads.sum(), rejected.sum(), limiter.limit(), limiter.inFlight(), circuitState());
+    }
+
+    // ----- streaming -----
+
+    /**
+     * Modèle en streaming protégé par la même limite d'appels simultanés et le même disjoncteur.
+     * Le délégué doit être construit sans retries internes ; ses listeners voient chaque tentative.
+     */
+    public StreamingChatModel streaming(StreamingChatModel delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate est obligatoire");
+        }
+        return new ResilientStreamingChatModel(delegate);
+    }
+
+    private final class ResilientStreamingChatModel implements StreamingChatModel {
+
+        private final StreamingChatModel delegate;
+
+        private ResilientStreamingChatModel(StreamingChatModel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+            calls.increment();
+            streamAttempt(request, handler, 1, System.nanoTime() + deadlineNanos, null);
+        }
+
+        /**
+         * Une tentative : attend un créneau sur le thread appelant, puis laisse le délégué répondre
+         * de façon asynchrone ; une nouvelle tentative éventuelle part d'un thread virtuel.
+         */
+        private void streamAttempt(ChatRequest request, StreamingChatResponseHandler handler, int attempt,
+                                   long deadline, Throwable last) {
+            Permit permit = acquirePermit();
+            if (permit == Permit.DENIED) {
+                rejected.increment();
+                fail(handler, circuitOpen(last));
+                return;
+            }
+            try {
+                if (!limiter.acquire(deadline)) {
+                    releaseTrial(permit);
+                    fail(handler, new IllegalStateException(
+                            "Deadline dépassée en attente d'un créneau d'appel au LLM", last));
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                releaseTrial(permit);
+                fail(handler, new IllegalStateException("Appel au LLM interrompu", e));
+                return;
+            }
+
+            long start = System.nanoTime();
+            AtomicBoolean started = new AtomicBoolean();
+            AtomicBoolean finished = new AtomicBoolean();
+            StreamingChatResponseHandler attemptHandler = new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    started.set(true);
+                    handler.onPartialResponse(partialResponse);
+                }
+
+                @Override
+                public void onPartialThinking(PartialThinking partialThinking) {
+                    started.set(true);
+                    handler.onPartialThinking(partialThinking);
+                }
+
+                @Override
+                public void onPartialToolCall(PartialToolCall partialToolCall) {
+                    started.set(true);
+                    handler.onPartialToolCall(partialToolCall);
+                }
+
+                @Override
+                public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+                    started.set(true);
+                    handler.onCompleteToolCall(completeToolCall);
+                }
+
+                @Override
+                public void onCompleteResponse(ChatResponse response) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    limiter.release();
+                    limiter.onSuccess();
+                    onSuccess();
+                    successes.increment();
+                    handler.onCompleteResponse(response);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    limiter.release();
+                    if (!(error instanceof RetriableException)) {
+                        releaseTrial(permit);
+                        fail(handler, error);
+                        return;
+                    }
+                    onRetriableFailure(error, start);
+                    long backoff = backoffNanos(attempt);
+                    if (started.get() || attempt == maxAttempts || System.nanoTime() + backoff >= deadline) {
+                        fail(handler, error);
+                        return;
+                    }
+                    retries.increment();
+                    Thread.ofVirtual().name("llm-stream-retry").start(() -> {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(backoff);
+                        } catch (InterruptedException e) {
+                            fail(handler, new IllegalStateException("Appel au LLM interrompu", e));
+                            return;
+                        }
+                        streamAttempt(request, handler, attempt + 1, deadline, error);
+                    });
+                }
+            };
+            try {
+                delegate.chat(request, attemptHandler);
+            } catch (RuntimeException | Error e) {
+                attemptHandler.onError(e);
+            }
+        }
+
+        private void fail(StreamingChatResponseHandler handler, Throwable error) {
+            failures.increment();
+            handler.onError(error);
+        }
+
+        @Override
+        public ChatRequestParameters defaultRequestParameters() {
+            return delegate.defaultRequestParameters();
+        }
+
+        @Override
+        public Set<Capability> supportedCapabilities() {
+            return delegate.supportedCapabilities();
+        }
+
+        @Override
+        public ModelProvider provider() {
+            return delegate.provider();
+        }
+    }
+
+    // ----- délégation -----
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    /**
+     * Compteurs des appels et état courant (limite de concurrence, disjoncteur).
+     */
+    public record Stats(long calls, long successes, long failures, long retries, long timeouts, long overloads,
+                        long rejected, double concurrencyLimit, int inFlight, CircuitState circuit) {
+
+        @Override
+        public String toString() {
+            return String.format("LLM : %d appels, %d réussis, %d échoués (dont %d refusés par le disjoncteur),"
+                            + " %d nouvelles tentatives, %d délais dépassés, %d surcharges ;"
+                            + " limite de concurrence = %.1f (%d en cours), disjoncteur %s",
+                    calls, successes, failures, rejected, retries, timeouts, overloads,
+                    concurrencyLimit, inFlight, circuit);
+        }
+    }
+
+    public static final class Builder {
+        private ChatModel delegate;
+        private int initialConcurrency = 4;
+        private int minConcurrency = 1;
+        private int maxConcurrency = 16;
+        private Duration attemptTimeout = Duration.ofSeconds(20);
+        private Duration deadline = Duration.ofSeconds(60);
+        private int maxAttempts = 3;
+        private Duration baseBackoff = Duration.ofMillis(250);
+        private Duration maxBackoff = Duration.ofSeconds(4);
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(15);
+
+        private Builder() {
+        }
+
+        /** ChatModel protégé, sans retries internes (obligatoire). */
+        public Builder delegate(ChatModel delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /** Limite de départ du nombre d'appels simultanés. */
+        public Builder initialConcurrency(int initialConcurrency) {
+            this.initialConcurrency = positive(initialConcurrency, "initialConcurrency");
+            return this;
+        }
+
+        /** Plancher de la limite d'appels simultanés. */
+        public Builder minConcurrency(int minConcurrency) {
+            this.minConcurrency = positive(minConcurrency, "minConcurrency");
+            return this;
+        }
+
+        /** Plafond de la limite d'appels simultanés. */
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = positive(maxConcurrency, "maxConcurrency");
+            return this;
+        }
+
+        /** Temps maximum d'une tentative. */
+        public Builder attemptTimeout(Duration attemptTimeout) {
+            this.attemptTimeout = positive(attemptTimeout, "attemptTimeout");
+            return this;
+        }
+
+        /** Temps maximum de tout l'appel (attente, tentatives et pauses comprises). */
+        public Builder deadline(Duration deadline) {
+            this.deadline = positive(deadline, "deadline");
+            return this;
+        }
+
+        /** Nombre maximum de tentatives (1 = pas de nouvelle tentative). */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = positive(maxAttempts, "maxAttempts");
+            return this;
+        }
+
+        /** Pause de référence avant la 2e tentative (doublée à chaque tentative). */
+        public Builder baseBackoff(Duration baseBackoff) {
+            this.baseBackoff = positive(baseBackoff, "baseBackoff");
+            return this;
+        }
+
+        /** Pause maximum entre deux tentatives. */
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = positive(maxBackoff, "maxBackoff");
+            return this;
+        }
+
+        /** Nombre d'échecs temporaires consécutifs qui ouvre le disjoncteur. */
+        public Builder failureThreshold(int failureThreshold) {
+            this.failureThreshold = positive(failureThreshold, "failureThreshold");
+            return this;
+        }
+
+        /** Durée pendant laquelle le disjoncteur ouvert refuse les appels. */
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = positive(openDuration, "openDuration");
+            return this;
+        }
+
+        /** La limite de départ est ramenée dans [minConcurrency, maxConcurrency]. */
+        public ResilientChatModel build() {
+            initialConcurrency = Math.max(minConcurrency, Math.min(maxConcurrency, initialConcurrency));
+            return new ResilientChatModel(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+
+        private static Duration positive(Duration value, String name) {
+            if (value.isNegative() || value.isZero()) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package ma.emsi.dhissiayman.tp3.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.content.retriever.WebSearchContentRetriever;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.web.search.WebSearchEngine;
+import ma.emsi.dhissiayman.tp3.assistant.SessionAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.memory.SessionMemoryProvider;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.LatencyHistogram;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.retrieval.DeadlineContentRetriever;
+import ma.emsi.dhissiayman.tp3.routing.CentroidQueryRouter;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubChatModel;
+import ma.emsi.dhissiayman.tp3.stub.StubWebSearchEngine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Test de charge hors ligne du RAG complet (AiServices → routage → recherche PDF + Web →
+ * agrégation → LLM), sans consommer de quota Gemini ni Tavily.
+ *
+ * Le LLM et la recherche Web sont remplacés par des stubs déterministes ({@link StubChatModel},
+ * {@link StubWebSearchEngine}) à latence configurable ; le modèle d'embeddings ONNX et les PDF
+ * du projet sont les vrais : le coût mesuré côté récupération est celui de l'application.
+ *
+ * Charge en boucle fermée : users utilisateurs simulés (un thread virtuel chacun, une session
+ * de conversation chacun) posent des questions l'une après l'autre pendant duration,
+ * après une phase de préchauffage (JIT, caches) exclue des mesures.
+ *
+ * Le rapport donne, pour la requête de bout en bout et pour chaque étape de {@link StageMetrics},
+ * le nombre de mesures, le débit et les latences p50 / p95 / p99, ainsi que la part du temps
+ * des requêtes passée dans l'étape (les sources étant interrogées en parallèle,
+ * les parts peuvent dépasser 100 % au total).
+ * Les percentiles des requêtes sont exacts (durées brutes conservées) ; ceux des étapes
+ * viennent des {@link LatencyHistogram} de StageMetrics (interpolés, à ≈ 3 % près).
+ *
+ * Usage : LoadTestHarness [questions.jsonl]   (même format que le mode batch ; questions intégrées sinon)
+ *   -Drag.loadtest.users=8  -Drag.loadtest.warmupSeconds=5  -Drag.loadtest.durationSeconds=30
+ *   -Drag.loadtest.thinkMs=0
+ *   -Drag.loadtest.llm.medianMs=800  -Drag.loadtest.llm.sigma=0.5
+ *   -Drag.loadtest.web.medianMs=800  -Drag.loadtest.web.sigma=0.8  -Drag.loadtest.web=true
+ *   -Drag.loadtest.queryCache=0      (entrées du cache d'embeddings des questions ; 0 = chaque
+ *                                     embedding passe par le modèle ONNX et est mesuré)
+ */
+public final class LoadTestHarness {
+
+    /** Questions posées si aucun fichier n'est donné (cours LangChain4j, cours LLM, QCM). */
+    static final List<String> DEFAULT_QUESTIONS = List.of(
+            "Qu'est-ce que le RAG ?",
+            "Comment LangChain4j découpe-t-il un document en segments ?",
+            "À quoi sert un EmbeddingStore ?",
+            "Quelle est la différence entre un ChatModel et un StreamingChatModel ?",
+            "Comment fonctionne la mémoire de conversation dans LangChain4j ?",
+            "Qu'est-ce qu'un embedding ?",
+            "Qu'est-ce qu'un modèle de langage de grande taille ?",
+            "Comment fonctionne le mécanisme d'attention d'un transformer ?",
+            "Qu'est-ce que le fine-tuning d'un LLM ?",
+            "Pourquoi un LLM peut-il halluciner ?",
+            "Quelle est la différence entre apprentissage supervisé et non supervisé ?",
+            "Qu'est-ce que le surapprentissage ?");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SessionAssistant assistant;
+    private final SessionMemoryProvider memories;
+    private final List<String> questions;
+    private final int users;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Duration thinkTime;
+    private final StageMetrics metrics;
+
+    private LoadTestHarness(Builder builder) {
+        if (builder.assistant == null) {
+            throw new IllegalArgumentException("assistant est obligatoire");
+        }
+        if (builder.questions.isEmpty()) {
+            throw new IllegalArgumentException("au moins une question est nécessaire");
+        }
+        this.assistant = builder.assistant;
+        this.memories = builder.memories;
+        this.questions = List.copyOf(builder.questions);
+        this.users = builder.users;
+        this.warmup = builder.warmup;
+        this.duration = builder.duration;
+        this.thinkTime = builder.thinkTime;
+        this.metrics = builder.metrics;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Préchauffage (non mesuré), remise à zéro des métriques, puis phase mesurée.
+     * Rend la main quand la dernière requête de la phase mesurée est terminée.
+     */
+    public Report run() throws InterruptedException {
+        if (!warmup.isZero()) {
+            System.out.println("[Charge] Préchauffage : " + users + " utilisateurs pendant " + warmup.toSeconds() + " s");
+            phase("prechauffage", warmup, new ArrayList<>(), new LongAdder(), new LongAdder());
+        }
+        metrics.reset();
+
+        System.out.println("[Charge] Mesure : " + users + " utilisateurs pendant " + duration.toSeconds() + " s");
+        List<Long> latencies = new ArrayList<>();
+        LongAdder errors = new LongAdder();
+        LongAdder errorNanos = new LongAdder();
+        long start = System.nanoTime();
+        phase("charge", duration, latencies, errors, errorNanos);
+        long elapsed = System.nanoTime() - start;
+        long[] requestLatencies = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        long successNanos = Arrays.stream(requestLatencies).sum();
+        long requestNanos = successNanos + errorNanos.sum();
+
+        List<StageReport> stages = new ArrayList<>();
+        for (StageMetrics.Stage stage : StageMetrics.Stage.values()) {
+            LatencyHistogram histogram = metrics.histogram(stage);
+            if (histogram.count() > 0) {
+                stages.add(StageReport.of(stage.name().toLowerCase(Locale.ROOT), histogram, elapsed, requestNanos));
+            }
+        }
+        return new Report(users, errors.sum(), elapsed,
+                StageReport.of("requête", requestLatencies, elapsed, successNanos), stages,
+                metrics.inputTokens(), metrics.outputTokens());
+    }
+
+    /**
+     * Chaque utilisateur enchaîne les questions jusqu'à la fin de la phase ; les utilisateurs
+     * commencent à des questions différentes pour ne pas poser la même en même temps.
+     * Seules les requêtes réussies entrent dans latencies (durées brutes en ns, pour des percentiles exacts) ;
+     * la durée des échecs est cumulée à part.
+     */
+    private void phase(String name, Duration length, List<Long> latencies, LongAdder errors,
+                       LongAdder errorNanos) throws InterruptedException {
+        long end = System.nanoTime() + length.toNanos();
+        List<Thread> threads = new ArrayList<>(users);
+        for (int u = 0; u < users; u++) {
+            int user = u;
+            threads.add(Thread.ofVirtual().name(name + "-" + user).start(() -> {
+                String session = name + "-" + user;
+                List<Long> own = new ArrayList<>();
+                int next = user;
+                try {
+                    while (System.nanoTime() < end) {
+                        String question = questions.get(next++ % questions.size());
+                        long start = System.nanoTime();
+                        try {
+                            assistant.chat(session, question);
+                            own.add(System.nanoTime() - start);
+                        } catch (RuntimeException e) {
+                            errors.increment();
+                            errorNanos.add(System.nanoTime() - start);
+                        }
+                        if (!thinkTime.isZero()) {
+                            Thread.sleep(thinkTime);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    synchronized (latencies) {
+                        latencies.addAll(own);
+                    }
+                    assistant.evictChatMemory(session);
+                    if (memories != null) {
+                        memories.remove(session);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Mesures d'une étape sur la phase mesurée : débit (mesures / s), latences (ms)
+     * et part du temps cumulé des requêtes (réussies ou non) passée dans l'étape.
+     */
+    public record StageReport(String name, long count, double throughput, double meanMillis, double p50Millis,
+                              double p95Millis, double p99Millis, double maxMillis, double share) {
+
+        static StageReport of(String name, LatencyHistogram histogram, long elapsedNanos, long requestNanos) {
+            return new StageReport(name, histogram.count(), histogram.count() / (elapsedNanos / 1e9),
+                    histogram.meanMillis(), histogram.percentileMillis(0.50), histogram.percentileMillis(0.95),
+                    histogram.percentileMillis(0.99), histogram.maxNanos() / 1e6,
+                    requestNanos == 0 ? 0 : (double) histogram.sumNanos() / requestNanos);
+        }
+
+        /** Même bilan à partir des durées brutes (ns, triées) : percentiles exacts (rang le plus proche). */
+        static StageReport of(String name, long[] sortedNanos, long elapsedNanos, long requestNanos) {
+            int n = sortedNanos.length;
+            long sum = Arrays.stream(sortedNanos).sum();
+            return new StageReport(name, n, n / (elapsedNanos / 1e9), n == 0 ? 0 : sum / 1e6 / n,
+                    percentileMillis(sortedNanos, 0.50), percentileMillis(sortedNanos, 0.95),
+                    percentileMillis(sortedNanos, 0.99), n == 0 ? 0 : sortedNanos[n - 1] / 1e6,
+                    requestNanos == 0 ? 0 : (double) sum / requestNanos);
+        }
+
+        private static double percentileMillis(long[] sortedNanos, double p) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.max(1, Math.ceil(p * sortedNanos.length));
+            return sortedNanos[rank - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "  %-14s %8d %9.1f/s %9.2f %9.2f %9.2f %9.2f %9.2f %6.0f %%",
+                    name, count, throughput, meanMillis, p50Millis, p95Millis, p99Millis, maxMillis, share * 100);
+        }
+    }
+
+    /**
+     * Bilan de la phase mesurée : requêtes de bout en bout, puis une ligne par étape mesurée.
+     */
+    public record Report(int users, long errors, long elapsedNanos, StageReport requests, List<StageReport> stages,
+                         long inputTokens, long outputTokens) {
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "[Charge] %d utilisateurs, %.1f s : %d requêtes réussies (%.2f requêtes/s), %d erreurs, "
+                            + "%d tokens en entrée, %d en sortie%n",
+                    users, elapsedNanos / 1e9, requests.count(), requests.throughput(), errors,
+                    inputTokens, outputTokens));
+            sb.append(String.format("  %-14s %8s %11s %9s %9s %9s %9s %9s %8s",
+                    "étape", "n", "débit", "moy (ms)", "p50", "p95", "p99", "max", "part"));
+            sb.append(System.lineSeparator()).append(requests);
+            for (StageReport stage : stages) {
+                sb.append(System.lineSeparator()).append(stage);
+            }
+            return sb.toString();
+        }
+    }
+
+    public static final class Builder {
+        private SessionAssistant assistant;
+        private SessionMemoryProvider memories;
+        private List<String> questions = DEFAULT_QUESTIONS;
+        private int users = 8;
+        private Duration warmup = Duration.ofSeconds(5);
+        private Duration duration = Duration.ofSeconds(30);
+        private Duration thinkTime = Duration.ZERO;
+        private StageMetrics metrics = StageMetrics.global();
+
+        private Builder() {
+        }
+
+        /** Assistant interrogé, une session par utilisateur simulé (obligatoire). */
+        public Builder assistant(SessionAssistant assistant) {
+            this.assistant = assistant;
+            return this;
+        }
+
+        /** Mémoires de l'assistant : la session d'un utilisateur est oubliée à la fin de chaque phase. */
+        public Builder memories(SessionMemoryProvider memories) {
+            this.memories = memories;
+            return this;
+        }
+
+        /** Questions posées à tour de rôle. */
+        public Builder questions(List<String> questions) {
+            this.questions = questions;
+            return this;
+        }
+
+        /** Nombre d'utilisateurs simulés (requêtes en cours en même temps). */
+        public Builder users(int users) {
+            if (users <= 0) {
+                throw new IllegalArgumentException("users doit être > 0 : " + users);
+            }
+            this.users = users;
+            return this;
+        }
+
+        /** Durée du préchauffage, exclu des mesures (0 : aucun). */
+        public Builder warmup(Duration warmup) {
+            if (warmup.isNegative()) {
+                throw new IllegalArgumentException("warmup doit être >= 0 : " + warmup);
+            }
+            this.warmup = warmup;
+            return this;
+        }
+
+        /** Durée de la phase mesurée. */
+        public Builder duration(Duration duration) {
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException("duration doit être > 0 : " + duration);
+            }
+            this.duration = duration;
+            return this;
+        }
+
+        /** Pause d'un utilisateur entre deux questions (0 par défaut : charge maximale). */
+        public Builder thinkTime(Duration thinkTime) {
+            if (thinkTime.isNegative()) {
+                throw new IllegalArgumentException("thinkTime doit être >= 0 : " + thinkTime);
+            }
+            this.thinkTime = thinkTime;
+            return this;
+        }
+
+        /** Métriques par étape lues pour le rapport, remises à zéro après le préchauffage. */
+        public Builder metrics(StageMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public LoadTestHarness build() {
+            return new LoadTestHarness(this);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int users = Integer.getInteger("rag.loadtest.users", 8);
+        List<String> questions = args.length > 0 ? readQuestions(Paths.get(args[0])) : DEFAULT_QUESTIONS;
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
+
+        // LLM simulé (mesuré par le même listener que Gemini), derrière la même couche de résilience
+        StubChatModel stubChatModel = StubChatModel.builder()
+                .latency(LatencyDistribution.logNormal(
+                        Duration.ofMillis(Long.getLong("rag.loadtest.llm.medianMs", 800)),
+                        Double.parseDouble(System.getProperty("rag.loadtest.llm.sigma", "0.5")), 42))
+                .listeners(List.of(new MetricsChatModelListener()))
+                .build();
+        ResilientChatModel chatModel = ResilientChatModel.builder()
+                .delegate(stubChatModel)
+                .maxConcurrency(Integer.getInteger("rag.llm.maxConcurrency", 16))
+                .build();
+
+        // Vrai modèle d'embeddings et vrais PDF : une source par document, routage par centroïdes
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        Map<String, Path> pdfs = new LinkedHashMap<>();
+        pdfs.put("langchain4j", IngestionPipeline.resourcePath("langchain4j.pdf"));
+        pdfs.put("llm", IngestionPipeline.resourcePath("llm.pdf"));
+        pdfs.put("qcm", IngestionPipeline.resourcePath("QCM_MAD-AI_COMPLET.pdf"));
+        Map<Path, EmbeddingIndex> indexes = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingestAll(List.copyOf(pdfs.values()));
+
+        int queryCache = Integer.getInteger("rag.loadtest.queryCache", 0);
+        EmbeddingModel queryEmbeddingModel = queryCache > 0
+                ? new CachingEmbeddingModel(embeddingModel, queryCache)
+                : segments -> StageMetrics.global().time(StageMetrics.Stage.QUERY_EMBED,
+                        () -> embeddingModel.embedAll(segments));
+
+        CentroidQueryRouter.Builder routerBuilder = CentroidQueryRouter.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .verbose(false);
+        List<DeadlineContentRetriever> sources = new ArrayList<>();
+        for (Map.Entry<String, Path> pdf : pdfs.entrySet()) {
+            EmbeddingIndex index = indexes.get(pdf.getValue());
+            DeadlineContentRetriever source = DeadlineContentRetriever.builder()
+                    .name(pdf.getKey())
+                    .delegate(EmbeddingStoreContentRetriever.builder()
+                            .embeddingStore(DenseVectorStore.of(index))
+                            .embeddingModel(queryEmbeddingModel)
+                            .maxResults(5)
+                            .minScore(0.5)
+                            .build())
+                    .deadline(Duration.ofMillis(Long.getLong("rag.pdf.deadlineMs", 500)))
+                    .coldDeadline(Duration.ofMillis(Long.getLong("rag.pdf.coldDeadlineMs", 10_000)))
+                    .build();
+            sources.add(source);
+            routerBuilder.route(pdf.getKey(), source, index);
+        }
+        CentroidQueryRouter pdfRouter = routerBuilder.build();
+
+        // Recherche Web simulée, interrogée en plus des PDF retenus (comme Test5RagWeb)
+        StubWebSearchEngine stubWebSearchEngine = new StubWebSearchEngine(LatencyDistribution.logNormal(
+                Duration.ofMillis(Long.getLong("rag.loadtest.web.medianMs", 800)),
+                Double.parseDouble(System.getProperty("rag.loadtest.web.sigma", "0.8")), 42));
+        WebSearchEngine timedWebSearchEngine = request ->
+                StageMetrics.global().time(StageMetrics.Stage.WEB_SEARCH, () -> stubWebSearchEngine.search(request));
+        DeadlineContentRetriever webSource = DeadlineContentRetriever.builder()
+                .name("web")
+                .delegate(WebSearchContentRetriever.builder()
+                        .webSearchEngine(timedWebSearchEngine)
+                        .build())
+                .deadline(Duration.ofMillis(Long.getLong("rag.web.deadlineMs", 2500)))
+                .hedgeAfter(Duration.ofMillis(Long.getLong("rag.web.hedgeMs", 1200)))
+                .build();
+        boolean web = Boolean.parseBoolean(System.getProperty("rag.loadtest.web", "true"));
+        if (web) {
+            sources.add(webSource);
+        }
+        QueryRouter queryRouter = query -> {
+            List<ContentRetriever> selected = new ArrayList<>(pdfRouter.route(query));
+            if (web) {
+                selected.add(webSource);
+            }
+            return selected;
+        };
+
+        ExecutorService retrievalExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
+        int maxTokens = Integer.getInteger("rag.memory.maxTokens", 2000);
+        SessionMemoryProvider memories = new SessionMemoryProvider(
+                id -> TokenBudgetChatMemory.builder().id(id).maxTokens(maxTokens).build(), users * 2);
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(memories)
+                .retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .queryRouter(queryRouter)
+                        .contentAggregator(contentAggregator)
+                        .executor(retrievalExecutor)
+                        .build())
+                .build();
+        memories.onEviction(assistant::evictChatMemory);
+
+        LoadTestHarness harness = builder()
+                .assistant(assistant)
+                .memories(memories)
+                .questions(questions)
+                .users(users)
+                .warmup(Duration.ofSeconds(Long.getLong("rag.loadtest.warmupSeconds", 5)))
+                .duration(Duration.ofSeconds(Long.getLong("rag.loadtest.durationSeconds", 30)))
+                .thinkTime(Duration.ofMillis(Long.getLong("rag.loadtest.thinkMs", 0)))
+                .build();
+        System.out.println(harness.run());
+        System.out.println(chatModel.stats());
+        System.out.println(pdfRouter.stats());
+        for (DeadlineContentRetriever source : sources) {
+            System.out.println(source.stats());
+        }
+        System.out.println(contentAggregator.stats());
+        System.out.println("[Charge] Stubs : " + stubChatModel.calls() + " appels au LLM, "
+                + stubWebSearchEngine.searches() + " recherches Web");
+        retrievalExecutor.shutdown();
+    }
+
+    /** Questions d'un fichier JSONL ({"question": "..."} par ligne, lignes vides ou invalides ignorées). */
+    private static List<String> readQuestions(Path path) throws IOException {
+        List<String> questions = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                String question = MAPPER.readTree(line).path("question").asText("");
+                if (!question.isBlank()) {
+                    questions.add(question);
+                }
+            } catch (JsonProcessingException e) {
+                System.out.println("[Charge] Ligne ignorée : " + line);
+            }
+        }
+        return questions;
+    }
+}
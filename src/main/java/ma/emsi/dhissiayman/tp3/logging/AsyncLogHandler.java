@@ -0,0 +1,151 @@
+package ma.emsi.dhissiayman.tp3.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Handler java.util.logging asynchrone : le thread appelant (requête, LLM...) dépose
+ * l'enregistrement dans un tampon borné et repart aussitôt ; un thread dédié l'écrit
+ * ensuite via le handler délégué (console par défaut).
+ *
+ * Si le tampon est plein (écriture plus lente que la production de logs),
+ * l'enregistrement est abandonné et compté, au lieu de bloquer l'appelant.
+ */
+public class AsyncLogHandler extends Handler {
+
+    private static final LogRecord FIN = new LogRecord(Level.OFF, "fin");
+
+    private final Handler delegate;
+    private final BlockingQueue<LogRecord> buffer;
+    private final Thread writer;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param delegate handler réellement chargé de l'écriture (appelé depuis un seul thread)
+     * @param capacity nombre maximum d'enregistrements en attente d'écriture
+     */
+    public AsyncLogHandler(Handler delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity doit être > 0");
+        }
+        this.delegate = delegate;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.writer = Thread.ofPlatform().name("rag-log-writer").daemon().start(this::drain);
+        setLevel(delegate.getLevel());
+    }
+
+    /**
+     * Remplace les handlers des loggers donnés par un même AsyncLogHandler autour d'un
+     * ConsoleHandler (messages tronqués à rag.log.maxChars caractères, défaut 2000).
+     *
+     * @param level       niveau minimum affiché
+     * @param capacity    taille du tampon
+     * @param loggerNames loggers concernés (ex. "dev.langchain4j")
+     * @return le handler installé (pour lire {@link #stats()})
+     */
+    public static AsyncLogHandler install(Level level, int capacity, String... loggerNames) {
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(level);
+        console.setFormatter(new TruncatingFormatter(Integer.getInteger("rag.log.maxChars", 2000)));
+        AsyncLogHandler handler = new AsyncLogHandler(console, capacity);
+
+        for (String loggerName : loggerNames) {
+            Logger logger = Logger.getLogger(loggerName);
+            logger.setLevel(level);
+            logger.setUseParentHandlers(false); // évite d'avoir les logs en double
+            for (Handler existing : logger.getHandlers()) {
+                logger.removeHandler(existing);
+            }
+            logger.addHandler(handler);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::close));
+        return handler;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // La classe / méthode appelante est déduite de la pile : à faire ici,
+        // sur le thread d'origine, pas sur le thread d'écriture
+        record.getSourceClassName();
+        if (buffer.offer(record)) {
+            published.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                LogRecord record = buffer.take();
+                if (record == FIN) {
+                    break;
+                }
+                delegate.publish(record);
+                if (buffer.isEmpty()) {
+                    delegate.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Écrit ce qui reste encore dans le tampon
+        LogRecord record;
+        while ((record = buffer.poll()) != null) {
+            if (record != FIN) {
+                delegate.publish(record);
+            }
+        }
+        delegate.flush();
+    }
+
+    @Override
+    public void flush() {
+        // l'écriture est asynchrone : rien à forcer depuis l'appelant
+    }
+
+    /**
+     * Arrête le thread d'écriture après avoir vidé le tampon (attente max 2 s).
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!buffer.offer(FIN, 2, TimeUnit.SECONDS)) {
+                writer.interrupt();
+            }
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    public long published() {
+        return published.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public String stats() {
+        return "[Logs] " + published() + " acceptés, " + dropped()
+                + " abandonnés (tampon plein), " + buffer.size() + " en attente";
+    }
+}
@@ -0,0 +1,164 @@
+package ma.emsi.dhissiayman.tp3.logging;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remplace logRequestsAndResponses(true) : journalise les échanges avec le LLM
+ * via java.util.logging (à coupler avec {@link AsyncLogHandler}).
+ *
+ *  - INFO    : une ligne par appel (latence, nombre de messages, tokens), toujours
+ *  - FINE    : corps complets de la requête et de la réponse, pour une fraction
+ *              des appels seulement (sampleRate), chaque message tronqué à maxBodyChars
+ *  - WARNING : erreurs d'appel, toujours
+ *
+ * La décision d'échantillonnage est prise à la requête et reprise à la réponse :
+ * un échange est journalisé en entier ou pas du tout.
+ */
+public final class SampledLoggingChatModelListener implements ChatModelListener {
+
+    /** Logger par défaut des échanges avec le LLM. */
+    public static final String LOGGER_NAME = "ma.emsi.dhissiayman.tp3.llm";
+
+    private static final String START = "log.start";
+    private static final String CALL_ID = "log.id";
+    private static final String SAMPLED = "log.sampled";
+
+    private final Logger logger;
+    private final double sampleRate;
+    private final int maxBodyChars;
+    private final AtomicLong ids = new AtomicLong();
+
+    private SampledLoggingChatModelListener(Builder builder) {
+        this.logger = Logger.getLogger(builder.loggerName);
+        this.sampleRate = builder.sampleRate;
+        this.maxBodyChars = builder.maxBodyChars;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Listener configuré par les propriétés système rag.log.sampleRate (défaut 0.1)
+     * et rag.log.maxChars (défaut 2000).
+     */
+    public static SampledLoggingChatModelListener fromSystemProperties() {
+        return builder()
+                .sampleRate(Double.parseDouble(System.getProperty("rag.log.sampleRate", "0.1")))
+                .maxBodyChars(Integer.getInteger("rag.log.maxChars", 2000))
+                .build();
+    }
+
+    @Override
+    public void onRequest(ChatModelRequestContext context) {
+        long id = ids.incrementAndGet();
+        boolean sampled = logger.isLoggable(Level.FINE)
+                && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        context.attributes().put(START, System.nanoTime());
+        context.attributes().put(CALL_ID, id);
+        context.attributes().put(SAMPLED, sampled);
+
+        if (sampled) {
+            logger.fine("[LLM #" + id + "] requête :\n" + format(context.chatRequest().messages()));
+        }
+    }
+
+    @Override
+    public void onResponse(ChatModelResponseContext context) {
+        Object id = context.attributes().get(CALL_ID);
+        if (logger.isLoggable(Level.INFO)) {
+            TokenUsage usage = context.chatResponse().tokenUsage();
+            logger.info("[LLM #" + id + "] réponse en " + elapsedMillis(context.attributes().get(START)) + " ms, "
+                    + context.chatRequest().messages().size() + " messages, tokens : "
+                    + (usage == null ? "?" : usage.inputTokenCount() + " en entrée / " + usage.outputTokenCount() + " en sortie"));
+        }
+        if (Boolean.TRUE.equals(context.attributes().get(SAMPLED))) {
+            logger.fine("[LLM #" + id + "] réponse :\n"
+                    + TruncatingFormatter.truncate(text(context.chatResponse().aiMessage()), maxBodyChars));
+        }
+    }
+
+    @Override
+    public void onError(ChatModelErrorContext context) {
+        logger.log(Level.WARNING, "[LLM #" + context.attributes().get(CALL_ID) + "] erreur après "
+                + elapsedMillis(context.attributes().get(START)) + " ms : " + context.error());
+    }
+
+    private String format(List<ChatMessage> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (ChatMessage message : messages) {
+            sb.append("  ").append(message.getClass().getSimpleName()).append(" : ")
+                    .append(TruncatingFormatter.truncate(text(message), maxBodyChars))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String text(ChatMessage message) {
+        if (message instanceof UserMessage user) {
+            return user.hasSingleText() ? user.singleText() : user.toString();
+        }
+        if (message instanceof AiMessage ai) {
+            return ai.text() == null ? "" : ai.text();
+        }
+        if (message instanceof SystemMessage system) {
+            return system.text();
+        }
+        return String.valueOf(message);
+    }
+
+    private static long elapsedMillis(Object start) {
+        return start instanceof Long nanos ? (System.nanoTime() - nanos) / 1_000_000 : -1;
+    }
+
+    public static final class Builder {
+        private String loggerName = LOGGER_NAME;
+        private double sampleRate = 0.1;
+        private int maxBodyChars = 2000;
+
+        private Builder() {
+        }
+
+        /** Logger java.util.logging utilisé. */
+        public Builder loggerName(String loggerName) {
+            this.loggerName = loggerName;
+            return this;
+        }
+
+        /** Fraction des appels dont les corps complets sont journalisés (0 à 1). */
+        public Builder sampleRate(double sampleRate) {
+            if (sampleRate < 0 || sampleRate > 1) {
+                throw new IllegalArgumentException("sampleRate doit être entre 0 et 1 : " + sampleRate);
+            }
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /** Taille maximum (caractères) de chaque message journalisé. */
+        public Builder maxBodyChars(int maxBodyChars) {
+            if (maxBodyChars <= 0) {
+                throw new IllegalArgumentException("maxBodyChars doit être > 0 : " + maxBodyChars);
+            }
+            this.maxBodyChars = maxBodyChars;
+            return this;
+        }
+
+        public SampledLoggingChatModelListener build() {
+            return new SampledLoggingChatModelListener(this);
+        }
+    }
+}
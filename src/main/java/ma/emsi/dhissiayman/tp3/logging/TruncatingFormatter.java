@@ -0,0 +1,35 @@
+package ma.emsi.dhissiayman.tp3.logging;
+
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * SimpleFormatter qui tronque les messages trop longs (corps de requêtes / réponses,
+ * contexte RAG...) en indiquant le nombre de caractères coupés.
+ */
+public class TruncatingFormatter extends SimpleFormatter {
+
+    private final int maxChars;
+
+    public TruncatingFormatter(int maxChars) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("maxChars doit être > 0");
+        }
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public String formatMessage(LogRecord record) {
+        return truncate(super.formatMessage(record), maxChars);
+    }
+
+    /**
+     * @return le texte, limité à maxChars caractères (suivi de "… [+N caractères]" s'il est coupé)
+     */
+    public static String truncate(String text, int maxChars) {
+        if (text == null || text.length() <= maxChars) {
+            return text;
+        }
+        return text.substring(0, maxChars) + "… [+" + (text.length() - maxChars) + " caractères]";
+    }
+}
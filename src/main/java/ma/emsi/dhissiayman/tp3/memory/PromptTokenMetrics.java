@@ -0,0 +1,66 @@
+package ma.emsi.dhissiayman.tp3.memory;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Taille estimée (tokens) de l'historique envoyé au LLM à chaque tour,
+ * et travail fait par {@link TokenBudgetChatMemory} pour la contenir.
+ *
+ * Une même instance peut être partagée par plusieurs mémoires (une par session).
+ */
+public class PromptTokenMetrics {
+
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAccumulator maxPromptTokens = new LongAccumulator(Math::max, 0);
+    private final LongAdder strippedContexts = new LongAdder();
+    private final LongAdder strippedTokens = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder summaries = new LongAdder();
+    private volatile long lastPromptTokens;
+
+    void recordTurn(int tokens) {
+        turns.increment();
+        promptTokens.add(tokens);
+        maxPromptTokens.accumulate(tokens);
+        lastPromptTokens = tokens;
+    }
+
+    void recordStrippedContext(int tokens) {
+        strippedContexts.increment();
+        strippedTokens.add(tokens);
+    }
+
+    void recordDropped(int messages) {
+        droppedMessages.add(messages);
+    }
+
+    void recordSummary() {
+        summaries.increment();
+    }
+
+    public Stats stats() {
+        return new Stats(turns.sum(), promptTokens.sum(), maxPromptTokens.get(), lastPromptTokens,
+                strippedContexts.sum(), strippedTokens.sum(), droppedMessages.sum(), summaries.sum());
+    }
+
+    /**
+     * Compteurs à un instant donné.
+     */
+    public record Stats(long turns, long promptTokens, long maxPromptTokens, long lastPromptTokens,
+                        long strippedContexts, long strippedTokens, long droppedMessages, long summaries) {
+
+        public double meanPromptTokens() {
+            return turns == 0 ? 0 : (double) promptTokens / turns;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mémoire : %d tours, historique moyen ≈ %.0f tokens (max %d, dernier %d),"
+                            + " %d contextes RAG retirés (≈ %d tokens), %d messages oubliés, %d résumés",
+                    turns, meanPromptTokens(), maxPromptTokens, lastPromptTokens,
+                    strippedContexts, strippedTokens, droppedMessages, summaries);
+        }
+    }
+}
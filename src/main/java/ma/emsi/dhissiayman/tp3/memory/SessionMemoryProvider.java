@@ -0,0 +1,103 @@
+package ma.emsi.dhissiayman.tp3.memory;
+
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * ChatMemoryProvider : une mémoire de conversation par session (id).
+ *
+ * Les mémoires sont créées à la première question d'une session par {@code factory}
+ * et gardées en mémoire (LRU borné) : au-delà de {@code maxSessions}, la session
+ * la moins récemment active est oubliée.
+ *
+ * L'AiService garde lui aussi chaque mémoire renvoyée par {@link #get} : une session oubliée ici
+ * doit l'être aussi côté AiService (ChatMemoryAccess.evictChatMemory), sinon sa mémoire n'est
+ * jamais libérée. {@link #onEviction} branche cette éviction pour la borne LRU ; pour une
+ * suppression explicite, appeler evictChatMemory puis {@link #remove}.
+ */
+public class SessionMemoryProvider implements ChatMemoryProvider {
+
+    private final Function<Object, ChatMemory> factory;
+    private final int maxSessions;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, ChatMemory> memories;
+    private final LongAdder evictions = new LongAdder();
+    private volatile Consumer<Object> evictionListener = id -> { };
+
+    /**
+     * @param factory     création de la mémoire d'une nouvelle session (reçoit l'id de session)
+     * @param maxSessions nombre maximum de sessions gardées
+     */
+    public SessionMemoryProvider(Function<Object, ChatMemory> factory, int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions doit être > 0 : " + maxSessions);
+        }
+        this.factory = factory;
+        this.maxSessions = maxSessions;
+        this.memories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, ChatMemory> eldest) {
+                if (size() > SessionMemoryProvider.this.maxSessions) {
+                    evictions.increment();
+                    notifyEviction(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public ChatMemory get(Object sessionId) {
+        lock.lock();
+        try {
+            return memories.computeIfAbsent(sessionId, factory);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Action appelée pour chaque session évincée par la borne LRU (ex : assistant::evictChatMemory).
+     * Elle s'exécute sur un thread virtuel : get est appelé pendant le computeIfAbsent du
+     * ChatMemoryService de l'AiService, qui ne doit pas être modifié avant la fin de ce calcul.
+     */
+    public void onEviction(Consumer<Object> listener) {
+        this.evictionListener = listener;
+    }
+
+    private void notifyEviction(Object sessionId) {
+        Consumer<Object> listener = evictionListener;
+        Thread.ofVirtual().name("session-eviction").start(() -> listener.accept(sessionId));
+    }
+
+    /** Oublie la conversation d'une session (côté provider seulement, voir la doc de la classe). */
+    public void remove(Object sessionId) {
+        lock.lock();
+        try {
+            memories.remove(sessionId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int sessions() {
+        lock.lock();
+        try {
+            return memories.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,227 @@
+package ma.emsi.dhissiayman.tp3.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mémoire de conversation bornée par un budget de tokens (estimé), et non par un nombre de messages.
+ *
+ * À chaque nouveau message :
+ *  1) le contexte RAG injecté dans les questions précédentes est retiré
+ *     (seule la question en cours a besoin de ses segments, une question
+ *     ayant reçu sa réponse n'en a plus besoin) ;
+ *  2) tant que l'historique dépasse maxTokens, le tour le plus ancien (question + réponse)
+ *     est oublié, ou résumé si un summarizer est configuré.
+ *
+ * Le nombre de tokens est estimé (≈ 4 caractères par token + quelques tokens par message),
+ * ce qui suffit pour borner la taille des prompts sans appeler le tokenizer de Gemini.
+ */
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    /** Séparateur placé par DefaultContentInjector entre la question et les segments récupérés. */
+    public static final String RAG_CONTEXT_MARKER = "\n\nAnswer using the following information:\n";
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int TOKENS_PER_MESSAGE = 4;
+    private static final int MAX_SUMMARY_CHARS = 1200;
+
+    private final Object id;
+    private final int maxTokens;
+    private final ChatModel summarizer;
+    private final PromptTokenMetrics metrics;
+
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private SystemMessage systemMessage;
+    private String summary;
+
+    private TokenBudgetChatMemory(Builder builder) {
+        this.id = builder.id;
+        this.maxTokens = builder.maxTokens;
+        this.summarizer = builder.summarizer;
+        this.metrics = builder.metrics;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Mémoire bornée à maxTokens, tours anciens oubliés (sans résumé). */
+    public static TokenBudgetChatMemory withMaxTokens(int maxTokens) {
+        return builder().maxTokens(maxTokens).build();
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        if (message instanceof SystemMessage system) {
+            systemMessage = system;
+            return;
+        }
+        stripOldContexts();
+        messages.add(message);
+        enforceBudget();
+        if (message instanceof UserMessage) {
+            // l'historique est maintenant exactement le prompt du tour qui commence
+            metrics.recordTurn(estimate(messages()));
+        }
+    }
+
+    @Override
+    public synchronized List<ChatMessage> messages() {
+        List<ChatMessage> all = new ArrayList<>(messages.size() + 2);
+        if (systemMessage != null) {
+            all.add(systemMessage);
+        }
+        if (summary != null) {
+            all.add(SystemMessage.from("Résumé du début de la conversation : " + summary));
+        }
+        all.addAll(messages);
+        return all;
+    }
+
+    @Override
+    public synchronized void clear() {
+        messages.clear();
+        systemMessage = null;
+        summary = null;
+    }
+
+    public PromptTokenMetrics metrics() {
+        return metrics;
+    }
+
+    /** Estimation du nombre de tokens d'une liste de messages. */
+    public static int estimate(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimate(message);
+        }
+        return tokens;
+    }
+
+    public static int estimate(ChatMessage message) {
+        return TOKENS_PER_MESSAGE + estimate(text(message));
+    }
+
+    /** Estimation du nombre de tokens d'un texte (même règle que pour les messages). */
+    public static int estimate(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    private void stripOldContexts() {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) instanceof UserMessage user && user.hasSingleText()) {
+                String text = user.singleText();
+                int marker = text.indexOf(RAG_CONTEXT_MARKER);
+                if (marker >= 0) {
+                    UserMessage stripped = UserMessage.from(text.substring(0, marker));
+                    metrics.recordStrippedContext(estimate(user) - estimate(stripped));
+                    messages.set(i, stripped);
+                }
+            }
+        }
+    }
+
+    private void enforceBudget() {
+        List<ChatMessage> dropped = new ArrayList<>();
+        while (estimate(messages()) > maxTokens && messages.size() > 1) {
+            // un tour = la question la plus ancienne + les réponses qui la suivent ;
+            // le dernier message (question en cours) n'est jamais retiré
+            int end = 1;
+            while (end < messages.size() - 1 && !(messages.get(end) instanceof UserMessage)) {
+                end++;
+            }
+            List<ChatMessage> turn = messages.subList(0, end);
+            dropped.addAll(turn);
+            turn.clear();
+        }
+        if (dropped.isEmpty()) {
+            return;
+        }
+        metrics.recordDropped(dropped.size());
+        if (summarizer != null) {
+            summarize(dropped);
+        }
+    }
+
+    private void summarize(List<ChatMessage> dropped) {
+        StringBuilder prompt = new StringBuilder(
+                "Résume en quelques phrases, en français, les informations utiles de cet échange "
+                        + "pour la suite de la conversation.\n");
+        if (summary != null) {
+            prompt.append("Résumé précédent : ").append(summary).append('\n');
+        }
+        for (ChatMessage message : dropped) {
+            prompt.append(message instanceof AiMessage ? "Assistant : " : "Utilisateur : ")
+                    .append(text(message)).append('\n');
+        }
+        String result = summarizer.chat(prompt.toString()).strip();
+        summary = result.length() > MAX_SUMMARY_CHARS ? result.substring(0, MAX_SUMMARY_CHARS) : result;
+        metrics.recordSummary();
+    }
+
+    private static String text(ChatMessage message) {
+        if (message instanceof UserMessage user) {
+            return user.hasSingleText() ? user.singleText() : "";
+        }
+        if (message instanceof AiMessage ai) {
+            return ai.text() == null ? "" : ai.text();
+        }
+        if (message instanceof SystemMessage system) {
+            return system.text();
+        }
+        return message.toString();
+    }
+
+    public static final class Builder {
+        private Object id = "default";
+        private int maxTokens = 2000;
+        private ChatModel summarizer;
+        private PromptTokenMetrics metrics = new PromptTokenMetrics();
+
+        private Builder() {
+        }
+
+        /** Identifiant de la mémoire (id de session pour un ChatMemoryProvider). */
+        public Builder id(Object id) {
+            this.id = id;
+            return this;
+        }
+
+        /** Budget (tokens estimés) de l'historique envoyé au LLM. */
+        public Builder maxTokens(int maxTokens) {
+            if (maxTokens <= 0) {
+                throw new IllegalArgumentException("maxTokens doit être > 0 : " + maxTokens);
+            }
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /** LLM qui résume les tours oubliés (null = tours simplement oubliés, sans appel supplémentaire). */
+        public Builder summarizer(ChatModel summarizer) {
+            this.summarizer = summarizer;
+            return this;
+        }
+
+        /** Compteurs partagés (par exemple entre toutes les sessions d'un serveur). */
+        public Builder metrics(PromptTokenMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public TokenBudgetChatMemory build() {
+            return new TokenBudgetChatMemory(this);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ma.emsi.dhissiayman.tp3.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de latences à seaux log-linéaires (même découpage qu'HdrHistogram), de 1 µs à ~19 h :
+ *  - en dessous de 64 µs, un seau par microseconde
+ *  - au-delà, chaque puissance de 2 est découpée en 32 seaux de même largeur,
+ *    soit une largeur de seau ≤ 1/32 (≈ 3 %) de la valeur
+ *
+ * Enregistrement sans verrou (un compteur atomique par seau) : utilisable sur les chemins chauds.
+ * Les percentiles sont interpolés linéairement dans le seau qui les contient : l'erreur reste
+ * inférieure à la largeur du seau (≈ 3 %).
+ */
+public final class LatencyHistogram {
+
+    /** Seaux exportés au format Prometheus (bornes hautes, en microsecondes ; puis "+Inf"). */
+    static final long[] BOUNDS_MICROS = {
+            50, 100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000
+    };
+
+    /** 2^SUB_BITS seaux par puissance de 2. */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** Valeurs comptées à la microseconde près (seaux de largeur 1). */
+    private static final int LINEAR = 2 * SUB_COUNT;
+    /** Plus grande puissance de 2 couverte : au-delà de 2^36 µs, tout va dans le dernier seau. */
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(index(Math.max(0, nanos / 1_000)));
+        count.increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /** Remet l'histogramme à zéro (à appeler quand aucun enregistrement n'est en cours). */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sumNanos.reset();
+        maxNanos.reset();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public double meanMillis() {
+        long n = count();
+        return n == 0 ? 0 : sumNanos() / 1e6 / n;
+    }
+
+    /**
+     * Nombre d'enregistrements ≤ micros (à un seau près, ≈ 3 %), pour l'export Prometheus.
+     */
+    public long cumulativeCount(long micros) {
+        int last = index(micros);
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Percentile (ms), interpolé dans le seau contenant le p-ième enregistrement
+     * et plafonné par la latence max observée.
+     *
+     * @param p fraction entre 0 et 1 (0.95 pour le p95)
+     */
+    public double percentileMillis(double p) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double max = maxNanos() / 1e6;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (seen + counts[i] >= rank) {
+                double lower = lowerBound(i);
+                double width = lowerBound(i + 1) - lower;
+                double micros = lower + width * (rank - seen) / counts[i];
+                return Math.min(micros / 1e3, max);
+            }
+            seen += counts[i];
+        }
+        return max;
+    }
+
+    /** Seau d'une valeur en microsecondes. */
+    static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (micros >>> shift) - SUB_COUNT;
+        return LINEAR + (shift - 1) * SUB_COUNT + sub;
+    }
+
+    /** Plus petite valeur (µs) du seau i ; lowerBound(i + 1) est la borne haute exclue. */
+    static long lowerBound(int i) {
+        if (i < LINEAR) {
+            return i;
+        }
+        int shift = (i - LINEAR) / SUB_COUNT + 1;
+        long top = SUB_COUNT + (i - LINEAR) % SUB_COUNT;
+        return top << shift;
+    }
+}
@@ -0,0 +1,48 @@
+package ma.emsi.dhissiayman.tp3.metrics;
+
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.output.TokenUsage;
+
+/**
+ * ChatModelListener qui mesure chaque appel au LLM (latence, tokens en entrée / sortie, erreurs)
+ * dans {@link StageMetrics}. Fonctionne pour les modèles bloquants et streaming.
+ */
+public class MetricsChatModelListener implements ChatModelListener {
+
+    private static final String START = "metrics.start";
+
+    private final StageMetrics metrics;
+
+    public MetricsChatModelListener() {
+        this(StageMetrics.global());
+    }
+
+    public MetricsChatModelListener(StageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void onRequest(ChatModelRequestContext context) {
+        context.attributes().put(START, System.nanoTime());
+    }
+
+    @Override
+    public void onResponse(ChatModelResponseContext context) {
+        TokenUsage usage = context.chatResponse().tokenUsage();
+        metrics.recordLlmCall(elapsed(context.attributes().get(START)),
+                usage == null ? null : usage.inputTokenCount(),
+                usage == null ? null : usage.outputTokenCount());
+    }
+
+    @Override
+    public void onError(ChatModelErrorContext context) {
+        metrics.recordLlmError(elapsed(context.attributes().get(START)));
+    }
+
+    private static long elapsed(Object start) {
+        return start instanceof Long nanos ? System.nanoTime() - nanos : 0;
+    }
+}
@@ -0,0 +1,63 @@
+package ma.emsi.dhissiayman.tp3.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Endpoint HTTP local /metrics (format texte Prometheus) pour {@link StageMetrics}.
+ */
+public final class MetricsEndpoint implements HttpHandler {
+
+    private final StageMetrics metrics;
+
+    public MetricsEndpoint(StageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Démarre un petit serveur dédié sur localhost:port (utilisé par les mains console).
+     */
+    public static HttpServer start(StageMetrics metrics, int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", new MetricsEndpoint(metrics));
+            server.start();
+            System.out.println("Métriques : http://localhost:" + server.getAddress().getPort() + "/metrics");
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Démarrage de l'endpoint /metrics impossible sur le port " + port, e);
+        }
+    }
+
+    /**
+     * JMX toujours, et /metrics si la propriété système rag.metrics.port est définie.
+     */
+    public static void exposeFromSystemProperties(StageMetrics metrics) {
+        metrics.registerMBeans();
+        Integer port = Integer.getInteger("rag.metrics.port");
+        if (port != null) {
+            HttpServer server = start(metrics, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(0)));
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
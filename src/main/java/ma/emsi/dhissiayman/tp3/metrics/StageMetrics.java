@@ -0,0 +1,253 @@
+package ma.emsi.dhissiayman.tp3.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Métriques par étape du pipeline RAG : un histogramme de latence par étape,
+ * et les compteurs de tokens / appels du LLM.
+ *
+ * Remplace le logging FINE (corps HTTP complets écrits en synchrone) : l'enregistrement
+ * ne coûte que quelques incréments de compteurs. Lecture :
+ *  - JMX : ma.emsi.rag:type=Stage,name=parse|split|... et ma.emsi.rag:type=Llm (jconsole, VisualVM)
+ *  - texte au format Prometheus : {@link #scrape()}, servi sur /metrics par {@link MetricsEndpoint}
+ *
+ * Une instance globale ({@link #global()}) est partagée par tout le projet.
+ */
+public final class StageMetrics {
+
+    /** Étapes mesurées. */
+    public enum Stage {
+        PARSE, SPLIT, DEDUP, EMBED, QUERY_EMBED, STORE_SEARCH, LEXICAL_SEARCH, ROUTING, WEB_SEARCH, LLM_CALL;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final StageMetrics GLOBAL = new StageMetrics();
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final LongAdder llmCalls = new LongAdder();
+    private final LongAdder llmErrors = new LongAdder();
+    private final LongAdder inputTokens = new LongAdder();
+    private final LongAdder outputTokens = new LongAdder();
+
+    public StageMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public static StageMetrics global() {
+        return GLOBAL;
+    }
+
+    /** Enregistre la durée écoulée depuis startNanos (valeur de System.nanoTime()). */
+    public void record(Stage stage, long startNanos) {
+        histograms.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /** Exécute action et enregistre sa durée (même si elle échoue). */
+    public <T> T time(Stage stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(stage, start);
+        }
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    void recordLlmCall(long nanos, Integer input, Integer output) {
+        histograms.get(Stage.LLM_CALL).record(nanos);
+        llmCalls.increment();
+        if (input != null) {
+            inputTokens.add(input);
+        }
+        if (output != null) {
+            outputTokens.add(output);
+        }
+    }
+
+    void recordLlmError(long nanos) {
+        histograms.get(Stage.LLM_CALL).record(nanos);
+        llmErrors.increment();
+    }
+
+    /**
+     * Remet toutes les métriques à zéro, par exemple à la fin du préchauffage d'un test de charge
+     * (à appeler quand aucune requête n'est en cours).
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        llmCalls.reset();
+        llmErrors.reset();
+        inputTokens.reset();
+        outputTokens.reset();
+    }
+
+    public long inputTokens() {
+        return inputTokens.sum();
+    }
+
+    public long outputTokens() {
+        return outputTokens.sum();
+    }
+
+    /**
+     * Enregistre les MBeans (une fois par JVM ; sans effet si déjà fait).
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Stage stage : Stage.values()) {
+                register(server, new ObjectName("ma.emsi.rag:type=Stage,name=" + stage.label()),
+                        new StageView(histograms.get(stage)));
+            }
+            register(server, new ObjectName("ma.emsi.rag:type=Llm"), new LlmView());
+        } catch (JMException e) {
+            throw new IllegalStateException("Enregistrement JMX des métriques impossible", e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        try {
+            server.registerMBean(mbean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            // déjà enregistré (plusieurs mains dans la même JVM)
+        }
+    }
+
+    /**
+     * Toutes les métriques au format texte Prometheus.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP rag_stage_latency_seconds Latence des étapes du pipeline RAG\n");
+        sb.append("# TYPE rag_stage_latency_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms.get(stage);
+            for (long bound : LatencyHistogram.BOUNDS_MICROS) {
+                sb.append("rag_stage_latency_seconds_bucket{stage=\"").append(stage.label())
+                        .append("\",le=\"").append(bound / 1e6).append("\"} ")
+                        .append(histogram.cumulativeCount(bound)).append('\n');
+            }
+            sb.append("rag_stage_latency_seconds_bucket{stage=\"").append(stage.label())
+                    .append("\",le=\"+Inf\"} ").append(histogram.count()).append('\n');
+            sb.append("rag_stage_latency_seconds_sum{stage=\"").append(stage.label()).append("\"} ")
+                    .append(histogram.sumNanos() / 1e9).append('\n');
+            sb.append("rag_stage_latency_seconds_count{stage=\"").append(stage.label()).append("\"} ")
+                    .append(histogram.count()).append('\n');
+        }
+        sb.append("# TYPE rag_llm_calls_total counter\n");
+        sb.append("rag_llm_calls_total ").append(llmCalls.sum()).append('\n');
+        sb.append("# TYPE rag_llm_errors_total counter\n");
+        sb.append("rag_llm_errors_total ").append(llmErrors.sum()).append('\n');
+        sb.append("# TYPE rag_llm_tokens_total counter\n");
+        sb.append("rag_llm_tokens_total{type=\"input\"} ").append(inputTokens.sum()).append('\n');
+        sb.append("rag_llm_tokens_total{type=\"output\"} ").append(outputTokens.sum()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Résumé lisible des étapes déjà mesurées (fin des mains).
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder("étapes :");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = histograms.get(stage);
+            if (h.count() > 0) {
+                sb.append(String.format(Locale.ROOT, "%n  %-13s n = %-6d moy = %.2f ms, p50 ≈ %.2f ms, p95 ≈ %.2f ms, p99 ≈ %.2f ms",
+                        stage.label(), h.count(), h.meanMillis(),
+                        h.percentileMillis(0.50), h.percentileMillis(0.95), h.percentileMillis(0.99)));
+            }
+        }
+        sb.append(String.format("%n  LLM : %d appels, %d erreurs, %d tokens en entrée, %d en sortie",
+                llmCalls.sum(), llmErrors.sum(), inputTokens.sum(), outputTokens.sum()));
+        return sb.toString();
+    }
+
+    /** Vue JMX d'une étape. */
+    public interface StageMXBean {
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+    }
+
+    /** Vue JMX des appels au LLM. */
+    public interface LlmMXBean {
+        long getCalls();
+
+        long getErrors();
+
+        long getInputTokens();
+
+        long getOutputTokens();
+    }
+
+    private record StageView(LatencyHistogram histogram) implements StageMXBean {
+        public long getCount() {
+            return histogram.count();
+        }
+
+        public double getMeanMillis() {
+            return histogram.meanMillis();
+        }
+
+        public double getP50Millis() {
+            return histogram.percentileMillis(0.50);
+        }
+
+        public double getP95Millis() {
+            return histogram.percentileMillis(0.95);
+        }
+
+        public double getP99Millis() {
+            return histogram.percentileMillis(0.99);
+        }
+
+        public double getMaxMillis() {
+            return histogram.maxNanos() / 1e6;
+        }
+    }
+
+    private final class LlmView implements LlmMXBean {
+        public long getCalls() {
+            return llmCalls.sum();
+        }
+
+        public long getErrors() {
+            return llmErrors.sum();
+        }
+
+        public long getInputTokens() {
+            return inputTokens.sum();
+        }
+
+        public long getOutputTokens() {
+            return outputTokens.sum();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package ma.emsi.dhissiayman.tp3.retrieval;
+
+import dev.langchain4j.data.segment.TextSegment;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index lexical (inversé) en mémoire sur les mêmes TextSegment que le store vectoriel,
+ * avec un score BM25 (k1 = 1.2, b = 0.75).
+ *
+ * Sert les questions à mots-clés (noms d'API exacts : "AiServices", "EmbeddingStoreIngestor"...)
+ * que la recherche par embeddings classe mal, sans appel au modèle ONNX : une recherche ne
+ * parcourt que les listes de postings des termes de la requête.
+ *
+ * Termes : mots sans accents, en minuscules, découpés sur tout ce qui n'est pas lettre, chiffre
+ * ou '_' ; les mots vides français / anglais sont ignorés. Immuable, donc thread-safe.
+ */
+public final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}_]+");
+
+    /**
+     * Termes "de code", de vrais identifiants seulement : camelCase / PascalCase (AiServices),
+     * noms qualifiés dont chaque partie après un point commence par une lettre et compte au moins
+     * deux caractères (dev.langchain4j, mais ni "2.5" ni "e.g."), snake_case et appels de méthode (build()).
+     * Le texte entre guillemets n'en fait pas partie : c'est souvent une citation en langage naturel.
+     */
+    private static final Pattern CODE_TERM = Pattern.compile(
+            "(?<![\\w.])(\\p{L}\\w*(?:\\.\\p{L}\\w+)+|\\p{L}\\w*_\\w+|\\p{L}\\w*\\(\\)|\\w*\\p{Ll}\\p{Lu}\\w*)");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "le", "la", "les", "un", "une", "des", "de", "du", "et", "ou", "en", "au", "aux", "ce", "ces",
+            "est", "sont", "que", "qui", "quoi", "dans", "pour", "par", "sur", "avec", "sans", "se", "sa",
+            "son", "ses", "il", "elle", "on", "ne", "pas", "plus", "comment", "quel", "quelle", "quels",
+            "quelles", "a", "l", "d", "c", "qu", "n", "s", "j", "t", "m",
+            "the", "an", "of", "to", "and", "or", "in", "for", "with", "is", "are", "be", "it",
+            "this", "that", "what", "how", "as", "by", "at", "from");
+
+    private final List<TextSegment> segments;
+    private final Map<String, Postings> postings;
+    private final int[] lengths;
+    private final double averageLength;
+
+    private Bm25Index(List<TextSegment> segments) {
+        this.segments = List.copyOf(segments);
+        this.lengths = new int[this.segments.size()];
+        this.postings = new HashMap<>();
+        long total = 0;
+        for (int doc = 0; doc < this.segments.size(); doc++) {
+            List<String> terms = terms(this.segments.get(doc).text());
+            lengths[doc] = terms.size();
+            total += terms.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String term : terms) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), t -> new Postings()).add(doc, entry.getValue());
+            }
+        }
+        this.averageLength = this.segments.isEmpty() ? 0 : (double) total / this.segments.size();
+    }
+
+    /**
+     * Index construit sur les segments donnés (en général : EmbeddingIndex.segments()).
+     */
+    public static Bm25Index of(List<TextSegment> segments) {
+        return new Bm25Index(segments);
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    /** Nombre de termes distincts. */
+    public int vocabularySize() {
+        return postings.size();
+    }
+
+    /**
+     * Les maxResults segments de meilleur score BM25 (score > 0), du meilleur au moins bon.
+     */
+    public List<Hit> search(String query, int maxResults) {
+        long start = System.nanoTime();
+        try {
+            return doSearch(query, maxResults);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.LEXICAL_SEARCH, start);
+        }
+    }
+
+    private List<Hit> doSearch(String query, int maxResults) {
+        double[] scores = new double[segments.size()];
+        int[] touched = new int[segments.size()];
+        int touchedCount = 0;
+        int n = segments.size();
+
+        for (String term : new LinkedHashSet<>(terms(query))) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (n - list.size + 0.5) / (list.size + 0.5));
+            for (int i = 0; i < list.size; i++) {
+                int doc = list.docs[i];
+                int tf = list.frequencies[i];
+                double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                if (scores[doc] == 0) {
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        Integer[] candidates = new Integer[touchedCount];
+        for (int i = 0; i < touchedCount; i++) {
+            candidates[i] = touched[i];
+        }
+        Arrays.sort(candidates, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        List<Hit> hits = new ArrayList<>(Math.min(maxResults, touchedCount));
+        for (int i = 0; i < Math.min(maxResults, touchedCount); i++) {
+            int doc = candidates[i];
+            hits.add(new Hit(doc, segments.get(doc), scores[doc]));
+        }
+        return hits;
+    }
+
+    /**
+     * Vrai si la requête est une recherche par mots-clés que l'index lexical sait servir seul :
+     * elle est faite surtout d'identifiants (au moins la moitié de ses termes viennent de termes
+     * "de code") et tous ces termes figurent dans l'index. Une question en langage naturel qui cite
+     * un nom d'API au passage ("Comment configurer la mémoire d'un assistant AiServices ?") renvoie faux.
+     */
+    public boolean isKeywordLookup(String query) {
+        List<String> codeTerms = codeTerms(query);
+        if (codeTerms.isEmpty()) {
+            return false;
+        }
+        int identifierTerms = 0;
+        for (String codeTerm : codeTerms) {
+            List<String> terms = terms(codeTerm);
+            if (terms.isEmpty()) {
+                return false;
+            }
+            for (String term : terms) {
+                if (!postings.containsKey(term)) {
+                    return false;
+                }
+            }
+            identifierTerms += terms.size();
+        }
+        return 2 * identifierTerms >= terms(query).size();
+    }
+
+    static List<String> codeTerms(String query) {
+        List<String> codeTerms = new ArrayList<>();
+        Matcher matcher = CODE_TERM.matcher(query);
+        while (matcher.find()) {
+            codeTerms.add(matcher.group(1));
+        }
+        return codeTerms;
+    }
+
+    /** Termes indexés d'un texte, dans l'ordre (avec répétitions). */
+    static List<String> terms(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        List<String> terms = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalized)) {
+            if (!token.isEmpty() && !STOP_WORDS.contains(token)) {
+                terms.add(token);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Un segment trouvé : position dans la liste d'origine, segment et score BM25.
+     */
+    public record Hit(int index, TextSegment segment, double score) {
+    }
+
+    /** Liste de postings d'un terme : documents (croissants) et fréquences du terme. */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package ma.emsi.dhissiayman.tp3.retrieval;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * ContentAggregator qui compresse le contexte récupéré avant l'appel au LLM
+ * (remplace DefaultContentAggregator dans DefaultRetrievalAugmentor).
+ *
+ * Étapes, sur les contenus de toutes les sources :
+ *  1) coupure sur l'écart de score : dans chaque liste, un contenu dont le score est inférieur
+ *     à minRelativeScore × score du premier est écarté (le nombre de résultats s'adapte aux scores :
+ *     les retrievers peuvent demander plus de résultats sans tout envoyer)
+ *  2) chevauchements : le recursive splitter répète ~50 tokens entre segments voisins ; la partie
+ *     déjà présente dans un contenu gardé est retirée, un contenu entièrement inclus est écarté
+ *  3) phrases : chaque contenu est réduit à ses maxSentences phrases les plus proches de la
+ *     requête (termes en commun), dans l'ordre d'origine
+ *  4) budget : les contenus sont pris rang par rang (le 1er de chaque source, puis le 2e...)
+ *     jusqu'à maxTokens tokens estimés ; le dernier est tronqué à la phrase près s'il dépasse
+ *
+ * Les contenus sans ContentMetadata.SCORE (recherche Web, fusion RRF de {@link HybridContentRetriever})
+ * ne passent que par les étapes 2 à 4 : seul un score cosinus se prête à la coupure relative.
+ * Thread-safe : aucun état en dehors des compteurs.
+ */
+public final class BudgetedContentAggregator implements ContentAggregator {
+
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?…])\\s+|\\s*\\n+\\s*");
+
+    /** En dessous de ce reste de budget (tokens), le contenu suivant n'est pas tronqué mais écarté. */
+    private static final int MIN_TRUNCATED_TOKENS = 30;
+
+    private final int maxTokens;
+    private final int maxSentences;
+    private final double minRelativeScore;
+    private final int minOverlapChars;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder contentsIn = new LongAdder();
+    private final LongAdder contentsOut = new LongAdder();
+    private final LongAdder tokensIn = new LongAdder();
+    private final LongAdder tokensOut = new LongAdder();
+    private final LongAdder scoreCuts = new LongAdder();
+    private final LongAdder overlaps = new LongAdder();
+    private final LongAdder budgetCuts = new LongAdder();
+
+    private BudgetedContentAggregator(Builder builder) {
+        this.maxTokens = builder.maxTokens;
+        this.maxSentences = builder.maxSentences;
+        this.minRelativeScore = builder.minRelativeScore;
+        this.minOverlapChars = builder.minOverlapChars;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Agrégateur réglé par les propriétés système rag.context.maxTokens (défaut 800)
+     * et rag.context.maxSentences (défaut 4).
+     */
+    public static BudgetedContentAggregator fromSystemProperties() {
+        return builder()
+                .maxTokens(Integer.getInteger("rag.context.maxTokens", 800))
+                .maxSentences(Integer.getInteger("rag.context.maxSentences", 4))
+                .build();
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        calls.increment();
+        Set<String> queryTerms = new HashSet<>();
+        List<List<Content>> lists = new ArrayList<>();
+        for (Map.Entry<Query, Collection<List<Content>>> entry : queryToContents.entrySet()) {
+            queryTerms.addAll(Bm25Index.terms(entry.getKey().text()));
+            for (List<Content> contents : entry.getValue()) {
+                contentsIn.add(contents.size());
+                for (Content content : contents) {
+                    tokensIn.add(TokenBudgetChatMemory.estimate(content.textSegment().text()));
+                }
+                lists.add(cutOnScoreGap(contents));
+            }
+        }
+
+        List<String> keptTexts = new ArrayList<>();
+        List<Content> result = new ArrayList<>();
+        int budget = maxTokens;
+        int longest = lists.stream().mapToInt(List::size).max().orElse(0);
+        for (int rank = 0; rank < longest; rank++) {
+            for (List<Content> contents : lists) {
+                if (rank >= contents.size()) {
+                    continue;
+                }
+                Content content = contents.get(rank);
+                if (budget < MIN_TRUNCATED_TOKENS) {
+                    budgetCuts.increment();
+                    continue;
+                }
+                String text = removeOverlaps(content.textSegment().text(), keptTexts);
+                if (text.isBlank()) {
+                    continue;
+                }
+                keptTexts.add(content.textSegment().text());
+                text = fitToBudget(mostRelevantSentences(text, queryTerms), budget);
+                budget -= TokenBudgetChatMemory.estimate(text);
+                result.add(Content.from(TextSegment.from(text, content.textSegment().metadata()), content.metadata()));
+            }
+        }
+
+        contentsOut.add(result.size());
+        tokensOut.add(maxTokens - budget);
+        return result;
+    }
+
+    public Stats stats() {
+        return new Stats(calls.sum(), contentsIn.sum(), contentsOut.sum(), tokensIn.sum(), tokensOut.sum(),
+                scoreCuts.sum(), overlaps.sum(), budgetCuts.sum());
+    }
+
+    // ----- 1) écart de score -----
+
+    private List<Content> cutOnScoreGap(List<Content> contents) {
+        if (contents.isEmpty() || !(contents.get(0).metadata().get(ContentMetadata.SCORE) instanceof Number top)) {
+            return contents;
+        }
+        double threshold = top.doubleValue() * minRelativeScore;
+        List<Content> kept = new ArrayList<>(contents.size());
+        for (Content content : contents) {
+            if (content.metadata().get(ContentMetadata.SCORE) instanceof Number score && score.doubleValue() < threshold) {
+                scoreCuts.increment();
+            } else {
+                kept.add(content);
+            }
+        }
+        return kept;
+    }
+
+    // ----- 2) chevauchements -----
+
+    /**
+     * Retire du texte les parties déjà présentes au début ou à la fin d'un texte gardé
+     * (chevauchement du splitter) ; chaîne vide si le texte est entièrement inclus dans l'un d'eux.
+     */
+    private String removeOverlaps(String text, List<String> keptTexts) {
+        String remaining = text;
+        for (String kept : keptTexts) {
+            if (kept.contains(remaining.strip())) {
+                overlaps.increment();
+                return "";
+            }
+            int head = overlap(kept, remaining);
+            if (head >= minOverlapChars) {
+                overlaps.increment();
+                remaining = remaining.substring(head);
+            }
+            int tail = overlap(remaining, kept);
+            if (tail >= minOverlapChars) {
+                overlaps.increment();
+                remaining = remaining.substring(0, remaining.length() - tail);
+            }
+        }
+        return remaining.strip();
+    }
+
+    /** Longueur du plus long suffixe de first qui est aussi un préfixe de second. */
+    static int overlap(String first, String second) {
+        if (second.isEmpty()) {
+            return 0;
+        }
+        String probe = second.substring(0, Math.min(second.length(), 16));
+        int from = Math.max(0, first.length() - second.length());
+        for (int start = first.indexOf(probe, from); start >= 0; start = first.indexOf(probe, start + 1)) {
+            int length = first.length() - start;
+            if (second.startsWith(first.substring(start))) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    // ----- 3) phrases les plus pertinentes -----
+
+    private String mostRelevantSentences(String text, Set<String> queryTerms) {
+        String[] sentences = SENTENCE_END.split(text.strip());
+        if (sentences.length <= maxSentences) {
+            return text.strip();
+        }
+        int[] scores = new int[sentences.length];
+        List<Integer> order = new ArrayList<>(sentences.length);
+        for (int i = 0; i < sentences.length; i++) {
+            for (String term : new HashSet<>(Bm25Index.terms(sentences[i]))) {
+                if (queryTerms.contains(term)) {
+                    scores[i]++;
+                }
+            }
+            order.add(i);
+        }
+        // meilleur score d'abord, puis ordre d'origine (sans terme commun : les premières phrases)
+        order.sort(Comparator.<Integer>comparingInt(i -> -scores[i]).thenComparingInt(i -> i));
+        List<Integer> chosen = new ArrayList<>(order.subList(0, maxSentences));
+        chosen.sort(null);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i : chosen) {
+            if (!sb.isEmpty()) {
+                sb.append(' ');
+            }
+            sb.append(sentences[i]);
+        }
+        return sb.toString();
+    }
+
+    // ----- 4) budget -----
+
+    /** Texte tronqué pour tenir dans budget tokens : à la dernière phrase complète, sinon au caractère. */
+    private String fitToBudget(String text, int budget) {
+        if (TokenBudgetChatMemory.estimate(text) <= budget) {
+            return text;
+        }
+        budgetCuts.increment();
+        String[] sentences = SENTENCE_END.split(text);
+        StringBuilder sb = new StringBuilder();
+        for (String sentence : sentences) {
+            String candidate = sb.isEmpty() ? sentence : sb + " " + sentence;
+            if (TokenBudgetChatMemory.estimate(candidate) > budget) {
+                break;
+            }
+            sb.setLength(0);
+            sb.append(candidate);
+        }
+        if (sb.isEmpty()) {
+            // une seule phrase trop longue : coupée au dernier espace avant la limite du budget
+            int limit = (int) ((long) text.length() * (budget - 1) / TokenBudgetChatMemory.estimate(text));
+            int space = text.lastIndexOf(' ', limit);
+            sb.append(text, 0, space > 0 ? space : limit).append('…');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Contenus et tokens (estimés) avant / après compression, et raison des coupures.
+     */
+    public record Stats(long calls, long contentsIn, long contentsOut, long tokensIn, long tokensOut,
+                        long scoreCuts, long overlaps, long budgetCuts) {
+
+        @Override
+        public String toString() {
+            return String.format("contexte RAG : %d requêtes, %d contenus → %d, ≈ %d tokens → %d (-%.0f %%) ;"
+                            + " coupures : %d écart de score, %d chevauchements, %d budget",
+                    calls, contentsIn, contentsOut, tokensIn, tokensOut,
+                    tokensIn == 0 ? 0.0 : 100.0 * (tokensIn - tokensOut) / tokensIn,
+                    scoreCuts, overlaps, budgetCuts);
+        }
+    }
+
+    public static final class Builder {
+        private int maxTokens = 800;
+        private int maxSentences = 4;
+        private double minRelativeScore = 0.85;
+        private int minOverlapChars = 30;
+
+        private Builder() {
+        }
+
+        /** Budget (tokens estimés) de tout le contexte injecté dans le prompt. */
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = positive(maxTokens, "maxTokens");
+            return this;
+        }
+
+        /** Nombre maximum de phrases gardées par contenu. */
+        public Builder maxSentences(int maxSentences) {
+            this.maxSentences = positive(maxSentences, "maxSentences");
+            return this;
+        }
+
+        /** Score minimum d'un contenu, relatif au meilleur de sa liste (0..1). */
+        public Builder minRelativeScore(double minRelativeScore) {
+            if (minRelativeScore < 0 || minRelativeScore > 1) {
+                throw new IllegalArgumentException("minRelativeScore doit être dans [0, 1] : " + minRelativeScore);
+            }
+            this.minRelativeScore = minRelativeScore;
+            return this;
+        }
+
+        /** Taille minimum (caractères) d'un chevauchement retiré. */
+        public Builder minOverlapChars(int minOverlapChars) {
+            this.minOverlapChars = positive(minOverlapChars, "minOverlapChars");
+            return this;
+        }
+
+        public BudgetedContentAggregator build() {
+            return new BudgetedContentAggregator(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package ma.emsi.dhissiayman.tp3.retrieval;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ContentRetriever qui borne le temps d'attente d'une source.
+ *
+ * L'appel au retriever délégué s'exécute sur un thread virtuel :
+ *  - s'il répond avant {@code deadline}, ses contenus sont renvoyés
+ *  - sinon la source est abandonnée (liste vide) et la réponse est construite sans elle
+ *  - une erreur de la source donne aussi une liste vide, pour ne pas bloquer la réponse
+ *
+ * Démarrage à froid : tant que la source n'a pas encore répondu une première fois
+ * (modèle ONNX, JIT et store pas encore chauds), le délai {@code coldDeadline} s'applique
+ * à la place de {@code deadline}, pour ne pas abandonner la toute première requête.
+ *
+ * Requête "hedgée" (optionnelle) : si la source n'a pas répondu après {@code hedgeAfter},
+ * un second appel identique est lancé et la première réponse arrivée est gardée.
+ * Utile pour les sources à latence très variable (recherche Web).
+ *
+ * Combiné avec l'executor de DefaultRetrievalAugmentor, toutes les sources
+ * routées sont interrogées en parallèle et la latence de l'étape est celle de la
+ * plus lente, plafonnée par son deadline.
+ */
+public final class DeadlineContentRetriever implements ContentRetriever {
+
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final ContentRetriever delegate;
+    private final String name;
+    private final long deadlineNanos;
+    private final long coldDeadlineNanos;
+    private final long hedgeAfterNanos;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    // dernières latences (ms), en anneau ; un abandon compte pour la valeur du deadline
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private volatile boolean warm;
+
+    private DeadlineContentRetriever(Builder builder) {
+        if (builder.delegate == null) {
+            throw new IllegalArgumentException("delegate est obligatoire");
+        }
+        if (builder.hedgeAfter != null && builder.hedgeAfter.compareTo(builder.deadline) >= 0) {
+            throw new IllegalArgumentException("hedgeAfter doit être inférieur au deadline : "
+                    + builder.hedgeAfter + " >= " + builder.deadline);
+        }
+        this.delegate = builder.delegate;
+        this.name = builder.name;
+        this.deadlineNanos = builder.deadline.toNanos();
+        this.coldDeadlineNanos = builder.coldDeadline == null
+                ? deadlineNanos : Math.max(deadlineNanos, builder.coldDeadline.toNanos());
+        this.hedgeAfterNanos = builder.hedgeAfter == null ? -1 : builder.hedgeAfter.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        calls.increment();
+        long start = System.nanoTime();
+        CompletableFuture<List<Content>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        List<Thread> attempts = new ArrayList<>(2);
+        attempts.add(launch(query, result, pending, false));
+        long deadline = warm ? deadlineNanos : coldDeadlineNanos;
+
+        try {
+            List<Content> contents;
+            if (hedgeAfterNanos < 0) {
+                contents = result.get(deadline, TimeUnit.NANOSECONDS);
+            } else {
+                try {
+                    contents = result.get(hedgeAfterNanos, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    hedges.increment();
+                    pending.incrementAndGet();
+                    attempts.add(launch(query, result, pending, true));
+                    contents = result.get(deadline - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+                }
+            }
+            warm = true;
+            recordLatency((System.nanoTime() - start) / 1_000_000);
+            return contents;
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            // sans cela, les percentiles ne porteraient que sur les appels rapides
+            recordLatency(deadline / 1_000_000);
+            System.out.println("[Retriever] " + name + " : abandonné après "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return List.of();
+        } catch (ExecutionException e) {
+            errors.increment();
+            System.out.println("[Retriever] " + name + " : erreur ignorée (" + e.getCause() + ")");
+            return List.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        } finally {
+            // les appels encore en cours ne servent plus à rien
+            attempts.forEach(Thread::interrupt);
+        }
+    }
+
+    public Stats stats() {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sorted);
+        return new Stats(name, calls.sum(), timeouts.sum(), errors.sum(), hedges.sum(), hedgeWins.sum(),
+                percentile(sorted, 0.50), percentile(sorted, 0.95), sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+    }
+
+    private Thread launch(Query query, CompletableFuture<List<Content>> result, AtomicInteger pending, boolean hedge) {
+        return Thread.ofVirtual().name("retriever-" + name).start(() -> {
+            try {
+                List<Content> contents = delegate.retrieve(query);
+                if (result.complete(contents) && hedge) {
+                    hedgeWins.increment();
+                }
+            } catch (Throwable t) {
+                // échec seulement si aucun autre appel n'est encore en cours
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(t);
+                }
+            }
+        });
+    }
+
+    private void recordLatency(long millis) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_SAMPLES] = millis;
+            latencyCount++;
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /**
+     * Compteurs d'une source et latences (ms) de ses derniers appels (abandons comptés au deadline).
+     */
+    public record Stats(String name, long calls, long timeouts, long errors, long hedges, long hedgeWins,
+                        long p50Millis, long p95Millis, long maxMillis) {
+
+        @Override
+        public String toString() {
+            return String.format("source %s : %d appels, %d abandons, %d erreurs, %d requêtes hedgées (%d gagnantes),"
+                            + " latence p50 = %d ms, p95 = %d ms, max = %d ms",
+                    name, calls, timeouts, errors, hedges, hedgeWins, p50Millis, p95Millis, maxMillis);
+        }
+    }
+
+    public static final class Builder {
+        private ContentRetriever delegate;
+        private String name = "source";
+        private Duration deadline = Duration.ofSeconds(2);
+        private Duration coldDeadline;
+        private Duration hedgeAfter;
+
+        private Builder() {
+        }
+
+        /** Retriever dont les appels sont bornés (obligatoire). */
+        public Builder delegate(ContentRetriever delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /** Nom de la source dans les logs et les statistiques. */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /** Temps d'attente maximum avant d'abandonner la source. */
+        public Builder deadline(Duration deadline) {
+            if (deadline.isNegative() || deadline.isZero()) {
+                throw new IllegalArgumentException("deadline doit être > 0 : " + deadline);
+            }
+            this.deadline = deadline;
+            return this;
+        }
+
+        /** Temps d'attente tant que la source n'a jamais répondu (null = deadline). */
+        public Builder coldDeadline(Duration coldDeadline) {
+            if (coldDeadline != null && (coldDeadline.isNegative() || coldDeadline.isZero())) {
+                throw new IllegalArgumentException("coldDeadline doit être > 0 : " + coldDeadline);
+            }
+            this.coldDeadline = coldDeadline;
+            return this;
+        }
+
+        /** Délai après lequel un second appel est lancé (null = pas de hedging). */
+        public Builder hedgeAfter(Duration hedgeAfter) {
+            this.hedgeAfter = hedgeAfter;
+            return this;
+        }
+
+        public DeadlineContentRetriever build() {
+            return new DeadlineContentRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package ma.emsi.dhissiayman.tp3.retrieval;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ContentRetriever hybride : recherche lexicale BM25 ({@link Bm25Index}) + recherche vectorielle,
+ * fusionnées par Reciprocal Rank Fusion (RRF).
+ *
+ * Pour chaque requête :
+ *  - recherche par mots-clés (question faite surtout de noms d'API présents dans l'index, voir {@link Bm25Index#isKeywordLookup})
+ *    → seuls les résultats BM25 sont renvoyés : ni embedding de la requête (ONNX), ni parcours du store
+ *  - sinon, l'embedding + la recherche vectorielle partent sur un thread virtuel pendant que la
+ *    recherche BM25 s'exécute sur le thread appelant ; les deux classements (candidates résultats
+ *    chacun) sont fusionnés : score(segment) = Σ 1 / (rrfK + rang)
+ *
+ * Le score RRF est placé dans la métadonnée {@link #RRF_SCORE} du segment, pas dans ContentMetadata.SCORE :
+ * il ne se compare pas au score cosinus d'EmbeddingStoreContentRetriever, et ses écarts (2/61 contre 1/61)
+ * feraient écarter par {@link BudgetedContentAggregator} les segments trouvés par une seule des deux
+ * recherches. Les segments sont identifiés par égalité de TextSegment
+ * (texte + métadonnées) : l'index BM25 doit être construit sur les segments du store.
+ */
+public final class HybridContentRetriever implements ContentRetriever {
+
+    /** Métadonnée des segments renvoyés : score RRF (double). */
+    public static final String RRF_SCORE = "rrf_score";
+
+    private static final Executor VECTOR_EXECUTOR = task -> Thread.ofVirtual().name("hybrid-vector").start(task);
+
+    private final Bm25Index lexicalIndex;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final int maxResults;
+    private final int candidates;
+    private final double minScore;
+    private final int rrfK;
+    private final boolean keywordShortCircuit;
+    private final boolean verbose;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder shortCircuits = new LongAdder();
+    private final LongAdder lexicalOnly = new LongAdder();
+    private final LongAdder vectorOnly = new LongAdder();
+    private final LongAdder both = new LongAdder();
+
+    private HybridContentRetriever(Builder builder) {
+        if (builder.lexicalIndex == null || builder.embeddingStore == null || builder.embeddingModel == null) {
+            throw new IllegalArgumentException("lexicalIndex, embeddingStore et embeddingModel sont obligatoires");
+        }
+        this.lexicalIndex = builder.lexicalIndex;
+        this.embeddingStore = builder.embeddingStore;
+        this.embeddingModel = builder.embeddingModel;
+        this.maxResults = builder.maxResults;
+        this.candidates = Math.max(builder.candidates, builder.maxResults);
+        this.minScore = builder.minScore;
+        this.rrfK = builder.rrfK;
+        this.keywordShortCircuit = builder.keywordShortCircuit;
+        this.verbose = builder.verbose;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        calls.increment();
+        String text = query.text();
+
+        if (keywordShortCircuit && lexicalIndex.isKeywordLookup(text)) {
+            List<Bm25Index.Hit> hits = lexicalIndex.search(text, maxResults);
+            if (!hits.isEmpty()) {
+                shortCircuits.increment();
+                if (verbose) {
+                    System.out.println("[Hybride] Recherche par mots-clés : " + hits.size()
+                            + " segments BM25, sans embedding de la requête");
+                }
+                Map<TextSegment, Double> fused = new LinkedHashMap<>();
+                addRanks(fused, hits.stream().map(Bm25Index.Hit::segment).toList());
+                lexicalOnly.add(hits.size());
+                return contents(fused);
+            }
+        }
+
+        // Embedding + recherche vectorielle en parallèle de la recherche BM25
+        CompletableFuture<List<TextSegment>> vector =
+                CompletableFuture.supplyAsync(() -> vectorSearch(text), VECTOR_EXECUTOR);
+        List<TextSegment> lexical = lexicalIndex.search(text, candidates).stream()
+                .map(Bm25Index.Hit::segment)
+                .toList();
+        List<TextSegment> semantic;
+        try {
+            semantic = vector.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+
+        Map<TextSegment, Double> fused = new LinkedHashMap<>();
+        addRanks(fused, lexical);
+        addRanks(fused, semantic);
+        List<Map.Entry<TextSegment, Double>> ranked = new ArrayList<>(fused.entrySet());
+        ranked.sort(Map.Entry.<TextSegment, Double>comparingByValue().reversed());
+
+        Map<TextSegment, Double> top = new LinkedHashMap<>();
+        for (Map.Entry<TextSegment, Double> entry : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+            boolean inLexical = lexical.contains(entry.getKey());
+            boolean inVector = semantic.contains(entry.getKey());
+            (inLexical && inVector ? both : inLexical ? lexicalOnly : vectorOnly).increment();
+        }
+        return contents(top);
+    }
+
+    public Stats stats() {
+        return new Stats(calls.sum(), shortCircuits.sum(), lexicalOnly.sum(), vectorOnly.sum(), both.sum());
+    }
+
+    private List<TextSegment> vectorSearch(String text) {
+        List<EmbeddingMatch<TextSegment>> matches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(embeddingModel.embed(text).content())
+                .maxResults(candidates)
+                .minScore(minScore)
+                .build()).matches();
+        List<TextSegment> segments = new ArrayList<>(matches.size());
+        for (EmbeddingMatch<TextSegment> match : matches) {
+            if (match.embedded() != null) {
+                segments.add(match.embedded());
+            }
+        }
+        return segments;
+    }
+
+    private void addRanks(Map<TextSegment, Double> fused, List<TextSegment> ranking) {
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            fused.merge(ranking.get(rank), 1.0 / (rrfK + rank + 1), Double::sum);
+        }
+    }
+
+    private static List<Content> contents(Map<TextSegment, Double> scored) {
+        List<Content> contents = new ArrayList<>(scored.size());
+        scored.forEach((segment, score) -> contents.add(Content.from(
+                TextSegment.from(segment.text(), segment.metadata().copy().put(RRF_SCORE, score)))));
+        return contents;
+    }
+
+    /**
+     * Provenance des contenus renvoyés : BM25 seul, vecteurs seuls ou les deux.
+     */
+    public record Stats(long calls, long shortCircuits, long lexicalOnly, long vectorOnly, long both) {
+
+        @Override
+        public String toString() {
+            return "recherche hybride : " + calls + " requêtes dont " + shortCircuits
+                    + " par mots-clés sans embedding ; contenus trouvés par BM25 seul = " + lexicalOnly
+                    + ", vecteurs seuls = " + vectorOnly + ", les deux = " + both;
+        }
+    }
+
+    public static final class Builder {
+        private Bm25Index lexicalIndex;
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private EmbeddingModel embeddingModel;
+        private int maxResults = 3;
+        private int candidates = 10;
+        private double minScore = 0.5;
+        private int rrfK = 60;
+        private boolean keywordShortCircuit = true;
+        private boolean verbose;
+
+        private Builder() {
+        }
+
+        /** Index BM25 construit sur les segments du store (obligatoire). */
+        public Builder lexicalIndex(Bm25Index lexicalIndex) {
+            this.lexicalIndex = lexicalIndex;
+            return this;
+        }
+
+        /** Store de la recherche vectorielle (obligatoire). */
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        /** Modèle d'embeddings des requêtes (obligatoire ; de préférence en cache). */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Nombre de contenus renvoyés après fusion. */
+        public Builder maxResults(int maxResults) {
+            this.maxResults = positive(maxResults, "maxResults");
+            return this;
+        }
+
+        /** Nombre de résultats demandés à chaque recherche avant fusion. */
+        public Builder candidates(int candidates) {
+            this.candidates = positive(candidates, "candidates");
+            return this;
+        }
+
+        /** Score minimum (0..1) des résultats de la recherche vectorielle. */
+        public Builder minScore(double minScore) {
+            this.minScore = minScore;
+            return this;
+        }
+
+        /** Constante k de la fusion RRF (60 dans l'article d'origine). */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = positive(rrfK, "rrfK");
+            return this;
+        }
+
+        /** Sert les recherches par mots-clés avec BM25 seul, sans embedding (activé par défaut). */
+        public Builder keywordShortCircuit(boolean keywordShortCircuit) {
+            this.keywordShortCircuit = keywordShortCircuit;
+            return this;
+        }
+
+        /** Affiche chaque recherche par mots-clés (false par défaut : elles sont comptées dans {@link HybridContentRetriever#stats()}). */
+        public Builder verbose(boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+
+        public HybridContentRetriever build() {
+            return new HybridContentRetriever(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être > 0 : " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ma.emsi.dhissiayman.tp3.routing;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.input.Prompt;
+import dev.langchain4j.model.input.PromptTemplate;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.Bm25Index;
+import ma.emsi.dhissiayman.tp3.store.VersionedStore;
+
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * QueryRouter "RAG ou pas ?" qui n'interroge le LLM qu'en dernier recours.
+ *
+ * Pour chaque requête, dans l'ordre :
+ *  1) mémo : même requête normalisée (casse, accents, espaces, ponctuation finale) → même décision
+ *  2) salutations / politesse → pas de RAG : la requête commence par une formule ("bonjour",
+ *     "merci", ...) et ne contient que des mots de politesse ("bonjour, merci pour l'aide !")
+ *  2 bis) si un index BM25 est fourni : recherche par mots-clés (question faite surtout de noms d'API présents dans l'index)
+ *     → RAG, sans embedding de la requête
+ *  3) meilleur score de la requête contre le store :
+ *      • score ≤ lowThreshold  → pas de RAG (hors sujet)
+ *      • score ≥ highThreshold → RAG
+ *  4) entre les deux seuils (cas ambigu) → question de routage posée au LLM
+ *
+ * Les décisions sont mémorisées (LRU : au-delà de maxMemoEntries, la décision la moins
+ * récemment utilisée est oubliée) ; le mémo est vidé si le contenu du store change ({@link VersionedStore}). Les compteurs de {@link #stats()} indiquent
+ * combien de requêtes ont pris chaque chemin.
+ */
+public final class CachedRagRouter implements QueryRouter {
+
+    /** Chemin de décision emprunté pour une requête. */
+    public enum Path { MEMO, SALUTATION, MOT_CLE, EMBEDDING_HORS_SUJET, EMBEDDING_PERTINENT, LLM }
+
+    /** Formule de politesse en tête de la requête normalisée. */
+    private static final Pattern SALUTATION = Pattern.compile(
+            "(bonjour|bonsoir|salut|coucou|hello|hi|hey|merci|au revoir|bye|"
+                    + "ca va|comment ca va|comment vas[ -]tu|ok|d'accord)\\b.*");
+
+    /** Mots autorisés dans une requête de pure politesse (après normalisation). */
+    private static final Set<String> POLITESSE = Set.of(
+            "bonjour", "bonsoir", "salut", "coucou", "hello", "hi", "hey", "merci", "beaucoup", "mille",
+            "fois", "encore", "au", "revoir", "bye", "a", "bientot", "plus", "ca", "va", "comment", "vas",
+            "tu", "et", "toi", "vous", "ok", "d'accord", "pour", "l'aide", "ton", "ta", "votre", "aide",
+            "reponse", "tes", "vos", "reponses", "bonne", "journee", "soiree", "tout", "le", "monde",
+            "tous", "c'est", "gentil", "super", "parfait", "top", "cool");
+
+    private final ContentRetriever contentRetriever;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final ChatModel chatModel;
+    private final PromptTemplate routerTemplate;
+    private final Bm25Index keywordIndex;
+    private final double lowThreshold;
+    private final double highThreshold;
+    private final int maxMemoEntries;
+
+    private final Map<String, Boolean> memo;
+    private volatile long memoVersion;
+    private final Map<Path, LongAdder> counters = new EnumMap<>(Path.class);
+
+    private CachedRagRouter(Builder builder) {
+        if (builder.contentRetriever == null || builder.embeddingModel == null
+                || builder.embeddingStore == null || builder.chatModel == null) {
+            throw new IllegalArgumentException(
+                    "contentRetriever, embeddingModel, embeddingStore et chatModel sont obligatoires");
+        }
+        if (builder.lowThreshold > builder.highThreshold) {
+            throw new IllegalArgumentException("lowThreshold doit être <= highThreshold : "
+                    + builder.lowThreshold + " > " + builder.highThreshold);
+        }
+        this.contentRetriever = builder.contentRetriever;
+        this.embeddingModel = builder.embeddingModel;
+        this.embeddingStore = builder.embeddingStore;
+        this.chatModel = builder.chatModel;
+        this.routerTemplate = builder.routerTemplate;
+        this.keywordIndex = builder.keywordIndex;
+        this.lowThreshold = builder.lowThreshold;
+        this.highThreshold = builder.highThreshold;
+        this.maxMemoEntries = builder.maxMemoEntries;
+        this.memo = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxMemoEntries;
+            }
+        });
+        this.memoVersion = storeVersion();
+        for (Path path : Path.values()) {
+            counters.put(path, new LongAdder());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<ContentRetriever> route(Query query) {
+        long start = System.nanoTime();
+        try {
+            return doRoute(query);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.ROUTING, start);
+        }
+    }
+
+    private List<ContentRetriever> doRoute(Query query) {
+        String key = normalize(query.text());
+        invalidateMemoIfStoreChanged();
+
+        Boolean cached = memo.get(key);
+        if (cached != null) {
+            return decision(query, cached, Path.MEMO, null);
+        }
+
+        if (isSalutation(key)) {
+            return remember(key, query, false, Path.SALUTATION, null);
+        }
+
+        if (keywordIndex != null && keywordIndex.isKeywordLookup(query.text())) {
+            return remember(key, query, true, Path.MOT_CLE, null);
+        }
+
+        double score = bestScore(query.text());
+        if (score <= lowThreshold) {
+            return remember(key, query, false, Path.EMBEDDING_HORS_SUJET, score);
+        }
+        if (score >= highThreshold) {
+            return remember(key, query, true, Path.EMBEDDING_PERTINENT, score);
+        }
+
+        // Cas ambigu : question de routage posée au LLM ("oui" / "peut-être" → RAG)
+        Prompt prompt = routerTemplate.apply(Map.of("query", query.text()));
+        String answer = chatModel.chat(prompt.text()).trim().toLowerCase();
+        System.out.println("[Router] Réponse du LM pour le routage : " + answer);
+        return remember(key, query, !answer.startsWith("non"), Path.LLM, score);
+    }
+
+    public Stats stats() {
+        Map<Path, Long> snapshot = new EnumMap<>(Path.class);
+        counters.forEach((path, counter) -> snapshot.put(path, counter.sum()));
+        return new Stats(snapshot, memo.size());
+    }
+
+    private List<ContentRetriever> remember(String key, Query query, boolean useRag, Path path, Double score) {
+        memo.put(key, useRag);
+        return decision(query, useRag, path, score);
+    }
+
+    private List<ContentRetriever> decision(Query query, boolean useRag, Path path, Double score) {
+        counters.get(path).increment();
+        System.out.println("[Router] Question utilisateur : " + query.text());
+        System.out.println("[Router] Décision : " + (useRag ? "RAG" : "pas de RAG")
+                + " (chemin " + path + (score == null ? "" : String.format(", score %.3f", score)) + ")");
+        return useRag ? List.of(contentRetriever) : List.of();
+    }
+
+    private double bestScore(String text) {
+        Embedding embedding = embeddingModel.embed(text).content();
+        List<EmbeddingMatch<TextSegment>> matches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(embedding)
+                .maxResults(1)
+                .minScore(0.0)
+                .build()).matches();
+        return matches.isEmpty() ? 0.0 : matches.get(0).score();
+    }
+
+    private void invalidateMemoIfStoreChanged() {
+        long version = storeVersion();
+        if (version != memoVersion) {
+            memoVersion = version;
+            memo.clear();
+        }
+    }
+
+    private long storeVersion() {
+        return embeddingStore instanceof VersionedStore versioned ? versioned.version() : 0;
+    }
+
+    /** Requête (normalisée) de pure politesse : formule en tête, puis uniquement des mots de {@link #POLITESSE}. */
+    static boolean isSalutation(String key) {
+        if (!SALUTATION.matcher(key).matches()) {
+            return false;
+        }
+        for (String word : key.split("[\\s!?-]+")) {
+            if (!word.isEmpty() && !POLITESSE.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Minuscules, sans accents, espaces réduits, ponctuation finale ramenée à " !" / " ?". */
+    static String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase()
+                .replaceAll("[.,;:…]+", " ")
+                .replaceAll("\\s*([!?])+", " $1")
+                .replaceAll("\\s+", " ");
+        return s.strip();
+    }
+
+    /**
+     * Nombre de requêtes par chemin de décision.
+     */
+    public record Stats(Map<Path, Long> counts, int memoSize) {
+
+        public long total() {
+            return counts.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        @Override
+        public String toString() {
+            long total = total();
+            StringBuilder sb = new StringBuilder("routage : ").append(total).append(" requêtes");
+            counts.forEach((path, count) -> sb.append(", ").append(path).append(" = ").append(count));
+            sb.append(" (appels LLM évités : ").append(total - counts.getOrDefault(Path.LLM, 0L))
+                    .append(", mémo : ").append(memoSize).append(" entrées)");
+            return sb.toString();
+        }
+    }
+
+    public static final class Builder {
+        private ContentRetriever contentRetriever;
+        private EmbeddingModel embeddingModel;
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private ChatModel chatModel;
+        private Bm25Index keywordIndex;
+        private PromptTemplate routerTemplate = PromptTemplate.from(
+                "Est-ce que la requête suivante porte sur l'IA ou le contenu du cours LangChain4j ? " +
+                        "Réponds seulement par 'oui', 'non' ou 'peut-être'.\n" +
+                        "Requête : {{query}}");
+        private double lowThreshold = 0.60;
+        private double highThreshold = 0.75;
+        private int maxMemoEntries = 10_000;
+
+        private Builder() {
+        }
+
+        /** Retriever renvoyé quand le RAG est utilisé (obligatoire). */
+        public Builder contentRetriever(ContentRetriever contentRetriever) {
+            this.contentRetriever = contentRetriever;
+            return this;
+        }
+
+        /** Modèle d'embeddings des requêtes : le même (en cache) que celui du retriever, pour ne calculer qu'un embedding. */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Store interrogé pour le score de pertinence de la requête (obligatoire). */
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        /** LLM consulté pour les cas ambigus (obligatoire). */
+        public Builder chatModel(ChatModel chatModel) {
+            this.chatModel = chatModel;
+            return this;
+        }
+
+        /** Question de routage posée au LLM, avec la variable {{query}}. */
+        public Builder routerTemplate(PromptTemplate routerTemplate) {
+            this.routerTemplate = routerTemplate;
+            return this;
+        }
+
+        /** Index BM25 des segments : les recherches par mots-clés qu'il sait servir vont au RAG sans embedding. */
+        public Builder keywordIndex(Bm25Index keywordIndex) {
+            this.keywordIndex = keywordIndex;
+            return this;
+        }
+
+        /** Score (0..1) en dessous duquel la requête est jugée hors sujet sans appel au LLM. */
+        public Builder lowThreshold(double lowThreshold) {
+            this.lowThreshold = lowThreshold;
+            return this;
+        }
+
+        /** Score (0..1) au-dessus duquel le RAG est utilisé sans appel au LLM. */
+        public Builder highThreshold(double highThreshold) {
+            this.highThreshold = highThreshold;
+            return this;
+        }
+
+        /** Nombre maximum de décisions mémorisées (les moins récemment utilisées sont oubliées au-delà). */
+        public Builder maxMemoEntries(int maxMemoEntries) {
+            if (maxMemoEntries <= 0) {
+                throw new IllegalArgumentException("maxMemoEntries doit être > 0 : " + maxMemoEntries);
+            }
+            this.maxMemoEntries = maxMemoEntries;
+            return this;
+        }
+
+        public CachedRagRouter build() {
+            return new CachedRagRouter(this);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package ma.emsi.dhissiayman.tp3.routing;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.store.VectorMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * QueryRouter local, sans appel au LLM : remplace LanguageModelQueryRouter
+ * quand les sources sont des documents déjà embeddés.
+ *
+ * Chaque source est représentée par des vecteurs calculés à l'ingestion :
+ *  - son centroïde (moyenne normalisée de tous ses segments)
+ *  - quelques prototypes : segments tirés au hasard (graine fixe)
+ *
+ * Le score d'une source est la meilleure similarité cosinus entre la requête
+ * et l'un de ses représentants. La meilleure source est toujours retenue, ainsi
+ * que toutes celles dont le score est à moins de {@code margin} du meilleur
+ * (requête à cheval sur plusieurs sources → fan-out).
+ *
+ * Le coût d'un routage est un embedding (souvent en cache) + quelques dizaines
+ * de produits scalaires, soit quelques microsecondes.
+ */
+public final class CentroidQueryRouter implements QueryRouter {
+
+    private final EmbeddingModel embeddingModel;
+    private final List<ContentRetriever> retrievers;
+    private final List<String> names;
+    private final double margin;
+    private final boolean verbose;
+
+    // représentants de toutes les sources, normalisés, bout à bout : ligne r = vectors[r*dim .. (r+1)*dim)
+    private final float[] vectors;
+    private final int[] owner;
+    private final int dimension;
+
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder fanOuts = new LongAdder();
+    private final LongAdder routingNanos = new LongAdder();
+    private final LongAdder[] selections;
+
+    private CentroidQueryRouter(Builder builder) {
+        if (builder.embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel est obligatoire");
+        }
+        if (builder.sources.isEmpty()) {
+            throw new IllegalArgumentException("au moins une source doit être déclarée (route)");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.margin = builder.margin;
+        this.verbose = builder.verbose;
+        this.retrievers = new ArrayList<>();
+        this.names = new ArrayList<>();
+        this.dimension = builder.sources.get(0).index.dimension();
+
+        Random random = new Random(builder.seed);
+        List<float[]> rows = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int s = 0; s < builder.sources.size(); s++) {
+            Source source = builder.sources.get(s);
+            EmbeddingIndex index = source.index;
+            if (index.dimension() != dimension) {
+                throw new IllegalArgumentException("dimension incohérente pour " + source.name
+                        + " : " + index.dimension() + " au lieu de " + dimension);
+            }
+            if (index.size() == 0) {
+                throw new IllegalArgumentException("la source " + source.name + " ne contient aucun segment");
+            }
+            retrievers.add(source.retriever);
+            names.add(source.name);
+
+            rows.add(centroid(index));
+            owners.add(s);
+            for (int i : sample(index.size(), builder.prototypes, random)) {
+                rows.add(VectorMath.normalizedCopy(index.vector(i)));
+                owners.add(s);
+            }
+        }
+
+        this.vectors = new float[rows.size() * dimension];
+        this.owner = new int[rows.size()];
+        for (int r = 0; r < rows.size(); r++) {
+            System.arraycopy(rows.get(r), 0, vectors, r * dimension, dimension);
+            owner[r] = owners.get(r);
+        }
+        this.selections = new LongAdder[retrievers.size()];
+        for (int s = 0; s < selections.length; s++) {
+            selections[s] = new LongAdder();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<ContentRetriever> route(Query query) {
+        long start = System.nanoTime();
+        try {
+            return doRoute(query);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.ROUTING, start);
+        }
+    }
+
+    private List<ContentRetriever> doRoute(Query query) {
+        float[] q = VectorMath.normalizedCopy(embeddingModel.embed(query.text()).content().vector());
+        if (q.length != dimension) {
+            throw new IllegalArgumentException("dimension de la requête " + q.length + " au lieu de " + dimension);
+        }
+
+        long start = System.nanoTime();
+        float[] scores = scores(q);
+        float best = Float.NEGATIVE_INFINITY;
+        for (float score : scores) {
+            best = Math.max(best, score);
+        }
+
+        List<ContentRetriever> selected = new ArrayList<>();
+        StringBuilder trace = new StringBuilder();
+        for (int s = 0; s < scores.length; s++) {
+            if (scores[s] >= best - margin) {
+                selected.add(retrievers.get(s));
+                selections[s].increment();
+                trace.append(trace.isEmpty() ? "" : ", ").append(names.get(s))
+                        .append(String.format(" (%.3f)", scores[s]));
+            }
+        }
+        routingNanos.add(System.nanoTime() - start);
+        routed.increment();
+        if (selected.size() > 1) {
+            fanOuts.increment();
+        }
+
+        if (verbose) {
+            System.out.println("[Router] " + query.text() + " → " + trace);
+        }
+        return selected;
+    }
+
+    /**
+     * Score de chaque source pour une requête normalisée (meilleure similarité cosinus).
+     */
+    public float[] scores(float[] normalizedQuery) {
+        float[] scores = new float[retrievers.size()];
+        Arrays.fill(scores, Float.NEGATIVE_INFINITY);
+        for (int r = 0; r < owner.length; r++) {
+            float score = VectorMath.dot(normalizedQuery, 0, vectors, r * dimension, dimension);
+            if (score > scores[owner[r]]) {
+                scores[owner[r]] = score;
+            }
+        }
+        return scores;
+    }
+
+    public Stats stats() {
+        long[] counts = new long[selections.length];
+        for (int s = 0; s < counts.length; s++) {
+            counts[s] = selections[s].sum();
+        }
+        return new Stats(List.copyOf(names), counts, routed.sum(), fanOuts.sum(), routingNanos.sum());
+    }
+
+    private float[] centroid(EmbeddingIndex index) {
+        float[] all = index.vectors();
+        float[] centroid = new float[dimension];
+        float[] row = new float[dimension];
+        for (int i = 0; i < index.size(); i++) {
+            System.arraycopy(all, i * dimension, row, 0, dimension);
+            VectorMath.normalize(row, 0, dimension);
+            for (int d = 0; d < dimension; d++) {
+                centroid[d] += row[d];
+            }
+        }
+        VectorMath.normalize(centroid, 0, dimension);
+        return centroid;
+    }
+
+    /** Tirage sans remise de min(count, size) indices (mélange de Fisher-Yates partiel). */
+    private static int[] sample(int size, int count, Random random) {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        int n = Math.min(count, size);
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(size - i);
+            int tmp = indices[i];
+            indices[i] = indices[j];
+            indices[j] = tmp;
+        }
+        return Arrays.copyOf(indices, n);
+    }
+
+    private record Source(String name, ContentRetriever retriever, EmbeddingIndex index) {
+    }
+
+    /**
+     * Nombre de sélections par source et coût moyen du routage (hors embedding de la requête).
+     */
+    public record Stats(List<String> names, long[] selections, long routed, long fanOuts, long routingNanos) {
+
+        public double meanMicros() {
+            return routed == 0 ? 0 : routingNanos / 1e3 / routed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("routage local : ").append(routed).append(" requêtes");
+            for (int s = 0; s < names.size(); s++) {
+                sb.append(", ").append(names.get(s)).append(" = ").append(selections[s]);
+            }
+            sb.append(String.format(", %d fan-out, %.1f µs en moyenne", fanOuts, meanMicros()));
+            return sb.toString();
+        }
+    }
+
+    public static final class Builder {
+        private final List<Source> sources = new ArrayList<>();
+        private EmbeddingModel embeddingModel;
+        private int prototypes = 16;
+        private double margin = 0.05;
+        private long seed = 42;
+        private boolean verbose = true;
+
+        private Builder() {
+        }
+
+        /**
+         * Déclare une source : le retriever à renvoyer et l'index (segments + embeddings) du document.
+         */
+        public Builder route(String name, ContentRetriever retriever, EmbeddingIndex index) {
+            sources.add(new Source(name, retriever, index));
+            return this;
+        }
+
+        /** Modèle d'embeddings des requêtes : le même que celui de l'ingestion (obligatoire). */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /** Nombre de segments tirés comme prototypes pour chaque source, en plus du centroïde. */
+        public Builder prototypes(int prototypes) {
+            if (prototypes < 0) {
+                throw new IllegalArgumentException("prototypes doit être >= 0 : " + prototypes);
+            }
+            this.prototypes = prototypes;
+            return this;
+        }
+
+        /** Écart de similarité cosinus sous le meilleur score en deçà duquel une source est aussi retenue (0 = une seule source). */
+        public Builder margin(double margin) {
+            if (margin < 0) {
+                throw new IllegalArgumentException("margin doit être >= 0 : " + margin);
+            }
+            this.margin = margin;
+            return this;
+        }
+
+        /** Graine du tirage des prototypes. */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /** Affiche chaque décision de routage (true par défaut ; false sous forte charge). */
+        public Builder verbose(boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+
+        public CentroidQueryRouter build() {
+            return new CentroidQueryRouter(this);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package ma.emsi.dhissiayman.tp3.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.service.AiServices;
+import ma.emsi.dhissiayman.tp3.assistant.SessionAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.ingestion.WatchedDirectoryIngestor;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.logging.AsyncLogHandler;
+import ma.emsi.dhissiayman.tp3.logging.SampledLoggingChatModelListener;
+import ma.emsi.dhissiayman.tp3.memory.PromptTokenMetrics;
+import ma.emsi.dhissiayman.tp3.memory.SessionMemoryProvider;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Mode serveur : l'assistant RAG exposé en HTTP local, pour plusieurs conversations simultanées.
+ *
+ * Endpoints (texte brut UTF-8) :
+ *  - POST   /chat?session=ID     corps = question, réponse = texte de l'assistant
+ *  - DELETE /session?session=ID  oublie la conversation de la session
+ *  - GET    /health              état du serveur (sessions, requêtes, latence moyenne)
+ *
+ * Chaque requête HTTP est traitée sur son propre thread virtuel : une requête qui attend
+ * Gemini ne bloque pas de thread système. Le modèle d'embeddings, les stores et le ChatModel
+ * sont construits une seule fois et partagés (en lecture) par toutes les sessions ;
+ * seule la mémoire de conversation est propre à chaque session.
+ *
+ * Exemple :
+ *   curl -X POST --data "Qu'est-ce que le RAG ?" "http://localhost:8080/chat?session=alice"
+ */
+public class RagServer {
+
+    private static final int MAX_QUESTION_BYTES = 16 * 1024;
+
+    private final SessionAssistant assistant;
+    private final SessionMemoryProvider memories;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public RagServer(SessionAssistant assistant, SessionMemoryProvider memories, InetSocketAddress address)
+            throws IOException {
+        this.assistant = assistant;
+        this.memories = memories;
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/chat", this::handleChat);
+        server.createContext("/session", this::handleSession);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", new MetricsEndpoint(StageMetrics.global()));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /** Arrête le serveur en laissant au plus {@code delaySeconds} aux requêtes en cours. */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode attendue : POST");
+                return;
+            }
+            String session = sessionId(exchange);
+            if (session == null) {
+                send(exchange, 400, "Paramètre 'session' manquant");
+                return;
+            }
+            String question = readBody(exchange);
+            if (question == null) {
+                send(exchange, 413, "Question trop longue (max " + MAX_QUESTION_BYTES + " octets)");
+                return;
+            }
+            if (question.isBlank()) {
+                send(exchange, 400, "Question vide");
+                return;
+            }
+
+            long start = System.nanoTime();
+            inFlight.incrementAndGet();
+            try {
+                String answer = assistant.chat(session, question);
+                send(exchange, 200, answer);
+            } catch (RuntimeException e) {
+                errors.increment();
+                System.out.println("[Serveur] session " + session + " : erreur " + e);
+                send(exchange, 500, "Erreur de l'assistant : " + e.getMessage());
+            } finally {
+                inFlight.decrementAndGet();
+                requests.increment();
+                totalNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"DELETE".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode attendue : DELETE");
+                return;
+            }
+            String session = sessionId(exchange);
+            if (session == null) {
+                send(exchange, 400, "Paramètre 'session' manquant");
+                return;
+            }
+            // l'AiService garde sa propre référence à la mémoire : l'oublier des deux côtés
+            assistant.evictChatMemory(session);
+            memories.remove(session);
+            send(exchange, 200, "Session " + session + " oubliée");
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long count = requests.sum();
+            send(exchange, 200, String.format(
+                    "OK%nsessions : %d%nrequêtes : %d (%d en cours, %d erreurs)%nlatence moyenne : %.0f ms%n",
+                    memories.sessions(), count, inFlight.get(), errors.sum(),
+                    count == 0 ? 0.0 : totalNanos.sum() / 1e6 / count));
+        }
+    }
+
+    private static String sessionId(HttpExchange exchange) {
+        String session = queryParameters(exchange).get("session");
+        if (session == null || session.isBlank() || session.length() > 128) {
+            return null;
+        }
+        return session;
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /** Corps de la requête, ou null s'il dépasse MAX_QUESTION_BYTES. */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_QUESTION_BYTES + 1);
+            if (body.length > MAX_QUESTION_BYTES) {
+                return null;
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        // ---------------------------------------------------------
+        // 1) Composants partagés par toutes les sessions (construits une seule fois)
+        // ---------------------------------------------------------
+        // Avec -Drag.debug=true : échanges avec le LLM journalisés (échantillonnés, tronqués)
+        // par un handler asynchrone qui abandonne les logs plutôt que ralentir les requêtes
+        boolean debug = Boolean.getBoolean("rag.debug");
+        AsyncLogHandler logHandler = debug
+                ? AsyncLogHandler.install(Level.FINE, Integer.getInteger("rag.log.bufferSize", 10_000),
+                        SampledLoggingChatModelListener.LOGGER_NAME)
+                : null;
+        List<ChatModelListener> listeners = debug
+                ? List.of(new MetricsChatModelListener(), SampledLoggingChatModelListener.fromSystemProperties())
+                : List.of(new MetricsChatModelListener());
+
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+
+        // Documents : le PDF du TP, ou tout un répertoire surveillé (-Drag.docs.dir=...)
+        // dont les PDF ajoutés / modifiés / supprimés sont réingérés sans redémarrer le serveur
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        String docsDir = System.getProperty("rag.docs.dir");
+        DenseVectorStore embeddingStore = docsDir == null
+                ? DenseVectorStore.of(IngestionPipeline.builder()
+                        .embeddingModel(embeddingModel)
+                        .build()
+                        .ingest(IngestionPipeline.resourcePath("langchain4j.pdf")))
+                : new DenseVectorStore();
+        WatchedDirectoryIngestor docsWatcher = docsDir == null ? null : WatchedDirectoryIngestor.builder()
+                .directory(Paths.get(docsDir))
+                .store(embeddingStore)
+                .embeddingModel(embeddingModel)
+                .build();
+        if (docsWatcher != null) {
+            docsWatcher.start();
+        }
+
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 10_000);
+        ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingStore(embeddingStore)
+                .embeddingModel(queryEmbeddingModel)
+                .maxResults(5)
+                .minScore(0.5)
+                .build();
+        // Contexte récupéré compressé sous un budget de tokens avant l'appel au LLM
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
+        RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
+                .contentRetriever(contentRetriever)
+                .contentAggregator(contentAggregator)
+                .build();
+
+        // ---------------------------------------------------------
+        // 2) Mémoire propre à chaque session, bornée par un budget de tokens
+        //    (compteurs de taille des prompts partagés par toutes les sessions)
+        // ---------------------------------------------------------
+        int maxSessions = Integer.getInteger("rag.server.maxSessions", 1000);
+        int maxTokens = Integer.getInteger("rag.memory.maxTokens", 2000);
+        PromptTokenMetrics memoryMetrics = new PromptTokenMetrics();
+        SessionMemoryProvider memories = new SessionMemoryProvider(
+                id -> TokenBudgetChatMemory.builder().id(id).maxTokens(maxTokens).metrics(memoryMetrics).build(),
+                maxSessions);
+
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(memories)
+                .retrievalAugmentor(retrievalAugmentor)
+                .build();
+        memories.onEviction(assistant::evictChatMemory);
+
+        // ---------------------------------------------------------
+        // 3) Serveur HTTP local, un thread virtuel par requête
+        // ---------------------------------------------------------
+        int port = Integer.getInteger("rag.server.port", 8080);
+        RagServer server = new RagServer(assistant, memories,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        StageMetrics.global().registerMBeans();
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            if (docsWatcher != null) {
+                docsWatcher.close();
+                System.out.println(docsWatcher.stats());
+            }
+            System.out.println(queryEmbeddingModel.stats());
+            System.out.println(memoryMetrics.stats());
+            System.out.println(contentAggregator.stats());
+            System.out.println(chatModel.stats());
+            System.out.println(StageMetrics.global().summary());
+            if (logHandler != null) {
+                System.out.println(logHandler.stats());
+            }
+        }));
+
+        System.out.println("Serveur RAG démarré : http://localhost:" + server.port()
+                + " (" + embeddingStore.size() + " segments indexés)");
+        System.out.println("  POST   /chat?session=ID     (corps = question)");
+        System.out.println("  DELETE /session?session=ID");
+        System.out.println("  GET    /health");
+        System.out.println("  GET    /metrics             (format Prometheus ; aussi en JMX)");
+    }
+}
@@ -0,0 +1,111 @@
+package ma.emsi.dhissiayman.tp3.startup;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * EmbeddingModel chargé en arrière-plan : le modèle ONNX (plusieurs centaines de ms à quelques
+ * secondes au démarrage) est créé puis "échauffé" par une première inférence sur un thread dédié,
+ * pendant que le thread principal charge l'index, construit l'assistant et affiche l'invite.
+ *
+ * Les composants peuvent recevoir ce modèle tout de suite : seul un vrai calcul d'embedding
+ * attend la fin du chargement (un index rechargé depuis le cache disque n'attend jamais).
+ * La dimension est connue d'avance, pour que l'ingestion puisse parser les PDF sans attendre.
+ */
+public final class DeferredEmbeddingModel implements EmbeddingModel {
+
+    private final CompletableFuture<EmbeddingModel> model = new CompletableFuture<>();
+    private final int dimension;
+    private final long startNanos = System.nanoTime();
+    private volatile long loadedNanos;
+    private volatile long warmedNanos;
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    private DeferredEmbeddingModel(int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension doit être > 0 : " + dimension);
+        }
+        this.dimension = dimension;
+    }
+
+    /**
+     * Lance le chargement (factory) puis une inférence d'échauffement sur warmupText,
+     * sur un thread démon "embedding-warmup".
+     */
+    public static DeferredEmbeddingModel loadInBackground(Supplier<EmbeddingModel> factory, int dimension,
+                                                          String warmupText) {
+        DeferredEmbeddingModel deferred = new DeferredEmbeddingModel(dimension);
+        Thread thread = new Thread(() -> {
+            try {
+                EmbeddingModel loaded = factory.get();
+                deferred.loadedNanos = System.nanoTime() - deferred.startNanos;
+                loaded.embed(warmupText);
+                deferred.warmedNanos = System.nanoTime() - deferred.startNanos;
+                deferred.model.complete(loaded);
+            } catch (RuntimeException | Error e) {
+                deferred.model.completeExceptionally(e);
+            }
+        }, "embedding-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        return deferred;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return model().embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /** Vrai quand le modèle est chargé et échauffé. */
+    public boolean isReady() {
+        return model.isDone() && !model.isCompletedExceptionally();
+    }
+
+    /**
+     * Modèle chargé, en attendant la fin du chargement si nécessaire.
+     */
+    public EmbeddingModel model() {
+        boolean waiting = !model.isDone();
+        long start = System.nanoTime();
+        try {
+            return model.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Échec du chargement du modèle d'embeddings", e.getCause());
+        } finally {
+            if (waiting) {
+                waits.increment();
+                waitedNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(loadedNanos, warmedNanos, waits.sum(), waitedNanos.sum());
+    }
+
+    /**
+     * Durées depuis le lancement (0 si pas encore atteint) et attentes des appelants.
+     */
+    public record Stats(long loadedNanos, long warmedNanos, long waits, long waitedNanos) {
+        @Override
+        public String toString() {
+            return String.format("[Démarrage] Modèle d'embeddings : chargé en %d ms, échauffé à %d ms "
+                            + "(arrière-plan) ; %d appel(s) ont attendu %d ms au total",
+                    loadedNanos / 1_000_000, warmedNanos / 1_000_000, waits, waitedNanos / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ma.emsi.dhissiayman.tp3.startup;
+
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.service.AiServices;
+import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Lancement optimisé pour le démarrage de l'assistant RAG (PDF langchain4j.pdf).
+ *
+ * Par rapport à RagNaif, où tout est séquentiel (chargement ONNX, puis ingestion, puis invite) :
+ *  - le modèle d'embeddings ONNX est chargé et échauffé en arrière-plan
+ *    ({@link DeferredEmbeddingModel}) pendant que l'index est rechargé depuis le cache disque
+ *    et que l'assistant est construit
+ *  - avec le profil Maven fast-start, les classes de LangChain4j, Tika et ONNX Runtime sont
+ *    lues depuis une archive AppCDS (créée automatiquement au premier lancement, à la sortie
+ *    de la JVM, donc après l'échauffement et la première réponse) au lieu d'être rechargées
+ *    et vérifiées à chaque démarrage ; le lanceur tourne alors depuis le jar de l'application
+ *    et les jar de target/lib, AppCDS refusant un répertoire de classes sur le classpath
+ *
+ * Le temps jusqu'à la première réponse (TTFA) est mesuré depuis le lancement de la JVM,
+ * sans compter le temps passé par l'utilisateur à taper sa question.
+ *
+ * Usage :
+ *   mvn -Pfast-start package exec:exec               (interactif ; 'fin' pour quitter)
+ *   options JVM via -Dfast-start.args="..." :
+ *     -Drag.startup.question="Qu'est-ce que le RAG ?" (une seule question puis sortie :
+ *                                                      mesure du TTFA, création de l'archive)
+ *     -Drag.llm.stub=true                             (LLM simulé, sans clé API)
+ */
+public class FastStartLauncher {
+
+    /** Dimension des embeddings AllMiniLmL6V2. */
+    private static final int DIMENSION = 384;
+
+    public static void main(String[] args) {
+        long mainMillis = uptimeMillis();
+
+        // ---------------------------------------------------------
+        // 1) Modèle d'embeddings : chargement + inférence d'échauffement en arrière-plan
+        // ---------------------------------------------------------
+        DeferredEmbeddingModel embeddingModel = DeferredEmbeddingModel.loadInBackground(
+                AllMiniLmL6V2EmbeddingModel::new, DIMENSION, "Qu'est-ce que le RAG ?");
+
+        // ---------------------------------------------------------
+        // 2) En parallèle sur le thread principal : LLM, index, assistant
+        // ---------------------------------------------------------
+        ResilientChatModel chatModel = GeminiModels.chatModel(List.of(new MetricsChatModelListener()));
+
+        // Index rechargé depuis le cache disque (sans le modèle) ; sinon, le PDF est parsé
+        // pendant le chargement du modèle et seul le calcul des embeddings l'attend
+        EmbeddingIndex index = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(IngestionPipeline.resourcePath("langchain4j.pdf"));
+        DenseVectorStore embeddingStore = DenseVectorStore.of(index);
+        long indexMillis = uptimeMillis();
+
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(chatModel)
+                .chatMemory(chatMemory)
+                .retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .contentRetriever(EmbeddingStoreContentRetriever.builder()
+                                .embeddingStore(embeddingStore)
+                                .embeddingModel(queryEmbeddingModel)
+                                .maxResults(5)
+                                .minScore(0.5)
+                                .build())
+                        .contentAggregator(contentAggregator)
+                        .build())
+                .build();
+        long readyMillis = uptimeMillis();
+
+        System.out.printf("[Démarrage] JVM → main : %d ms, index (%d segments) : %d ms, prêt : %d ms "
+                        + "(modèle d'embeddings %s)%n",
+                mainMillis, index.size(), indexMillis, readyMillis,
+                embeddingModel.isReady() ? "déjà prêt" : "encore en chargement");
+
+        // ---------------------------------------------------------
+        // 3) Première réponse (TTFA), puis boucle interactive
+        // ---------------------------------------------------------
+        String oneShot = System.getProperty("rag.startup.question");
+        if (oneShot != null) {
+            String answer = assistant.chat(oneShot);
+            long answerMillis = uptimeMillis();
+            System.out.println(answer);
+            printStartup(readyMillis, answerMillis - readyMillis, answerMillis, embeddingModel);
+        } else {
+            System.out.println("===== Assistant RAG (démarrage rapide) - DHISSI AYMAN =====");
+            System.out.println("Tapez 'fin' pour quitter.");
+            boolean first = true;
+            try (Scanner scanner = new Scanner(System.in)) {
+                while (true) {
+                    System.out.println("\nVotre question : ");
+                    String question = scanner.nextLine();
+                    if ("fin".equalsIgnoreCase(question)) {
+                        break;
+                    }
+                    if (question.isBlank()) {
+                        continue;
+                    }
+                    long start = uptimeMillis();
+                    System.out.println("Assistant : " + assistant.chat(question));
+                    if (first) {
+                        long answerMillis = uptimeMillis() - start;
+                        printStartup(readyMillis, answerMillis, readyMillis + answerMillis, embeddingModel);
+                        first = false;
+                    }
+                    System.out.println("--------------------------------------------------");
+                }
+            }
+        }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(contentAggregator.stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+    }
+
+    private static void printStartup(long readyMillis, long firstAnswerMillis, long ttfaMillis,
+                                     DeferredEmbeddingModel embeddingModel) {
+        System.out.printf("[Démarrage] prêt à %d ms + première réponse en %d ms → TTFA = %d ms%n",
+                readyMillis, firstAnswerMillis, ttfaMillis);
+        System.out.println(embeddingModel.stats());
+    }
+
+    /** Millisecondes écoulées depuis le lancement de la JVM. */
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
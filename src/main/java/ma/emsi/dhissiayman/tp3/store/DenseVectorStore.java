@@ -0,0 +1,343 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore en mémoire qui remplace InMemoryEmbeddingStore.
+ *
+ * Différences avec InMemoryEmbeddingStore :
+ *  - tous les vecteurs sont rangés dans un seul float[] contigu (pas d'objet Embedding par segment)
+ *  - les vecteurs sont normalisés à l'insertion : le cosinus devient un simple produit scalaire
+ *  - le produit scalaire utilise l'API Vector du JDK quand elle est disponible ({@link VectorMath})
+ *  - la sélection du top-k se fait dans un tas primitif réutilisé par thread (aucune allocation par candidat)
+ *
+ * Les scores renvoyés sont les mêmes que ceux d'InMemoryEmbeddingStore
+ * (RelevanceScore.fromCosineSimilarity), donc minScore garde le même sens
+ * pour EmbeddingStoreContentRetriever.
+ *
+ * Lectures concurrentes autorisées ; les écritures prennent un verrou exclusif.
+ */
+public class DenseVectorStore implements EmbeddingStore<TextSegment>, VersionedStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final ThreadLocal<ScoredHeap> HEAPS = ThreadLocal.withInitial(() -> new ScoredHeap(16));
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long version;
+
+    private int dimension = -1;
+    private int size;
+    private float[] vectors = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private final Map<String, Integer> rowById = new HashMap<>();
+
+    public DenseVectorStore() {
+    }
+
+    /**
+     * Store initialisé avec tous les segments d'un index d'ingestion.
+     */
+    public static DenseVectorStore of(EmbeddingIndex index) {
+        DenseVectorStore store = new DenseVectorStore();
+        store.addIndex(index);
+        return store;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ajout direct depuis le tableau contigu d'un EmbeddingIndex, sans passer par des objets Embedding.
+     *
+     * @return identifiants générés, dans l'ordre des segments
+     */
+    public List<String> addIndex(EmbeddingIndex index) {
+        List<String> generated = generateIds(index.size());
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < index.size(); i++) {
+                insert(generated.get(i), index.vectors(), i * index.dimension(), index.dimension(), index.segment(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+        return generated;
+    }
+
+    /**
+     * Remplacement atomique : supprime les identifiants donnés puis ajoute les segments de l'index,
+     * sous un seul verrou d'écriture (une seule nouvelle version). Une recherche concurrente
+     * voit soit l'ancien contenu, soit le nouveau, jamais un mélange des deux.
+     *
+     * @return identifiants générés pour les segments ajoutés, dans l'ordre de l'index
+     */
+    public List<String> replace(Collection<String> idsToRemove, EmbeddingIndex additions) {
+        List<String> generated = generateIds(additions.size());
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer row = rowById.get(id);
+                if (row != null) {
+                    removeRow(row);
+                }
+            }
+            for (int i = 0; i < additions.size(); i++) {
+                insert(generated.get(i), additions.vectors(), i * additions.dimension(), additions.dimension(),
+                        additions.segment(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+        return generated;
+    }
+
+    /**
+     * Copie le vecteur (normalisé) d'un segment du store dans target, à partir de targetOffset.
+     *
+     * @return false si l'identifiant n'est plus dans le store
+     */
+    public boolean copyVector(String id, float[] target, int targetOffset) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            if (row == null) {
+                return false;
+            }
+            System.arraycopy(vectors, row * dimension, target, targetOffset, dimension);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> generated = generateIds(embeddings.size());
+        addAll(generated, embeddings, null);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("ids, embeddings et segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                insert(ids.get(i), vector, 0, vector.length, embedded == null ? null : embedded.get(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer row = rowById.get(id);
+                if (row != null) {
+                    removeRow(row);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int row = size - 1; row >= 0; row--) {
+                if (segments[row] != null && filter.test(segments[row].metadata())) {
+                    removeRow(row);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(segments, 0, size, null);
+            rowById.clear();
+            size = 0;
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        long start = System.nanoTime();
+        try {
+            return doSearch(request);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.STORE_SEARCH, start);
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> doSearch(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalizedCopy(request.queryEmbedding().vector());
+        // relevance = (cos + 1) / 2  ⇔  cos = 2 * relevance - 1
+        float minCosine = (float) (2 * request.minScore() - 1);
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            checkDimension(query.length);
+
+            ScoredHeap heap = HEAPS.get().reset(request.maxResults());
+            for (int row = 0, offset = 0; row < size; row++, offset += dimension) {
+                float score = VectorMath.dot(query, 0, vectors, offset, dimension);
+                if (score < minCosine || (heap.isFull() && score <= heap.minScore())) {
+                    continue;
+                }
+                if (filter != null && segments[row] != null && !filter.test(segments[row].metadata())) {
+                    continue;
+                }
+                heap.offer(row, score);
+            }
+
+            int[] rows = new int[heap.size()];
+            float[] scores = new float[heap.size()];
+            int count = heap.drainDescending(rows, scores);
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                float[] vector = Arrays.copyOfRange(vectors, row * dimension, (row + 1) * dimension);
+                matches.add(new EmbeddingMatch<>(
+                        RelevanceScore.fromCosineSimilarity(scores[i]),
+                        ids[row],
+                        Embedding.from(vector),
+                        segments[row]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ----- gestion du tableau contigu (appelée sous verrou d'écriture) -----
+
+    private void insert(String id, float[] source, int sourceOffset, int length, TextSegment segment) {
+        if (dimension < 0) {
+            dimension = length;
+        }
+        checkDimension(length);
+
+        Integer existing = rowById.get(id);
+        if (existing != null) {
+            removeRow(existing);
+        }
+        ensureCapacity(size + 1);
+
+        int offset = size * dimension;
+        System.arraycopy(source, sourceOffset, vectors, offset, dimension);
+        VectorMath.normalize(vectors, offset, dimension);
+        ids[size] = id;
+        segments[size] = segment;
+        rowById.put(id, size);
+        size++;
+    }
+
+    /** Supprime une ligne en déplaçant la dernière à sa place. */
+    private void removeRow(int row) {
+        int last = size - 1;
+        rowById.remove(ids[row]);
+        if (row != last) {
+            System.arraycopy(vectors, last * dimension, vectors, row * dimension, dimension);
+            ids[row] = ids[last];
+            segments[row] = segments[last];
+            rowById.put(ids[row], row);
+        }
+        ids[last] = null;
+        segments[last] = null;
+        size--;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (ids.length >= rows) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, Math.max(rows, ids.length * 2));
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+    }
+
+    private void checkDimension(int length) {
+        if (length != dimension) {
+            throw new IllegalArgumentException("Dimension " + length + " incompatible avec le store (" + dimension + ")");
+        }
+    }
+}
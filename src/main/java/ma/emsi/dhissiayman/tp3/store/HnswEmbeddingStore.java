@@ -0,0 +1,731 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.SegmentCodec;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore approximatif basé sur un graphe HNSW
+ * (Hierarchical Navigable Small World, Malkov &amp; Yashunin).
+ *
+ * Au lieu de comparer la requête à tous les segments (comme {@link DenseVectorStore}),
+ * la recherche descend un graphe à plusieurs niveaux et n'évalue que quelques
+ * centaines de voisins, quel que soit le nombre de segments.
+ *
+ * Paramètres :
+ *  - m              : nombre de voisins par nœud (2 * m au niveau 0) ; plus grand = meilleur rappel, plus de mémoire
+ *  - efConstruction : largeur de la recherche pendant l'insertion ; plus grand = graphe de meilleure qualité
+ *  - efSearch       : largeur de la recherche à l'interrogation ; réglable à chaud avec {@link #efSearch(int)}
+ *
+ * Les insertions sont incrémentales (pas de reconstruction) ; les suppressions
+ * marquent les nœuds comme supprimés (ils restent traversables mais ne sont plus renvoyés).
+ * Le graphe complet peut être enregistré ({@link #save(Path)}) puis rechargé ({@link #load(Path)}) :
+ * {@link #loadOrBuild(Path, EmbeddingIndex, Builder)} évite de le reconstruire à chaque démarrage.
+ *
+ * Les scores renvoyés suivent la même convention qu'InMemoryEmbeddingStore.
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment>, VersionedStore {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int FORMAT_VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int m;
+    private final int maxConnections0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long version;
+    private final ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+
+    private int dimension = -1;
+    private int size;
+    private int deletedCount;
+    private float[] vectors = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private boolean[] deleted = new boolean[0];
+    /** links[nœud][niveau] = {nombre de voisins, voisin1, voisin2, ...} */
+    private int[][][] links = new int[0][][];
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private HnswEmbeddingStore(Builder builder) {
+        this.m = builder.m;
+        this.maxConnections0 = 2 * builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.levelMultiplier = 1 / Math.log(builder.m);
+        this.random = new Random(builder.seed);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Store HNSW initialisé avec tous les segments d'un index d'ingestion.
+     */
+    public static HnswEmbeddingStore of(EmbeddingIndex index, Builder builder) {
+        HnswEmbeddingStore store = builder.build();
+        store.addIndex(index);
+        return store;
+    }
+
+    /**
+     * Graphe rechargé depuis file s'il a été construit avec les mêmes paramètres (m, efConstruction)
+     * et contient tous les segments de l'index ; sinon construit depuis l'index puis enregistré dans file.
+     * Le nom du fichier doit identifier le contenu de l'index (ex. clé du cache d'ingestion).
+     * Un fichier illisible est ignoré et un échec d'écriture n'est pas bloquant.
+     */
+    public static HnswEmbeddingStore loadOrBuild(Path file, EmbeddingIndex index, Builder builder) {
+        if (Files.isRegularFile(file)) {
+            try {
+                HnswEmbeddingStore loaded = load(file);
+                if (loaded.m == builder.m && loaded.efConstruction == builder.efConstruction
+                        && loaded.size == index.size() && loaded.dimension == index.dimension()) {
+                    loaded.efSearch(builder.efSearch);
+                    System.out.println("Graphe HNSW chargé depuis " + file.getFileName() + " : "
+                            + loaded.size() + " segments.");
+                    return loaded;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Graphe HNSW illisible (" + e.getMessage() + "), reconstruction.");
+            }
+        }
+        HnswEmbeddingStore store = of(index, builder);
+        try {
+            store.save(file);
+        } catch (IOException e) {
+            System.out.println("Graphe HNSW non enregistré (" + e.getMessage() + ")");
+        }
+        return store;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    public int efConstruction() {
+        return efConstruction;
+    }
+
+    public int efSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Change la largeur de recherche (compromis rappel / latence) sans reconstruire le graphe.
+     */
+    public void efSearch(int efSearch) {
+        if (efSearch <= 0) {
+            throw new IllegalArgumentException("efSearch doit être > 0 : " + efSearch);
+        }
+        this.efSearch = efSearch;
+    }
+
+    /** Nombre de segments actifs (hors suppressions). */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> addIndex(EmbeddingIndex index) {
+        List<String> generated = generateIds(index.size());
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < index.size(); i++) {
+                insert(generated.get(i), index.vectors(), i * index.dimension(), index.dimension(), index.segment(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+        return generated;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> generated = generateIds(embeddings.size());
+        addAll(generated, embeddings, null);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("ids, embeddings et segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                insert(ids.get(i), vector, 0, vector.length, embedded == null ? null : embedded.get(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    markDeleted(node);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node] && segments[node] != null && filter.test(segments[node].metadata())) {
+                    nodeById.remove(ids[node]);
+                    markDeleted(node);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            deletedCount = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+            nodeById.clear();
+            Arrays.fill(ids, null);
+            Arrays.fill(segments, null);
+            Arrays.fill(links, null);
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        long start = System.nanoTime();
+        try {
+            return doSearch(request);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.STORE_SEARCH, start);
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> doSearch(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalizedCopy(request.queryEmbedding().vector());
+        float minCosine = (float) (2 * request.minScore() - 1);
+        Filter filter = request.filter();
+        int maxResults = request.maxResults();
+
+        lock.readLock().lock();
+        try {
+            if (size - deletedCount == 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Dimension " + query.length + " incompatible avec le store (" + dimension + ")");
+            }
+
+            SearchContext context = contexts.get();
+            int node = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                node = greedyClosest(query, 0, node, level);
+            }
+
+            // On élargit la recherche quand une partie des résultats risque d'être écartée
+            int ef = Math.max(efSearch, maxResults);
+            if (filter != null || deletedCount > 0) {
+                ef = Math.min(size, ef * 4);
+            }
+            searchLayer(query, 0, node, ef, 0, context);
+
+            ScoredHeap results = context.results;
+            int[] nodes = new int[results.size()];
+            float[] scores = new float[results.size()];
+            int count = results.drainDescending(nodes, scores);
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(Math.min(count, maxResults));
+            for (int i = 0; i < count && matches.size() < maxResults; i++) {
+                int candidate = nodes[i];
+                if (scores[i] < minCosine) {
+                    break;
+                }
+                if (deleted[candidate]) {
+                    continue;
+                }
+                if (filter != null && segments[candidate] != null && !filter.test(segments[candidate].metadata())) {
+                    continue;
+                }
+                float[] vector = Arrays.copyOfRange(vectors, candidate * dimension, (candidate + 1) * dimension);
+                matches.add(new EmbeddingMatch<>(
+                        RelevanceScore.fromCosineSimilarity(scores[i]),
+                        ids[candidate],
+                        Embedding.from(vector),
+                        segments[candidate]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Construction du graphe (sous verrou d'écriture)
+    // ---------------------------------------------------------
+
+    private void insert(String id, float[] source, int sourceOffset, int length, TextSegment segment) {
+        if (dimension < 0) {
+            dimension = length;
+        }
+        if (length != dimension) {
+            throw new IllegalArgumentException("Dimension " + length + " incompatible avec le store (" + dimension + ")");
+        }
+        Integer existing = nodeById.get(id);
+        if (existing != null) {
+            markDeleted(existing);
+        }
+
+        ensureCapacity(size + 1);
+        int node = size++;
+        int offset = node * dimension;
+        System.arraycopy(source, sourceOffset, vectors, offset, dimension);
+        VectorMath.normalize(vectors, offset, dimension);
+        ids[node] = id;
+        segments[node] = segment;
+        deleted[node] = false;
+        nodeById.put(id, node);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxConnections(l) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vectors, offset, current, l);
+        }
+
+        SearchContext context = contexts.get();
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            searchLayer(vectors, offset, current, efConstruction, l, context);
+            int[] candidates = new int[context.results.size()];
+            float[] scores = new float[context.results.size()];
+            int count = context.results.drainDescending(candidates, scores);
+            current = candidates[0];
+
+            int[] selected = selectNeighbors(candidates, scores, count, m);
+            int[] own = links[node][l];
+            for (int neighbor : selected) {
+                own[++own[0]] = neighbor;
+                connect(neighbor, node, l);
+            }
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /** Ajoute le lien neighbor → node, en élaguant la liste de neighbor si elle déborde. */
+    private void connect(int neighbor, int node, int level) {
+        int[] list = links[neighbor][level];
+        int max = maxConnections(level);
+        if (list[0] < max) {
+            list[++list[0]] = node;
+            return;
+        }
+
+        int count = list[0] + 1;
+        int[] candidates = new int[count];
+        float[] scores = new float[count];
+        ScoredHeap heap = new ScoredHeap(count);
+        int neighborOffset = neighbor * dimension;
+        for (int i = 1; i <= list[0]; i++) {
+            heap.offer(list[i], similarity(vectors, neighborOffset, list[i]));
+        }
+        heap.offer(node, similarity(vectors, neighborOffset, node));
+        heap.drainDescending(candidates, scores);
+
+        int[] kept = selectNeighbors(candidates, scores, count, max);
+        list[0] = kept.length;
+        System.arraycopy(kept, 0, list, 1, kept.length);
+    }
+
+    /**
+     * Heuristique de sélection HNSW : un candidat n'est retenu que s'il est plus proche
+     * de la cible que de tous les voisins déjà retenus (diversité des directions).
+     * Les places restantes sont complétées avec les meilleurs candidats écartés.
+     *
+     * @param candidates candidats triés par similarité décroissante avec la cible
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int count, int max) {
+        int[] selected = new int[Math.min(max, count)];
+        boolean[] taken = new boolean[count];
+        int n = 0;
+        for (int i = 0; i < count && n < selected.length; i++) {
+            boolean diverse = true;
+            int offset = candidates[i] * dimension;
+            for (int j = 0; j < n; j++) {
+                if (similarity(vectors, offset, selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[n++] = candidates[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && n < selected.length; i++) {
+            if (!taken[i]) {
+                selected[n++] = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    // ---------------------------------------------------------
+    // Parcours du graphe
+    // ---------------------------------------------------------
+
+    private int greedyClosest(float[] query, int queryOffset, int start, int level) {
+        int current = start;
+        float best = similarity(query, queryOffset, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float score = similarity(query, queryOffset, list[i]);
+                if (score > best) {
+                    best = score;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Recherche "best-first" sur un niveau ; les ef meilleurs nœuds trouvés
+     * sont laissés dans context.results.
+     */
+    private void searchLayer(float[] query, int queryOffset, int entry, int ef, int level, SearchContext context) {
+        context.startVisit(size);
+        ScoredHeap candidates = context.candidates.reset(0);
+        ScoredHeap results = context.results.reset(ef);
+
+        float entryScore = similarity(query, queryOffset, entry);
+        context.visit(entry);
+        candidates.add(entry, -entryScore);
+        results.offer(entry, entryScore);
+
+        while (candidates.size() > 0) {
+            int current = candidates.minId();
+            float currentScore = -candidates.minScore();
+            candidates.poll();
+            if (results.isFull() && currentScore < results.minScore()) {
+                break;
+            }
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbor = list[i];
+                if (!context.visit(neighbor)) {
+                    continue;
+                }
+                float score = similarity(query, queryOffset, neighbor);
+                if (!results.isFull() || score > results.minScore()) {
+                    candidates.add(neighbor, -score);
+                    results.offer(neighbor, score);
+                }
+            }
+        }
+    }
+
+    private float similarity(float[] query, int queryOffset, int node) {
+        return VectorMath.dot(query, queryOffset, vectors, node * dimension, dimension);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? maxConnections0 : m;
+    }
+
+    private void markDeleted(int node) {
+        if (!deleted[node]) {
+            deleted[node] = true;
+            deletedCount++;
+        }
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (ids.length >= nodes) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, Math.max(nodes, ids.length * 2));
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    // ---------------------------------------------------------
+    // Persistance
+    // ---------------------------------------------------------
+
+    /**
+     * Enregistre le graphe, les vecteurs et les segments dans un fichier binaire.
+     */
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(m);
+                out.writeInt(efConstruction);
+                out.writeInt(efSearch);
+                out.writeInt(dimension);
+                out.writeInt(size);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                for (int i = 0; i < size * dimension; i++) {
+                    out.writeFloat(vectors[i]);
+                }
+                for (int node = 0; node < size; node++) {
+                    SegmentCodec.writeString(out, ids[node]);
+                    out.writeBoolean(deleted[node]);
+                    out.writeBoolean(segments[node] != null);
+                    if (segments[node] != null) {
+                        SegmentCodec.write(out, segments[node]);
+                    }
+                    out.writeInt(links[node].length);
+                    for (int[] list : links[node]) {
+                        for (int i = 0; i <= list[0]; i++) {
+                            out.writeInt(list[i]);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recharge un graphe enregistré par {@link #save(Path)} (fichier lu par memory mapping).
+     */
+    public static HnswEmbeddingStore load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                throw new IOException("Fichier HNSW invalide : " + file);
+            }
+            HnswEmbeddingStore store = builder()
+                    .m(in.getInt())
+                    .efConstruction(in.getInt())
+                    .efSearch(in.getInt())
+                    .build();
+            store.read(in);
+            return store;
+        }
+    }
+
+    private void read(ByteBuffer in) {
+        dimension = in.getInt();
+        int count = in.getInt();
+        entryPoint = in.getInt();
+        maxLevel = in.getInt();
+
+        ensureCapacity(count);
+        in.asFloatBuffer().get(vectors, 0, count * dimension);
+        in.position(in.position() + count * dimension * Float.BYTES);
+
+        for (int node = 0; node < count; node++) {
+            ids[node] = SegmentCodec.readString(in);
+            deleted[node] = in.get() != 0;
+            segments[node] = in.get() != 0 ? SegmentCodec.read(in) : null;
+            int levels = in.getInt();
+            links[node] = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int[] list = new int[maxConnections(l) + 1];
+                list[0] = in.getInt();
+                for (int i = 1; i <= list[0]; i++) {
+                    list[i] = in.getInt();
+                }
+                links[node][l] = list;
+            }
+            if (deleted[node]) {
+                deletedCount++;
+            } else {
+                nodeById.put(ids[node], node);
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Tableaux de travail d'un thread : tas des candidats / résultats
+     * et marquage des nœuds visités par numéro de génération (pas de remise à zéro).
+     */
+    private static final class SearchContext {
+        final ScoredHeap candidates = new ScoredHeap(64);
+        final ScoredHeap results = new ScoredHeap(64);
+        int[] visited = new int[0];
+        int generation;
+
+        void startVisit(int nodes) {
+            if (visited.length < nodes) {
+                visited = Arrays.copyOf(visited, Math.max(nodes, visited.length * 2));
+            }
+            if (++generation == 0) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+
+        /** Marque le nœud ; retourne false s'il était déjà visité. */
+        boolean visit(int node) {
+            if (visited[node] == generation) {
+                return false;
+            }
+            visited[node] = generation;
+            return true;
+        }
+    }
+
+    public static final class Builder {
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private long seed = 42;
+
+        private Builder() {
+        }
+
+        public Builder m(int m) {
+            if (m < 2) {
+                throw new IllegalArgumentException("m doit être >= 2 : " + m);
+            }
+            this.m = m;
+            return this;
+        }
+
+        public Builder efConstruction(int efConstruction) {
+            if (efConstruction <= 0) {
+                throw new IllegalArgumentException("efConstruction doit être > 0 : " + efConstruction);
+            }
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        public Builder efSearch(int efSearch) {
+            if (efSearch <= 0) {
+                throw new IllegalArgumentException("efSearch doit être > 0 : " + efSearch);
+            }
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /** Graine du tirage des niveaux (graphe reproductible). */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public HnswEmbeddingStore build() {
+            return new HnswEmbeddingStore(this);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore quantifié : les vecteurs ne sont pas gardés en float32.
+ *
+ * Modes :
+ *  - INT8   : chaque composante du vecteur normalisé est codée sur un octet signé
+ *             (échelle propre à chaque vecteur). Le score est le produit scalaire
+ *             entre la requête en float et le code int8 (SIMD via {@link VectorMath#int8Dot})
+ *             → 4x moins de mémoire.
+ *  - BINARY : 1 bit par composante (signe). Un premier passage par distance de Hamming
+ *             (XOR + bitCount sur des long) sélectionne rescoreFactor * k candidats, qui sont
+ *             ensuite re-scorés avec leur code int8 (même calcul qu'en mode INT8).
+ *
+ * Pour 384 dimensions : 1536 octets/vecteur en float32, 388 octets en INT8,
+ * 436 octets en BINARY (48 octets de bits + le code int8). En BINARY, seuls les 48 octets
+ * de bits sont parcourus pour chaque segment ; le code int8 n'est lu que pour les candidats re-scorés.
+ *
+ * Les scores suivent la convention d'InMemoryEmbeddingStore (RelevanceScore.fromCosineSimilarity).
+ */
+public class QuantizedVectorStore implements EmbeddingStore<TextSegment>, VersionedStore {
+
+    public enum Mode {
+        INT8,
+        BINARY
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final ThreadLocal<ScoredHeap> HEAPS = ThreadLocal.withInitial(() -> new ScoredHeap(16));
+
+    private final Mode mode;
+    private final int rescoreFactor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long version;
+
+    private int dimension = -1;
+    private int words;
+    private int size;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] bits = new long[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private final Map<String, Integer> rowById = new HashMap<>();
+
+    public QuantizedVectorStore(Mode mode) {
+        this(mode, 10);
+    }
+
+    /**
+     * @param rescoreFactor en mode BINARY, nombre de candidats re-scorés = rescoreFactor * maxResults
+     */
+    public QuantizedVectorStore(Mode mode, int rescoreFactor) {
+        if (rescoreFactor < 1) {
+            throw new IllegalArgumentException("rescoreFactor doit être >= 1 : " + rescoreFactor);
+        }
+        this.mode = mode;
+        this.rescoreFactor = rescoreFactor;
+    }
+
+    public static QuantizedVectorStore of(EmbeddingIndex index, Mode mode) {
+        QuantizedVectorStore store = new QuantizedVectorStore(mode);
+        store.addIndex(index);
+        return store;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Octets occupés par vecteur (hors identifiant et segment).
+     */
+    public int bytesPerVector() {
+        return (mode == Mode.BINARY ? words * Long.BYTES : 0) + dimension + Float.BYTES;
+    }
+
+    public List<String> addIndex(EmbeddingIndex index) {
+        List<String> generated = generateIds(index.size());
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < index.size(); i++) {
+                insert(generated.get(i), index.vectors(), i * index.dimension(), index.dimension(), index.segment(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+        return generated;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> generated = generateIds(embeddings.size());
+        addAll(generated, embeddings, null);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("ids, embeddings et segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                insert(ids.get(i), vector, 0, vector.length, embedded == null ? null : embedded.get(i));
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer row = rowById.get(id);
+                if (row != null) {
+                    removeRow(row);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int row = size - 1; row >= 0; row--) {
+                if (segments[row] != null && filter.test(segments[row].metadata())) {
+                    removeRow(row);
+                }
+            }
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(segments, 0, size, null);
+            rowById.clear();
+            size = 0;
+        } finally {
+            version++;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        long start = System.nanoTime();
+        try {
+            return doSearch(request);
+        } finally {
+            StageMetrics.global().record(StageMetrics.Stage.STORE_SEARCH, start);
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> doSearch(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalizedCopy(request.queryEmbedding().vector());
+        float minCosine = (float) (2 * request.minScore() - 1);
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Dimension " + query.length + " incompatible avec le store (" + dimension + ")");
+            }
+
+            ScoredHeap heap = HEAPS.get();
+            if (mode == Mode.BINARY) {
+                int[] candidates = hammingCandidates(query, request.maxResults() * rescoreFactor, filter, heap);
+                heap.reset(request.maxResults());
+                for (int row : candidates) {
+                    offer(heap, int8Score(query, row), row, minCosine);
+                }
+            } else {
+                heap.reset(request.maxResults());
+                for (int row = 0; row < size; row++) {
+                    if (filter != null && segments[row] != null && !filter.test(segments[row].metadata())) {
+                        continue;
+                    }
+                    offer(heap, int8Score(query, row), row, minCosine);
+                }
+            }
+
+            int[] rows = new int[heap.size()];
+            float[] scores = new float[heap.size()];
+            int count = heap.drainDescending(rows, scores);
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                matches.add(new EmbeddingMatch<>(
+                        RelevanceScore.fromCosineSimilarity(scores[i]),
+                        ids[row],
+                        Embedding.from(storedVector(row)),
+                        segments[row]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Premier passage BINARY : les lignes dont le code binaire est le plus proche de la requête.
+     */
+    private int[] hammingCandidates(float[] query, int count, Filter filter, ScoredHeap heap) {
+        long[] queryBits = new long[words];
+        binarize(query, 0, queryBits, 0);
+
+        heap.reset(count);
+        for (int row = 0; row < size; row++) {
+            int distance = 0;
+            int offset = row * words;
+            for (int w = 0; w < words; w++) {
+                distance += Long.bitCount(queryBits[w] ^ bits[offset + w]);
+            }
+            float score = -distance;
+            if (heap.isFull() && score <= heap.minScore()) {
+                continue;
+            }
+            if (filter != null && segments[row] != null && !filter.test(segments[row].metadata())) {
+                continue;
+            }
+            heap.offer(row, score);
+        }
+        int[] rows = new int[heap.size()];
+        heap.drainDescending(rows, new float[rows.length]);
+        return rows;
+    }
+
+    /** Cosinus approché : produit scalaire entre la requête normalisée et le code int8 de la ligne. */
+    private float int8Score(float[] query, int row) {
+        return VectorMath.int8Dot(query, 0, codes, row * dimension, dimension) * scales[row];
+    }
+
+    private static void offer(ScoredHeap heap, float score, int row, float minCosine) {
+        if (score >= minCosine) {
+            heap.offer(row, score);
+        }
+    }
+
+    /** Vecteur renvoyé dans les résultats : code int8 déquantifié (aucun float32 n'est gardé). */
+    private float[] storedVector(int row) {
+        int offset = row * dimension;
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = codes[offset + i] * scales[row];
+        }
+        return vector;
+    }
+
+    // ----- écriture (sous verrou d'écriture) -----
+
+    private void insert(String id, float[] source, int sourceOffset, int length, TextSegment segment) {
+        if (dimension < 0) {
+            dimension = length;
+            words = (length + 63) / 64;
+        }
+        if (length != dimension) {
+            throw new IllegalArgumentException("Dimension " + length + " incompatible avec le store (" + dimension + ")");
+        }
+        Integer existing = rowById.get(id);
+        if (existing != null) {
+            removeRow(existing);
+        }
+        ensureCapacity(size + 1);
+
+        float[] vector = Arrays.copyOfRange(source, sourceOffset, sourceOffset + length);
+        VectorMath.normalize(vector, 0, length);
+
+        int offset = size * dimension;
+        if (mode == Mode.BINARY) {
+            binarize(vector, 0, bits, size * words);
+        }
+        float maxAbs = 0;
+        for (float component : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(component));
+        }
+        float scale = maxAbs == 0 ? 1 : maxAbs / 127f;
+        for (int i = 0; i < dimension; i++) {
+            codes[offset + i] = (byte) Math.round(vector[i] / scale);
+        }
+        scales[size] = scale;
+
+        ids[size] = id;
+        segments[size] = segment;
+        rowById.put(id, size);
+        size++;
+    }
+
+    /** Un bit à 1 par composante positive. */
+    private void binarize(float[] vector, int offset, long[] target, int targetOffset) {
+        Arrays.fill(target, targetOffset, targetOffset + words, 0L);
+        for (int i = 0; i < dimension; i++) {
+            if (vector[offset + i] > 0) {
+                target[targetOffset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    private void removeRow(int row) {
+        int last = size - 1;
+        rowById.remove(ids[row]);
+        if (row != last) {
+            if (mode == Mode.BINARY) {
+                System.arraycopy(bits, last * words, bits, row * words, words);
+            }
+            System.arraycopy(codes, last * dimension, codes, row * dimension, dimension);
+            scales[row] = scales[last];
+            ids[row] = ids[last];
+            segments[row] = segments[last];
+            rowById.put(ids[row], row);
+        }
+        ids[last] = null;
+        segments[last] = null;
+        size--;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (ids.length >= rows) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, Math.max(rows, ids.length * 2));
+        if (mode == Mode.BINARY) {
+            bits = Arrays.copyOf(bits, capacity * words);
+        }
+        codes = Arrays.copyOf(codes, capacity * dimension);
+        scales = Arrays.copyOf(scales, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+    }
+}
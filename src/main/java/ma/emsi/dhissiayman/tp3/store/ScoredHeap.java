@@ -0,0 +1,156 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+import java.util.Arrays;
+
+/**
+ * Tas binaire (min-heap) de couples (score, identifiant entier), stocké dans deux
+ * tableaux primitifs : aucune allocation par candidat pendant une recherche.
+ *
+ * Deux usages, à ne pas mélanger sur une même instance :
+ *  - top-k borné : {@link #offer} remplace la racine (plus petit score retenu)
+ *    quand un meilleur candidat arrive ;
+ *  - file de priorité non bornée : {@link #add} / {@link #poll}
+ *    (pour obtenir le meilleur score en premier, insérer l'opposé du score).
+ */
+final class ScoredHeap {
+
+    private int[] ids;
+    private float[] scores;
+    private int size;
+    private int capacity;
+
+    ScoredHeap(int capacity) {
+        this.ids = new int[Math.max(1, capacity)];
+        this.scores = new float[Math.max(1, capacity)];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Vide le tas et fixe une nouvelle capacité (les tableaux ne sont réalloués que s'ils sont trop petits).
+     */
+    ScoredHeap reset(int capacity) {
+        if (ids.length < capacity) {
+            ids = new int[capacity];
+            scores = new float[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Plus petit score retenu (racine). */
+    float minScore() {
+        return scores[0];
+    }
+
+    /** Identifiant de la racine. */
+    int minId() {
+        return ids[0];
+    }
+
+    /**
+     * Propose un candidat ; retourne true s'il a été retenu.
+     */
+    boolean offer(int id, float score) {
+        if (capacity == 0) {
+            return false;
+        }
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (score <= scores[0]) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Insertion sans borne (les tableaux grandissent si nécessaire).
+     */
+    void add(int id, float score) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        capacity = Math.max(capacity, size + 1);
+        ids[size] = id;
+        scores[size] = score;
+        siftUp(size++);
+    }
+
+    /** Retire la racine (plus petit score). */
+    void poll() {
+        size--;
+        if (size > 0) {
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Vide le tas dans les tableaux fournis, du meilleur au moins bon score.
+     *
+     * @return nombre d'éléments écrits
+     */
+    int drainDescending(int[] outIds, float[] outScores) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            outIds[i] = ids[0];
+            outScores[i] = scores[0];
+            poll();
+        }
+        return count;
+    }
+
+    private void siftUp(int i) {
+        int id = ids[i];
+        float score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            ids[i] = ids[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    private void siftDown(int i) {
+        int id = ids[i];
+        float score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+}
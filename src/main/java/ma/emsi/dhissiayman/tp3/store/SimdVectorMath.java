@@ -0,0 +1,59 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implémentation SIMD (API Vector du JDK) des opérations de {@link VectorMath}.
+ * Cette classe n'est chargée que si le module jdk.incubator.vector est présent.
+ */
+final class SimdVectorMath {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /** Octets chargés d'un coup pour int8Dot : au moins 64 bits, puis convertis en PARTS vecteurs float. */
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, SPECIES.length() * Byte.SIZE)));
+    private static final int PARTS = BYTE_SPECIES.length() / SPECIES.length();
+
+    private SimdVectorMath() {
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    static float int8Dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int upper = BYTE_SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += BYTE_SPECIES.length()) {
+            ByteVector vb = ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i);
+            for (int part = 0; part < PARTS; part++) {
+                FloatVector vf = (FloatVector) vb.convertShape(VectorOperators.B2F, SPECIES, part);
+                FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i + part * SPECIES.length());
+                acc = va.fma(vf, acc);
+            }
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
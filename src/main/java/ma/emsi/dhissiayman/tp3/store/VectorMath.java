@@ -0,0 +1,100 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+/**
+ * Calculs vectoriels utilisés par les stores (produit scalaire, normalisation).
+ *
+ * Si le module incubateur jdk.incubator.vector est chargé
+ * (option JVM : --add-modules jdk.incubator.vector), le produit scalaire
+ * (float × float ou float × int8) passe par l'API Vector du JDK (SIMD). Sinon on utilise une boucle scalaire
+ * déroulée. La propriété système "rag.simd.disabled=true" force la version scalaire.
+ */
+public final class VectorMath {
+
+    private static final boolean SIMD = !Boolean.getBoolean("rag.simd.disabled")
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorMath() {
+    }
+
+    /**
+     * true si le produit scalaire utilise l'API Vector.
+     */
+    public static boolean simdEnabled() {
+        return SIMD;
+    }
+
+    /**
+     * Produit scalaire de a[aOffset .. aOffset+length[ et b[bOffset .. bOffset+length[.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (SIMD) {
+            return SimdVectorMath.dot(a, aOffset, b, bOffset, length);
+        }
+        return scalarDot(a, aOffset, b, bOffset, length);
+    }
+
+    static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Produit scalaire de a[aOffset .. aOffset+length[ (float) et des codes int8 b[bOffset .. bOffset+length[,
+     * sans facteur d'échelle.
+     */
+    public static float int8Dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        if (SIMD) {
+            return SimdVectorMath.int8Dot(a, aOffset, b, bOffset, length);
+        }
+        return scalarInt8Dot(a, aOffset, b, bOffset, length);
+    }
+
+    static float scalarInt8Dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Normalise en place v[offset .. offset+length[ (norme L2 = 1).
+     * Un vecteur nul est laissé tel quel.
+     */
+    public static void normalize(float[] v, int offset, int length) {
+        float norm = (float) Math.sqrt(dot(v, offset, v, offset, length));
+        if (norm == 0f) {
+            return;
+        }
+        float inverse = 1f / norm;
+        for (int i = 0; i < length; i++) {
+            v[offset + i] *= inverse;
+        }
+    }
+
+    /**
+     * Copie normalisée d'un vecteur.
+     */
+    public static float[] normalizedCopy(float[] v) {
+        float[] copy = v.clone();
+        normalize(copy, 0, copy.length);
+        return copy;
+    }
+}
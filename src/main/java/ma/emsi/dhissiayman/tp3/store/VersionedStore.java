@@ -0,0 +1,11 @@
+package ma.emsi.dhissiayman.tp3.store;
+
+/**
+ * Store dont le contenu porte un numéro de version, incrémenté à chaque
+ * ajout ou suppression. Permet aux caches construits au-dessus du store
+ * (réponses, routage...) de savoir qu'ils doivent être invalidés.
+ */
+public interface VersionedStore {
+
+    long version();
+}
@@ -0,0 +1,56 @@
+package ma.emsi.dhissiayman.tp3.stub;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Latence artificielle des services simulés (stubs).
+ *
+ * Distribution log-normale : la plupart des appels sont proches de la médiane,
+ * quelques-uns sont beaucoup plus lents (queue de distribution), comme un vrai
+ * service distant. Le tirage est reproductible (graine fixe).
+ */
+public final class LatencyDistribution {
+
+    private final long medianMillis;
+    private final double sigma;
+    private final Random random;
+
+    private LatencyDistribution(long medianMillis, double sigma, long seed) {
+        if (medianMillis < 0 || sigma < 0) {
+            throw new IllegalArgumentException("médiane et sigma doivent être >= 0 : " + medianMillis + ", " + sigma);
+        }
+        this.medianMillis = medianMillis;
+        this.sigma = sigma;
+        this.random = new Random(seed);
+    }
+
+    /** Latence constante. */
+    public static LatencyDistribution fixed(Duration latency) {
+        return new LatencyDistribution(latency.toMillis(), 0, 0);
+    }
+
+    /**
+     * Latence log-normale.
+     *
+     * @param median médiane des latences
+     * @param sigma  écart-type du logarithme (0.5 : queue modérée, 1.0 : queue lourde)
+     * @param seed   graine du tirage
+     */
+    public static LatencyDistribution logNormal(Duration median, double sigma, long seed) {
+        return new LatencyDistribution(median.toMillis(), sigma, seed);
+    }
+
+    /** Tire la latence du prochain appel. */
+    public synchronized Duration next() {
+        if (sigma == 0) {
+            return Duration.ofMillis(medianMillis);
+        }
+        return Duration.ofMillis(Math.round(medianMillis * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    /** Attend la latence du prochain appel (InterruptedException propagée pour permettre l'abandon). */
+    public void sleep() throws InterruptedException {
+        Thread.sleep(next());
+    }
+}
@@ -0,0 +1,179 @@
+package ma.emsi.dhissiayman.tp3.stub;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.exception.InternalServerException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ChatModel local, sans réseau ni clé API, pour tester le comportement sous charge et en cas de panne.
+ *
+ * Chaque appel :
+ *  - au-delà de capacity appels simultanés → RateLimitException immédiate (429 simulé, service saturé)
+ *  - sinon, attend une latence tirée d'une {@link LatencyDistribution}
+ *  - échoue avec la probabilité failureRate (InternalServerException, 503 simulé)
+ *  - sinon répond "Réponse simulée à : <question>" avec un nombre de tokens estimé
+ *
+ * Un appel interrompu pendant l'attente (délai dépassé côté client) lève une exception.
+ * Le taux d'échec peut être changé en cours de route pour simuler une panne puis un rétablissement.
+ */
+public class StubChatModel implements ChatModel {
+
+    private final LatencyDistribution latency;
+    private final int capacity;
+    private final Random random;
+    private final List<ChatModelListener> listeners;
+    private volatile double failureRate;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private StubChatModel(Builder builder) {
+        this.latency = builder.latency;
+        this.capacity = builder.capacity;
+        this.random = new Random(builder.seed);
+        this.listeners = List.copyOf(builder.listeners);
+        this.failureRate = builder.failureRate;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest request) {
+        calls.increment();
+        int concurrent = inFlight.incrementAndGet();
+        try {
+            if (concurrent > capacity) {
+                rateLimited.increment();
+                throw new RateLimitException("429 simulé : " + concurrent + " appels simultanés (capacité "
+                        + capacity + ")");
+            }
+            try {
+                latency.sleep();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Appel au LLM simulé interrompu", e);
+            }
+            if (nextDouble() < failureRate) {
+                failures.increment();
+                throw new InternalServerException("503 simulé : service indisponible");
+            }
+            String answer = "Réponse simulée à : " + lastUserText(request.messages());
+            return ChatResponse.builder()
+                    .aiMessage(AiMessage.from(answer))
+                    .tokenUsage(new TokenUsage(TokenBudgetChatMemory.estimate(request.messages()),
+                            TokenBudgetChatMemory.estimate(answer)))
+                    .finishReason(FinishReason.STOP)
+                    .build();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return listeners;
+    }
+
+    /** Change la probabilité d'échec des prochains appels (0 : jamais, 1 : toujours). */
+    public void failureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /** Nombre d'appels reçus (y compris les tentatives refusées ou abandonnées). */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /** Nombre d'appels refusés pour saturation (429 simulés). */
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    /** Nombre d'échecs tirés au hasard (503 simulés). */
+    public long failures() {
+        return failures.sum();
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private static String lastUserText(List<ChatMessage> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage user && user.hasSingleText()) {
+                return user.singleText();
+            }
+        }
+        return "";
+    }
+
+    public static final class Builder {
+        private LatencyDistribution latency = LatencyDistribution.fixed(Duration.ofMillis(200));
+        private int capacity = Integer.MAX_VALUE;
+        private double failureRate;
+        private long seed = 42;
+        private List<ChatModelListener> listeners = List.of();
+
+        private Builder() {
+        }
+
+        /** Latence de chaque appel réussi ou échoué (200 ms fixes par défaut). */
+        public Builder latency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /** Nombre d'appels simultanés au-delà duquel le service répond 429 (illimité par défaut). */
+        public Builder capacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity doit être > 0 : " + capacity);
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /** Probabilité (0..1) qu'un appel échoue avec une erreur 503. */
+        public Builder failureRate(double failureRate) {
+            if (failureRate < 0 || failureRate > 1) {
+                throw new IllegalArgumentException("failureRate doit être dans [0, 1] : " + failureRate);
+            }
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        /** Graine du tirage des échecs. */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /** Listeners appelés à chaque appel, comme pour un vrai modèle (métriques...). */
+        public Builder listeners(List<ChatModelListener> listeners) {
+            this.listeners = listeners;
+            return this;
+        }
+
+        public StubChatModel build() {
+            return new StubChatModel(this);
+        }
+    }
+}
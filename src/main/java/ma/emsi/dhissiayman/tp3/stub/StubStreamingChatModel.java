@@ -0,0 +1,68 @@
+package ma.emsi.dhissiayman.tp3.stub;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variante streaming de {@link StubChatModel}, sans réseau ni clé API.
+ *
+ * Sur un thread virtuel, la réponse complète est obtenue du StubChatModel (latence, 429 et 503 simulés),
+ * puis renvoyée mot par mot, un mot toutes les tokenInterval. Les erreurs du stub arrivent par onError
+ * avant le premier token, comme une erreur HTTP d'un vrai service.
+ */
+public class StubStreamingChatModel implements StreamingChatModel {
+
+    private final StubChatModel model;
+    private final long tokenIntervalNanos;
+    private final List<ChatModelListener> listeners;
+
+    /**
+     * @param model         modèle simulé qui produit la réponse (ses propres listeners ne sont pas appelés)
+     * @param tokenInterval pause entre deux mots envoyés
+     * @param listeners     listeners de ce modèle (métriques...)
+     */
+    public StubStreamingChatModel(StubChatModel model, Duration tokenInterval, List<ChatModelListener> listeners) {
+        if (tokenInterval.isNegative()) {
+            throw new IllegalArgumentException("tokenInterval doit être >= 0 : " + tokenInterval);
+        }
+        this.model = model;
+        this.tokenIntervalNanos = tokenInterval.toNanos();
+        this.listeners = List.copyOf(listeners);
+    }
+
+    @Override
+    public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        Thread.ofVirtual().name("llm-stub-stream").start(() -> {
+            ChatResponse response;
+            try {
+                response = model.doChat(request);
+            } catch (RuntimeException e) {
+                handler.onError(e);
+                return;
+            }
+            String[] words = response.aiMessage().text().split("(?<= )");
+            try {
+                for (String word : words) {
+                    TimeUnit.NANOSECONDS.sleep(tokenIntervalNanos);
+                    handler.onPartialResponse(word);
+                }
+            } catch (InterruptedException e) {
+                handler.onError(new IllegalStateException("Réponse simulée interrompue", e));
+                return;
+            }
+            handler.onCompleteResponse(response);
+        });
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return listeners;
+    }
+}
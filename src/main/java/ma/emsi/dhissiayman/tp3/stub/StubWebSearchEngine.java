@@ -0,0 +1,67 @@
+package ma.emsi.dhissiayman.tp3.stub;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSearchEngine local, sans réseau ni clé API, pour tester le RAG Web.
+ *
+ * Chaque recherche attend une latence tirée d'une {@link LatencyDistribution}
+ * puis renvoie des résultats fictifs qui reprennent les termes de la requête.
+ * Une recherche interrompue pendant l'attente (deadline dépassé) lève une exception,
+ * comme un client HTTP annulé.
+ */
+public class StubWebSearchEngine implements WebSearchEngine {
+
+    private final LatencyDistribution latency;
+    private final int resultsPerSearch;
+    private final LongAdder searches = new LongAdder();
+
+    public StubWebSearchEngine(LatencyDistribution latency) {
+        this(latency, 3);
+    }
+
+    public StubWebSearchEngine(LatencyDistribution latency, int resultsPerSearch) {
+        if (resultsPerSearch <= 0) {
+            throw new IllegalArgumentException("resultsPerSearch doit être > 0 : " + resultsPerSearch);
+        }
+        this.latency = latency;
+        this.resultsPerSearch = resultsPerSearch;
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        searches.increment();
+        try {
+            latency.sleep();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Recherche Web simulée interrompue", e);
+        }
+
+        String terms = request.searchTerms();
+        int count = request.maxResults() == null ? resultsPerSearch : Math.min(resultsPerSearch, request.maxResults());
+        List<WebSearchOrganicResult> results = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            results.add(WebSearchOrganicResult.from(
+                    "Résultat simulé " + i + " : " + terms,
+                    URI.create("https://example.com/stub/" + i),
+                    "Extrait simulé n°" + i + " à propos de « " + terms + " ».",
+                    null));
+        }
+        return WebSearchResults.from(WebSearchInformationResult.from((long) count), results);
+    }
+
+    /** Nombre de recherches reçues (y compris les requêtes hedgées et abandonnées). */
+    public long searches() {
+        return searches.sum();
+    }
+}
@@ -0,0 +1,151 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Rapport rappel / latence de l'index HNSW
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Ingérer les PDF fournis dans /resources (corpus de test)
+ *  - Construire le store exact (DenseVectorStore, parcours complet)
+ *    et plusieurs graphes HNSW (différentes valeurs de M et efSearch)
+ *  - Mesurer pour chaque configuration :
+ *      • le rappel@k : part des k résultats exacts retrouvés par HNSW
+ *      • la latence moyenne d'une recherche (µs)
+ *  - Vérifier l'aller-retour save / load du graphe
+ *
+ * Requêtes utilisées : quelques questions fixes + le début de certains segments du corpus.
+ */
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.store.HnswEmbeddingStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HnswRecallReport {
+
+    private static final int K = 5;
+    private static final int REPETITIONS = 20;
+
+    private static final List<String> QUESTIONS = List.of(
+            "Quelle est la signification de 'RAG' ; à quoi ça sert ?",
+            "À quoi sert LangChain4j ?",
+            "Comment créer un EmbeddingStore ?",
+            "Qu'est-ce qu'un ContentRetriever ?",
+            "Comment fonctionne le routage des requêtes ?",
+            "Qu'est-ce qu'un embedding ?",
+            "Comment découper un document en segments ?",
+            "Quelle est la différence entre un LLM et un modèle d'embeddings ?"
+    );
+
+    public static void main(String[] args) throws IOException {
+
+        // ---------------------------------------------------------
+        // 1) Corpus : tous les PDF fournis
+        // ---------------------------------------------------------
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build();
+        List<EmbeddingIndex> indexes = new ArrayList<>(pipeline.ingestAll(List.of(
+                IngestionPipeline.resourcePath("langchain4j.pdf"),
+                IngestionPipeline.resourcePath("QCM_MAD-AI_COMPLET.pdf"),
+                IngestionPipeline.resourcePath("llm.pdf"))).values());
+
+        DenseVectorStore exact = new DenseVectorStore();
+        indexes.forEach(exact::addIndex);
+        System.out.println("Corpus : " + exact.size() + " segments");
+
+        // ---------------------------------------------------------
+        // 2) Requêtes : questions fixes + début d'un segment sur 7
+        // ---------------------------------------------------------
+        List<Embedding> queries = new ArrayList<>();
+        for (String question : QUESTIONS) {
+            queries.add(embeddingModel.embed(question).content());
+        }
+        for (EmbeddingIndex index : indexes) {
+            for (int i = 0; i < index.size(); i += 7) {
+                queries.add(embeddingModel.embed(StoreBenchmarks.firstWords(index.segment(i), 12)).content());
+            }
+        }
+        System.out.println("Requêtes : " + queries.size() + ", k = " + K);
+
+        List<Set<String>> expected = new ArrayList<>();
+        for (Embedding query : queries) {
+            expected.add(matchedTexts(exact, query));
+        }
+        double exactMicros = StoreBenchmarks.meanLatencyMicros(exact, queries, K, REPETITIONS);
+
+        // ---------------------------------------------------------
+        // 3) Rappel / latence pour chaque configuration HNSW
+        // ---------------------------------------------------------
+        System.out.println();
+        System.out.printf("%-6s %-10s %-14s %-10s %-16s%n", "M", "efSearch", "construction", "rappel@" + K, "latence (µs)");
+        System.out.printf("%-6s %-10s %-14s %-10s %-16.1f%n", "exact", "-", "-", "1.000", exactMicros);
+
+        HnswEmbeddingStore last = null;
+        for (int m : new int[]{8, 16, 32}) {
+            long start = System.nanoTime();
+            HnswEmbeddingStore hnsw = HnswEmbeddingStore.builder().m(m).build();
+            indexes.forEach(hnsw::addIndex);
+            double buildMillis = (System.nanoTime() - start) / 1e6;
+
+            for (int efSearch : new int[]{8, 16, 32, 64, 128}) {
+                hnsw.efSearch(efSearch);
+                double recall = recall(hnsw, queries, expected);
+                double micros = StoreBenchmarks.meanLatencyMicros(hnsw, queries, K, REPETITIONS);
+                System.out.printf("%-6d %-10d %-14s %-10.3f %-16.1f%n",
+                        m, efSearch, String.format("%.0f ms", buildMillis), recall, micros);
+            }
+            last = hnsw;
+        }
+
+        // ---------------------------------------------------------
+        // 4) Persistance du graphe : save puis load
+        // ---------------------------------------------------------
+        Path file = Paths.get(System.getProperty("rag.index.dir", ".rag-index"), "recall-report.hnsw");
+        last.save(file);
+        long start = System.nanoTime();
+        HnswEmbeddingStore reloaded = HnswEmbeddingStore.load(file);
+        double loadMillis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%nGraphe rechargé depuis %s en %.1f ms : rappel@%d = %.3f%n",
+                file, loadMillis, K, recall(reloaded, queries, expected));
+    }
+
+    private static double recall(EmbeddingStore<TextSegment> store, List<Embedding> queries, List<Set<String>> expected) {
+        int found = 0;
+        int total = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            Set<String> exactTexts = expected.get(i);
+            for (String text : matchedTexts(store, queries.get(i))) {
+                if (exactTexts.contains(text)) {
+                    found++;
+                }
+            }
+            total += exactTexts.size();
+        }
+        return total == 0 ? 1 : (double) found / total;
+    }
+
+    /** Chaque store génère ses propres ids : on compare donc les textes des segments trouvés. */
+    private static Set<String> matchedTexts(EmbeddingStore<TextSegment> store, Embedding query) {
+        Set<String> texts = new HashSet<>();
+        for (EmbeddingMatch<TextSegment> match : StoreBenchmarks.search(store, query, K)) {
+            texts.add(match.embedded().text());
+        }
+        return texts;
+    }
+}
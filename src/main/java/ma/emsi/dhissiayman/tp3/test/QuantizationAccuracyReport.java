@@ -0,0 +1,105 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Mesure de la perte de précision des stores quantifiés
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Ingérer chaque PDF fourni dans /resources
+ *  - Comparer au store exact (DenseVectorStore, float32) :
+ *      • QuantizedVectorStore en mode INT8
+ *      • QuantizedVectorStore en mode BINARY (re-scoring int8 des meilleurs candidats)
+ *  - Afficher pour chaque corpus et chaque mode :
+ *      • la mémoire occupée par vecteur
+ *      • le rappel@k par rapport au store exact
+ *      • l'écart moyen du score du 1er résultat
+ *      • la latence moyenne d'une recherche
+ *
+ * Le produit scalaire passe par l'API Vector si --add-modules jdk.incubator.vector est donné ;
+ * relancer avec -Drag.simd.disabled=true pour comparer avec la boucle scalaire.
+ */
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.store.QuantizedVectorStore;
+import ma.emsi.dhissiayman.tp3.store.VectorMath;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class QuantizationAccuracyReport {
+
+    private static final int K = 5;
+    private static final int REPETITIONS = 20;
+
+    public static void main(String[] args) {
+
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build();
+        Map<Path, EmbeddingIndex> corpora = pipeline.ingestAll(List.of(
+                IngestionPipeline.resourcePath("langchain4j.pdf"),
+                IngestionPipeline.resourcePath("QCM_MAD-AI_COMPLET.pdf"),
+                IngestionPipeline.resourcePath("llm.pdf")));
+
+        System.out.println("Produit scalaire SIMD : " + (VectorMath.simdEnabled() ? "oui" : "non"));
+        System.out.printf("%n%-24s %-8s %-12s %-10s %-12s %-14s%n",
+                "corpus", "mode", "octets/vect", "rappel@" + K, "Δ score top1", "latence (µs)");
+
+        corpora.forEach((path, index) -> {
+            // Requêtes : début (12 mots) d'un segment sur 5
+            List<Embedding> queries = new ArrayList<>();
+            for (int i = 0; i < index.size(); i += 5) {
+                queries.add(embeddingModel.embed(StoreBenchmarks.firstWords(index.segment(i), 12)).content());
+            }
+
+            DenseVectorStore exact = DenseVectorStore.of(index);
+            List<List<EmbeddingMatch<TextSegment>>> expected = new ArrayList<>();
+            for (Embedding query : queries) {
+                expected.add(StoreBenchmarks.search(exact, query, K));
+            }
+            String corpus = path.getFileName().toString();
+            System.out.printf("%-24s %-8s %-12d %-10s %-12s %-14.1f%n",
+                    corpus, "FLOAT32", index.dimension() * Float.BYTES, "1.000", "0",
+                    StoreBenchmarks.meanLatencyMicros(exact, queries, K, REPETITIONS));
+
+            for (QuantizedVectorStore.Mode mode : QuantizedVectorStore.Mode.values()) {
+                QuantizedVectorStore quantized = QuantizedVectorStore.of(index, mode);
+                int found = 0;
+                int total = 0;
+                double scoreDelta = 0;
+                for (int q = 0; q < queries.size(); q++) {
+                    List<EmbeddingMatch<TextSegment>> exactMatches = expected.get(q);
+                    List<EmbeddingMatch<TextSegment>> matches = StoreBenchmarks.search(quantized, queries.get(q), K);
+                    Set<String> exactTexts = new HashSet<>();
+                    exactMatches.forEach(match -> exactTexts.add(match.embedded().text()));
+                    for (EmbeddingMatch<TextSegment> match : matches) {
+                        if (exactTexts.contains(match.embedded().text())) {
+                            found++;
+                        }
+                    }
+                    total += exactTexts.size();
+                    if (!exactMatches.isEmpty() && !matches.isEmpty()) {
+                        scoreDelta += Math.abs(exactMatches.get(0).score() - matches.get(0).score());
+                    }
+                }
+                System.out.printf("%-24s %-8s %-12d %-10.3f %-12.5f %-14.1f%n",
+                        corpus, mode, quantized.bytesPerVector(),
+                        total == 0 ? 1.0 : (double) found / total,
+                        scoreDelta / Math.max(1, queries.size()),
+                        StoreBenchmarks.meanLatencyMicros(quantized, queries, K, REPETITIONS));
+            }
+        });
+    }
+}
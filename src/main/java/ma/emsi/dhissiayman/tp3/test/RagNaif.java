@@ -10,35 +10,38 @@ package ma.emsi.dhissiayman.tp3.test;
  *  3) Génération d'embeddings (AllMiniLM-L6V2)
  *  4) Stockage dans un EmbeddingStore
  *  5) Création d’un Assistant utilisant un ContentRetriever
- *  6) Interaction utilisateur en boucle
+ *  6) Interaction utilisateur en boucle (réponse affichée en streaming)
  */
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.output.Response;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
 import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.assistant.ConsoleStreamRenderer;
+import ma.emsi.dhissiayman.tp3.assistant.SemanticCachingAssistant;
+import ma.emsi.dhissiayman.tp3.assistant.StreamingAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.cache.SemanticAnswerCache;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
 
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.UnaryOperator;
 
 public class RagNaif {
 
@@ -47,13 +50,15 @@ public class RagNaif {
         // ---------------------------------------------------------
         // 0) Création du ChatModel (Gemini) utilisé par l'assistant
         // ---------------------------------------------------------
-        String apiKey = System.getenv("GEMINI_KEY");
 
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
-                .apiKey(apiKey)
-                .modelName("gemini-2.5-flash")
-                .temperature(0.3)
-                .build();
+        // Latences par étape et tokens exposés en JMX (+ /metrics si rag.metrics.port)
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
+
+        List<ChatModelListener> listeners = List.of(new MetricsChatModelListener());
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+
+        // Variante streaming du même modèle : la réponse s'affiche token par token
+        StreamingChatModel streamingChatModel = GeminiModels.streamingChatModel(chatModel, listeners);
 
         // ---------------------------------------------------------
         // PHASE 1 : Extraction + embeddings du PDF
@@ -67,45 +72,68 @@ public class RagNaif {
 
         Path pdfPath = Paths.get(resource.toURI());
 
-        // Lecture du PDF avec Apache Tika
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(pdfPath, parser);
-
-        // Découpage du document (500 tokens avec overlap de 50)
-        DocumentSplitter splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        // Génération des embeddings
+        // Lecture (Tika) + découpage (500 / overlap 50) + embeddings,
+        // ou rechargement direct depuis le cache disque si le PDF n'a pas changé
         EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        Response<List<Embedding>> response = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = response.content();
 
-        // Stockage en mémoire
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
+        // Stockage en mémoire (vecteurs contigus normalisés, produit scalaire SIMD) ;
+        // l'index d'ingestion n'est pas gardé : le store est la seule copie des vecteurs
+        DenseVectorStore embeddingStore = DenseVectorStore.of(IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(pdfPath));
 
         System.out.println("✔ PHASE 1 terminée : "
-                + segments.size() + " segments indexés.");
+                + embeddingStore.size() + " segments indexés.");
 
         // ---------------------------------------------------------
         // PHASE 2 : Création du RAG + assistant
         // ---------------------------------------------------------
 
+        // Cache LRU des embeddings de questions : une question déjà posée
+        // ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
+
         // Récupération d’informations pertinentes depuis les embeddings
         EmbeddingStoreContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
+                .embeddingModel(queryEmbeddingModel)
                 .maxResults(2)
                 .minScore(0.5)
                 .build();
 
         // Création de l'assistant avec mémoire
-        Assistant assistant = AiServices.builder(Assistant.class)
+        // Mémoire bornée par un budget de tokens (et non plus 10 messages entiers) :
+        // le contexte RAG des anciennes questions est retiré, les tours les plus anciens oubliés
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
+        Assistant ragAssistant = AiServices.builder(Assistant.class)
                 .chatModel(chatModel)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .chatMemory(chatMemory)
                 .contentRetriever(contentRetriever)
                 .build();
 
+        // Même assistant en streaming (même mémoire, même retriever) pour la boucle interactive
+        StreamingAssistant streamingAssistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingChatModel)
+                .chatMemory(chatMemory)
+                .contentRetriever(contentRetriever)
+                .build();
+        ConsoleStreamRenderer renderer = new ConsoleStreamRenderer();
+
+        // Cache sémantique des réponses, optionnel (-Drag.semanticCache=true).
+        // Il ne connaît que la question : seuil volontairement élevé, et il n'est consulté
+        // qu'en début de conversation (mémoire vide). Vidé automatiquement si le contenu du store change.
+        SemanticCachingAssistant cachingAssistant = null;
+        Assistant assistant = ragAssistant;
+        if (Boolean.parseBoolean(System.getProperty("rag.semanticCache", "false"))) {
+            double threshold = Double.parseDouble(System.getProperty("rag.semanticCache.threshold", "0.95"));
+            SemanticAnswerCache answerCache = new SemanticAnswerCache(queryEmbeddingModel, threshold,
+                    Duration.ofHours(1), 500, embeddingStore::version);
+            cachingAssistant = new SemanticCachingAssistant(ragAssistant, answerCache, chatMemory);
+            assistant = cachingAssistant;
+        }
+
         // Question imposée
         String questionInitiale = "Quelle est la signification de 'RAG' ; à quoi ça sert ?";
         String reponseInitiale = assistant.chat(questionInitiale);
@@ -124,12 +152,30 @@ public class RagNaif {
                 if ("fin".equalsIgnoreCase(question)) break;
                 if (question.isBlank()) continue;
 
-                String reponse = assistant.chat(question);
-
-                System.out.println("--------------------------------------------------");
-                System.out.println("Assistant : " + reponse);
+                // Réponse déjà en cache : affichée directement ;
+                // sinon affichée au fil des tokens (temps au premier token mesuré)
+                UnaryOperator<String> streaming = q -> renderer.ask(streamingAssistant, q);
+                if (cachingAssistant == null) {
+                    streaming.apply(question);
+                } else {
+                    SemanticCachingAssistant.Answer reponse = cachingAssistant.chat(question, streaming);
+                    if (reponse.fromCache()) {
+                        System.out.println("--------------------------------------------------");
+                        System.out.println("Assistant (cache) : " + reponse.text());
+                    }
+                }
                 System.out.println("==================================================");
             }
         }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(renderer.stats());
+        System.out.println(chatMemory.metrics().stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+        if (cachingAssistant != null) {
+            System.out.println(cachingAssistant.cache().stats() + " ; " + cachingAssistant.bypasses()
+                    + " questions en cours de conversation (sans cache)");
+        }
     }
 }
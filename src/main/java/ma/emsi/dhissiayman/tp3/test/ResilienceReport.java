@@ -0,0 +1,170 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Rapport de résilience des appels au LLM (limite AIMD, retries, disjoncteur)
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Simuler un LLM saturé au-delà de quelques appels simultanés (StubChatModel : 429 au-delà
+ *    de sa capacité, 5 % d'erreurs 503, latence log-normale), sans réseau ni clé API
+ *  - Lui envoyer une rafale de questions depuis de nombreux clients, et comparer :
+ *      • appels directs (aucune protection)
+ *      • ResilientChatModel (limite adaptative + retries avec jitter + deadline)
+ *  - Même rafale en streaming (StubStreamingChatModel) : directe, puis via
+ *    ResilientChatModel.streaming (même limite, retries avant le premier token)
+ *  - Simuler ensuite une panne complète : le disjoncteur s'ouvre, les appels échouent
+ *    immédiatement au lieu d'attendre, puis il se referme quand le service revient
+ */
+
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubChatModel;
+import ma.emsi.dhissiayman.tp3.stub.StubStreamingChatModel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ResilienceReport {
+
+    private static final int REQUESTS = 300;
+    private static final int CLIENTS = 24;
+    private static final int CAPACITY = 6;
+
+    public static void main(String[] args) throws Exception {
+
+        System.out.printf("%-12s %-8s %-10s %-10s %-10s %-14s%n",
+                "mode", "succès", "p50 (ms)", "p99 (ms)", "max (ms)", "appels reçus");
+
+        StubChatModel direct = stub();
+        run("direct", direct, direct);
+
+        StubChatModel protectedStub = stub();
+        ResilientChatModel resilient = resilient(protectedStub);
+        run("résilient", resilient, protectedStub);
+        System.out.println(resilient.stats());
+
+        // Streaming : la réponse arrive mot par mot, la limite et les retries s'appliquent aussi
+        StubChatModel streamingStub = stub();
+        run("stream", streaming(new StubStreamingChatModel(streamingStub, Duration.ofMillis(5), List.of())),
+                streamingStub);
+        StubChatModel protectedStreamingStub = stub();
+        ResilientChatModel streamingResilient = resilient(protectedStreamingStub);
+        run("stream rés.", streaming(streamingResilient.streaming(
+                new StubStreamingChatModel(protectedStreamingStub, Duration.ofMillis(5), List.of()))),
+                protectedStreamingStub);
+        System.out.println(streamingResilient.stats());
+
+        // Panne complète : après 5 échecs consécutifs, les appels sont refusés sans attendre le service
+        System.out.println();
+        System.out.println("Panne simulée (100 % d'erreurs 503) :");
+        protectedStub.failureRate(1.0);
+        run("panne", resilient, protectedStub);
+        System.out.println(resilient.stats());
+
+        // Service rétabli : après openDuration, un appel d'essai referme le disjoncteur
+        protectedStub.failureRate(0.0);
+        Thread.sleep(1_100);
+        System.out.println("Service rétabli : " + resilient.chat("Bonjour ?"));
+        System.out.println(resilient.stats());
+    }
+
+    private static StubChatModel stub() {
+        return StubChatModel.builder()
+                .latency(LatencyDistribution.logNormal(Duration.ofMillis(150), 0.5, 7))
+                .capacity(CAPACITY)
+                .failureRate(0.05)
+                .build();
+    }
+
+    private static ResilientChatModel resilient(ChatModel delegate) {
+        return ResilientChatModel.builder()
+                .delegate(delegate)
+                .initialConcurrency(4)
+                .maxConcurrency(16)
+                .attemptTimeout(Duration.ofSeconds(1))
+                .deadline(Duration.ofSeconds(10))
+                .maxAttempts(4)
+                .baseBackoff(Duration.ofMillis(50))
+                .maxBackoff(Duration.ofMillis(800))
+                .openDuration(Duration.ofSeconds(1))
+                .build();
+    }
+
+    /** Appel bloquant sur un modèle en streaming : attend la réponse complète (ou l'erreur). */
+    private static ChatModel streaming(StreamingChatModel model) {
+        return new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest request) {
+                CompletableFuture<ChatResponse> response = new CompletableFuture<>();
+                model.chat(request, new StreamingChatResponseHandler() {
+                    @Override
+                    public void onPartialResponse(String partialResponse) {
+                    }
+
+                    @Override
+                    public void onCompleteResponse(ChatResponse completeResponse) {
+                        response.complete(completeResponse);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        response.completeExceptionally(error);
+                    }
+                });
+                try {
+                    return response.join();
+                } catch (CompletionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        };
+    }
+
+    private static void run(String label, ChatModel model, StubChatModel stub) throws Exception {
+        long callsBefore = stub.calls();
+        List<Future<Long>> results = new ArrayList<>(REQUESTS);
+        try (ExecutorService clients = Executors.newFixedThreadPool(CLIENTS)) {
+            for (int i = 0; i < REQUESTS; i++) {
+                String question = "question " + i;
+                results.add(clients.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        model.chat(question);
+                        return (System.nanoTime() - start) / 1_000_000;
+                    } catch (RuntimeException e) {
+                        return -1L;
+                    }
+                }));
+            }
+        }
+
+        long[] millis = new long[REQUESTS];
+        int ok = 0;
+        for (Future<Long> result : results) {
+            long value = result.get();
+            if (value >= 0) {
+                millis[ok++] = value;
+            }
+        }
+        long[] sorted = Arrays.copyOf(millis, ok);
+        Arrays.sort(sorted);
+        System.out.printf("%-12s %-8s %-10s %-10s %-10s %-14d%n", label,
+                ok + "/" + REQUESTS,
+                ok == 0 ? "-" : String.valueOf(sorted[ok / 2]),
+                ok == 0 ? "-" : String.valueOf(sorted[Math.min(ok - 1, ok * 99 / 100)]),
+                ok == 0 ? "-" : String.valueOf(sorted[ok - 1]),
+                stub.calls() - callsBefore);
+    }
+}
@@ -0,0 +1,90 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Vérification de l'éviction des mémoires de session
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Construire un SessionAssistant (AiServices + SessionMemoryProvider borné à MAX_SESSIONS)
+ *    sur un LLM simulé (StubChatModel), sans réseau ni clé API
+ *  - Ouvrir SESSIONS sessions différentes, deux questions chacune
+ *  - Vérifier que :
+ *      • le provider ne garde pas plus de MAX_SESSIONS sessions
+ *      • l'AiService a oublié les sessions évincées (ChatMemoryAccess.getChatMemory == null),
+ *        ce qui borne réellement la mémoire
+ *      • une session récente garde son historique, et l'oubli explicite
+ *        (evictChatMemory + remove, comme DELETE /session) repart d'une conversation vide
+ *
+ * Une vérification qui échoue lève une IllegalStateException (code de sortie non nul).
+ */
+
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.service.AiServices;
+import ma.emsi.dhissiayman.tp3.assistant.SessionAssistant;
+import ma.emsi.dhissiayman.tp3.memory.SessionMemoryProvider;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubChatModel;
+
+import java.time.Duration;
+
+public class SessionMemoryReport {
+
+    private static final int SESSIONS = 300;
+    private static final int MAX_SESSIONS = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+
+        SessionMemoryProvider memories = new SessionMemoryProvider(
+                id -> TokenBudgetChatMemory.builder().id(id).maxTokens(2000).build(), MAX_SESSIONS);
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(StubChatModel.builder()
+                        .latency(LatencyDistribution.fixed(Duration.ZERO))
+                        .build())
+                .chatMemoryProvider(memories)
+                .build();
+        memories.onEviction(assistant::evictChatMemory);
+
+        for (int i = 0; i < SESSIONS; i++) {
+            String session = "session-" + i;
+            assistant.chat(session, "Qu'est-ce que le RAG ?");
+            assistant.chat(session, "Et un embedding ?");
+        }
+        // les évictions côté AiService partent sur des threads virtuels
+        Thread.sleep(200);
+
+        int retained = 0;
+        for (int i = 0; i < SESSIONS; i++) {
+            if (assistant.getChatMemory("session-" + i) != null) {
+                retained++;
+            }
+        }
+        System.out.printf("%d sessions ouvertes : provider = %d sessions (%d évictions), AiService = %d mémoires%n",
+                SESSIONS, memories.sessions(), memories.evictions(), retained);
+        check(memories.sessions() == MAX_SESSIONS, "le provider garde " + memories.sessions() + " sessions");
+        check(memories.evictions() == SESSIONS - MAX_SESSIONS, memories.evictions() + " évictions");
+        check(retained == MAX_SESSIONS, "l'AiService garde " + retained + " mémoires");
+        check(assistant.getChatMemory("session-0") == null, "session-0 évincée mais encore en mémoire");
+
+        String last = "session-" + (SESSIONS - 1);
+        ChatMemory memory = assistant.getChatMemory(last);
+        check(memory != null && memory.messages().size() == 4,
+                last + " : historique inattendu " + (memory == null ? null : memory.messages().size()));
+
+        // Oubli explicite, comme DELETE /session
+        assistant.evictChatMemory(last);
+        memories.remove(last);
+        assistant.chat(last, "Bonjour");
+        int messages = assistant.getChatMemory(last).messages().size();
+        System.out.printf("%s après oubli puis une question : %d messages%n", last, messages);
+        check(messages == 2, last + " n'est pas reparti d'une conversation vide (" + messages + " messages)");
+
+        System.out.println("Éviction des sessions : OK");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("Vérification échouée : " + message);
+        }
+    }
+}
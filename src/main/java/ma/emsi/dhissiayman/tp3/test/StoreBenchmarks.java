@@ -0,0 +1,52 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.List;
+
+/**
+ * Outils communs aux rapports de mesure des stores (HnswRecallReport, QuantizationAccuracyReport) :
+ * recherche top-k, latence moyenne et requêtes tirées du corpus.
+ */
+final class StoreBenchmarks {
+
+    private StoreBenchmarks() {
+    }
+
+    /** Les k meilleurs résultats, sans score minimum. */
+    static List<EmbeddingMatch<TextSegment>> search(EmbeddingStore<TextSegment> store, Embedding query, int k) {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(k)
+                .minScore(0.0)
+                .build()).matches();
+    }
+
+    /**
+     * Latence moyenne (µs) d'une recherche top-k : un passage d'échauffement JIT,
+     * puis repetitions passages mesurés sur toutes les requêtes.
+     */
+    static double meanLatencyMicros(EmbeddingStore<TextSegment> store, List<Embedding> queries, int k,
+                                    int repetitions) {
+        for (Embedding query : queries) {
+            search(store, query, k); // échauffement JIT
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < repetitions; r++) {
+            for (Embedding query : queries) {
+                search(store, query, k);
+            }
+        }
+        return (System.nanoTime() - start) / 1e3 / (repetitions * Math.max(1, queries.size()));
+    }
+
+    /** Les count premiers mots d'un segment (requête proche d'un passage du corpus). */
+    static String firstWords(TextSegment segment, int count) {
+        String[] words = segment.text().trim().split("\\s+");
+        return String.join(" ", List.of(words).subList(0, Math.min(count, words.length)));
+    }
+}
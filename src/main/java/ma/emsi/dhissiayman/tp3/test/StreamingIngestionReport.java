@@ -0,0 +1,82 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Rapport mémoire de l'ingestion (chargement complet vs flux page par page)
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Ingérer le même PDF de deux façons, sans cache disque :
+ *      • chargement complet : loadDocument + split + embedAll (tout le document en mémoire)
+ *      • flux : StreamingPdfIngestor (une page à la fois, lots embeddés au fil de l'eau)
+ *  - Afficher pour chacune la durée et le pic de heap pendant l'ingestion
+ *
+ * Usage : StreamingIngestionReport [chemin du PDF]  (langchain4j.pdf des resources par défaut)
+ * Pour un résultat lisible, utiliser un gros PDF (plusieurs centaines de pages).
+ */
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndexCache;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.ingestion.StreamingPdfIngestor;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class StreamingIngestionReport {
+
+    public static void main(String[] args) {
+        Path pdfPath = args.length > 0 ? Paths.get(args[0]) : IngestionPipeline.resourcePath("langchain4j.pdf");
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingIndexCache cache = EmbeddingIndexCache.defaultCache();
+
+        // Chargement complet (chemin historique), sans passer par le cache disque
+        resetPeakHeap();
+        long start = System.nanoTime();
+        EmbeddingIndex index = cache.ingest(pdfPath, embeddingModel);
+        DenseVectorStore fullStore = DenseVectorStore.of(index);
+        report("chargement complet", start, fullStore.size());
+
+        // Ingestion en flux
+        resetPeakHeap();
+        start = System.nanoTime();
+        DenseVectorStore streamedStore = new DenseVectorStore();
+        StreamingPdfIngestor.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(pdfPath, streamedStore);
+        report("flux page par page", start, streamedStore.size());
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Somme des pics de chaque zone du heap : majorant du pic réel (les pics ne sont pas simultanés).
+     */
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void report(String label, long startNanos, int segments) {
+        System.out.printf("%-20s %6d segments en %6.2f s, pic de heap ≤ %6.1f Mo%n", label, segments,
+                (System.nanoTime() - startNanos) / 1e9, peakHeapBytes() / (1024.0 * 1024.0));
+    }
+}
@@ -17,29 +17,31 @@ package ma.emsi.dhissiayman.tp3.test;
  *  - comment l’API Gemini est appelée en interne
  */
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.output.Response;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
 import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.assistant.ConsoleStreamRenderer;
+import ma.emsi.dhissiayman.tp3.assistant.StreamingAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.logging.AsyncLogHandler;
+import ma.emsi.dhissiayman.tp3.logging.SampledLoggingChatModelListener;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
 
-import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -52,21 +54,15 @@ public class Test2Logging {
 
     /**
      * Configuration du logger Java pour le package "dev.langchain4j".
-     * On force le niveau FINE et on ajoute un handler console.
+     * On force le niveau FINE et on ajoute un handler console asynchrone.
      * Cela permet d'afficher :
-     *  - les requêtes HTTP envoyées vers Gemini
-     *  - les réponses brutes renvoyées par l’API
+     *  - les messages envoyés à Gemini (prompt final avec le contexte RAG)
+     *  - les réponses renvoyées par l’API
      */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE); // plus verbeux que INFO
-
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-
-        // Évite d'avoir les logs en double
-        packageLogger.setUseParentHandlers(false);
-        packageLogger.addHandler(handler);
+    private static AsyncLogHandler configureLogger() {
+        // Écriture asynchrone (tampon borné, logs abandonnés plutôt que bloquer l'appelant)
+        return AsyncLogHandler.install(Level.FINE, Integer.getInteger("rag.log.bufferSize", 10_000),
+                "dev.langchain4j", SampledLoggingChatModelListener.LOGGER_NAME);
     }
 
     public static void main(String[] args) throws URISyntaxException {
@@ -74,19 +70,25 @@ public class Test2Logging {
         // ---------------------------------------------------------
         // 0) Configuration du logger (LangChain4j + HTTP client)
         // ---------------------------------------------------------
-        configureLogger();
+        AsyncLogHandler logHandler = configureLogger();
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
 
         // ---------------------------------------------------------
         // 1) Création du ChatModel Gemini (avec log des requêtes/réponses)
         // ---------------------------------------------------------
-        String apiKey = System.getenv("GEMINI_KEY");
 
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
-                .apiKey(apiKey)
-                .modelName("gemini-2.5-flash")
-                .temperature(0.3)
-                .logRequestsAndResponses(true) // activation du logging HTTP côté LangChain4j
-                .build();
+        // Métriques + échanges avec le LLM journalisés (tous par défaut, cf. rag.log.sampleRate)
+        List<ChatModelListener> listeners = List.of(
+                new MetricsChatModelListener(),
+                SampledLoggingChatModelListener.builder()
+                        .sampleRate(Double.parseDouble(System.getProperty("rag.log.sampleRate", "1.0")))
+                        .maxBodyChars(Integer.getInteger("rag.log.maxChars", 2000))
+                        .build());
+
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+
+        // Variante streaming du même modèle : la réponse s'affiche token par token
+        StreamingChatModel streamingChatModel = GeminiModels.streamingChatModel(chatModel, listeners);
 
         // ---------------------------------------------------------
         // 2) PHASE 1 : enregistrement des embeddings (comme RagNaif)
@@ -99,47 +101,57 @@ public class Test2Logging {
         }
         Path pdfPath = Paths.get(resource.toURI());
 
-        // Lecture du PDF avec Apache Tika
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(pdfPath, parser);
-
-        // Découpage du document en segments
-        DocumentSplitter splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        // Génération des embeddings
+        // Lecture (Tika) + découpage + embeddings, ou rechargement depuis le cache disque
         EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        Response<List<Embedding>> response = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = response.content();
+        EmbeddingIndex index = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(pdfPath);
 
-        // Stockage en mémoire
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
+        // Stockage en mémoire (vecteurs contigus normalisés, produit scalaire SIMD)
+        EmbeddingStore<TextSegment> embeddingStore = DenseVectorStore.of(index);
 
         System.out.println("✔ PHASE 1 terminée : "
-                + segments.size() + " segments enregistrés dans le magasin d'embeddings.");
+                + index.size() + " segments enregistrés dans le magasin d'embeddings.");
 
         // ---------------------------------------------------------
         // 3) PHASE 2 : utilisation des embeddings pour répondre
         // ---------------------------------------------------------
 
+        // Cache LRU des embeddings de questions : une question déjà posée
+        // ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
+
         // Récupération des segments les plus pertinents (RAG)
         EmbeddingStoreContentRetriever contentRetriever =
                 EmbeddingStoreContentRetriever.builder()
                         .embeddingStore(embeddingStore)
-                        .embeddingModel(embeddingModel)
+                        .embeddingModel(queryEmbeddingModel)
                         .maxResults(2)
                         .minScore(0.5)
                         .build();
 
-        // Assistant avec mémoire (10 messages) + RAG
+        // Assistant avec mémoire + RAG
+        // Mémoire bornée par un budget de tokens (et non plus 10 messages entiers) :
+        // le contexte RAG des anciennes questions est retiré, les tours les plus anciens oubliés
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
         Assistant assistant =
                 AiServices.builder(Assistant.class)
                         .chatModel(chatModel)
-                        .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                        .chatMemory(chatMemory)
                         .contentRetriever(contentRetriever)
                         .build();
 
+        // Même assistant en streaming (même mémoire, même retriever) pour la boucle interactive
+        StreamingAssistant streamingAssistant =
+                AiServices.builder(StreamingAssistant.class)
+                        .streamingChatModel(streamingChatModel)
+                        .chatMemory(chatMemory)
+                        .contentRetriever(contentRetriever)
+                        .build();
+        ConsoleStreamRenderer renderer = new ConsoleStreamRenderer();
+
         // Première question imposée par l’énoncé
         String questionInitiale = "Quelle est la signification de 'RAG' ; à quoi ça sert ?";
         String reponseInitiale = assistant.chat(questionInitiale);
@@ -162,11 +174,17 @@ public class Test2Logging {
                     continue;
                 }
 
-                String reponse = assistant.chat(question);
-                System.out.println("--------------------------------------------------");
-                System.out.println("Assistant : " + reponse);
+                // Réponse affichée au fil des tokens (temps au premier token mesuré)
+                renderer.ask(streamingAssistant, question);
                 System.out.println("==================================================");
             }
         }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(renderer.stats());
+        System.out.println(chatMemory.metrics().stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+        System.out.println(logHandler.stats());
     }
 }
@@ -7,29 +7,22 @@ package ma.emsi.dhissiayman.tp3.test;
  * Objectif :
  *  - Ingestion de 2 documents distincts (2 PDF) dans 2 EmbeddingStores séparés
  *  - Création de 2 ContentRetrievers : un pour chaque source
- *  - Utilisation d’un LanguageModelQueryRouter pour choisir la bonne source
+ *  - Choix de la bonne source par un QueryRouter :
+ *      • CentroidQueryRouter (défaut) : routage local par similarité d'embeddings
+ *      • LanguageModelQueryRouter (-Drag.router=llm) : routage par le LLM
  *  - Construction d’un RetrievalAugmentor basé sur ce routage
  *
- * Idée :
+ * Idée (routeur LLM) :
  *  Le LLM reçoit une description en langage naturel de chaque source
  *  (Map<ContentRetriever, String>), et décide quel ContentRetriever utiliser
  *  en fonction de la question.
  */
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.output.Response;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
@@ -38,19 +31,30 @@ import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.assistant.ConsoleStreamRenderer;
+import ma.emsi.dhissiayman.tp3.assistant.StreamingAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.logging.AsyncLogHandler;
+import ma.emsi.dhissiayman.tp3.logging.SampledLoggingChatModelListener;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.routing.CentroidQueryRouter;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.store.HnswEmbeddingStore;
+import ma.emsi.dhissiayman.tp3.store.QuantizedVectorStore;
 
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class Test3Routage {
 
@@ -58,75 +62,66 @@ public class Test3Routage {
      * Configuration du logger pour afficher les détails de LangChain4j,
      * notamment le routage des requêtes et les appels au LLM.
      */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-
-        packageLogger.setUseParentHandlers(false);
-        packageLogger.addHandler(handler);
+    private static AsyncLogHandler configureLogger() {
+        // Écriture asynchrone (tampon borné, logs abandonnés plutôt que bloquer l'appelant)
+        return AsyncLogHandler.install(Level.FINE, Integer.getInteger("rag.log.bufferSize", 10_000),
+                "dev.langchain4j", SampledLoggingChatModelListener.LOGGER_NAME);
     }
 
     /**
-     * Ingestion d’un PDF :
-     *  - Chargement du fichier dans les resources (classpath)
-     *  - Parsing via Apache Tika
-     *  - Découpage en TextSegments
-     *  - Calcul des embeddings
-     *  - Stockage dans un EmbeddingStore en mémoire
+     * Construction de l'EmbeddingStore en mémoire d'une source,
+     * à partir de l'index produit par le pipeline d'ingestion.
      *
-     * @param resourceName  nom du fichier PDF dans /resources
-     * @param embeddingModel modèle d'embedding à utiliser
+     * Le type de store est choisi par la propriété système "rag.store" :
+     *  - "dense" (défaut) : recherche exacte sur tous les segments
+     *  - "hnsw"           : recherche approximative HNSW (M = 16, efSearch = 64) ; le graphe est
+     *                       enregistré à côté de l'index dans le cache et rechargé aux lancements suivants
+     *  - "int8"           : vecteurs quantifiés sur 1 octet par composante (4x moins de mémoire)
+     *  - "binary"         : pré-sélection par codes binaires (1 bit par composante) puis re-scoring par les codes int8
+     *
+     * @param pipeline pipeline d'ingestion (cache disque et clé du document)
+     * @param pdfPath  document ingéré
+     * @param index    segments + embeddings du document
      * @return EmbeddingStore contenant les segments + embeddings
      */
-    private static EmbeddingStore<TextSegment> ingestPdfAsEmbeddingStore(
-            String resourceName,
-            EmbeddingModel embeddingModel) throws URISyntaxException {
-
-        URL resource = Test3Routage.class.getClassLoader().getResource(resourceName);
-        if (resource == null) {
-            throw new IllegalStateException("Le fichier " + resourceName + " n'a pas été trouvé dans resources");
-        }
-        Path pdfPath = Paths.get(resource.toURI());
-
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(pdfPath, parser);
-
-        DocumentSplitter splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        Response<List<Embedding>> response = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = response.content();
-
-        EmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
-        store.addAll(embeddings, segments);
-
-        System.out.println("Ingestion terminée pour " + resourceName + " : "
-                + segments.size() + " segments enregistrés.");
-        return store;
+    private static EmbeddingStore<TextSegment> toEmbeddingStore(IngestionPipeline pipeline, Path pdfPath,
+                                                                EmbeddingIndex index) {
+        String storeType = System.getProperty("rag.store", "dense");
+        return switch (storeType) {
+            case "dense" -> DenseVectorStore.of(index);
+            case "hnsw" -> HnswEmbeddingStore.loadOrBuild(
+                    pipeline.cache().sidecarFile(pdfPath, pipeline.cacheKey(pdfPath), ".m16-ef200.hnsw"),
+                    index, HnswEmbeddingStore.builder().m(16).efConstruction(200));
+            case "int8" -> QuantizedVectorStore.of(index, QuantizedVectorStore.Mode.INT8);
+            case "binary" -> QuantizedVectorStore.of(index, QuantizedVectorStore.Mode.BINARY);
+            default -> throw new IllegalArgumentException("Type de store inconnu (rag.store) : " + storeType);
+        };
     }
 
-    public static void main(String[] args) throws URISyntaxException {
+    public static void main(String[] args) {
 
         // ---------------------------------------------------------
-        // 0) Activation du logging détaillé (LangChain4j + HTTP)
+        // 0) Logging détaillé (LangChain4j + HTTP) seulement avec -Drag.debug=true ;
+        //    par défaut, latences par étape et tokens exposés en JMX (+ /metrics si rag.metrics.port)
         // ---------------------------------------------------------
-        configureLogger();
+        boolean debug = Boolean.getBoolean("rag.debug");
+        AsyncLogHandler logHandler = debug ? configureLogger() : null;
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
 
         // ---------------------------------------------------------
         // 1) Création du ChatModel Gemini (utilisé pour :
         //    - répondre aux questions
-        //    - faire le routage via LanguageModelQueryRouter)
+        //    - faire le routage via LanguageModelQueryRouter si rag.router=llm)
         // ---------------------------------------------------------
-        String apiKey = System.getenv("GEMINI_KEY");
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
-                .apiKey(apiKey)
-                .modelName("gemini-2.5-flash")
-                .temperature(0.3)
-                .logRequestsAndResponses(true)
-                .build();
+        // Métriques toujours ; échanges avec le LLM journalisés (échantillonnés) en debug
+        List<ChatModelListener> listeners = debug
+                ? List.of(new MetricsChatModelListener(), SampledLoggingChatModelListener.fromSystemProperties())
+                : List.of(new MetricsChatModelListener());
+
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+
+        // Variante streaming du même modèle : la réponse s'affiche token par token
+        StreamingChatModel streamingChatModel = GeminiModels.streamingChatModel(chatModel, listeners);
 
         // ---------------------------------------------------------
         // 2) Modèle d'embeddings partagé par les 2 sources
@@ -138,23 +133,35 @@ public class Test3Routage {
         // ---------------------------------------------------------
 
         // Fichier 1 : support de cours IA / RAG / LangChain4j
-        EmbeddingStore<TextSegment> iaStore =
-                ingestPdfAsEmbeddingStore("langchain4j.pdf", embeddingModel);
-
+        Path iaPdf = IngestionPipeline.resourcePath("langchain4j.pdf");
         // Fichier 2 : autre contenu (non IA)
-        EmbeddingStore<TextSegment> autreStore =
-                ingestPdfAsEmbeddingStore("QCM_MAD-AI_COMPLET.pdf", embeddingModel);
+        Path autrePdf = IngestionPipeline.resourcePath("QCM_MAD-AI_COMPLET.pdf");
+
+        // Les 2 PDF sont parsés en parallèle puis embeddés par lots
+        // avec le même modèle (ou rechargés depuis le cache disque).
+        // Les segments en double de chaque PDF sont écartés avant embedding (-Drag.dedup=exact|minhash|none)
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build();
+        Map<Path, EmbeddingIndex> indexes = pipeline.ingestAll(List.of(iaPdf, autrePdf));
+
+        EmbeddingStore<TextSegment> iaStore = toEmbeddingStore(pipeline, iaPdf, indexes.get(iaPdf));
+        EmbeddingStore<TextSegment> autreStore = toEmbeddingStore(pipeline, autrePdf, indexes.get(autrePdf));
 
         // ---------------------------------------------------------
         // PHASE 2 : 2 ContentRetrievers + QueryRouter + RetrievalAugmentor
         // ---------------------------------------------------------
 
+        // Cache LRU des embeddings de questions : une question déjà posée
+        // ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
+
         // ContentRetriever pour la source IA
         ContentRetriever iaRetriever =
                 EmbeddingStoreContentRetriever.builder()
                         .embeddingStore(iaStore)
-                        .embeddingModel(embeddingModel)
-                        .maxResults(2)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(5)
                         .minScore(0.5)
                         .build();
 
@@ -162,13 +169,13 @@ public class Test3Routage {
         ContentRetriever autreRetriever =
                 EmbeddingStoreContentRetriever.builder()
                         .embeddingStore(autreStore)
-                        .embeddingModel(embeddingModel)
-                        .maxResults(2)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(5)
                         .minScore(0.5)
                         .build();
 
         // Map<ContentRetriever, String> : description en langage naturel
-        // de chaque source, lue par le LLM pour choisir la route.
+        // de chaque source, lue par le LLM pour choisir la route (rag.router=llm).
         Map<ContentRetriever, String> retrieverToDescription = Map.of(
                 iaRetriever,
                 "Documents de cours sur l'IA, les LLM, le RAG, LangChain4j, etc.",
@@ -176,27 +183,51 @@ public class Test3Routage {
                 "Documents qui ne parlent pas directement d'IA (autres matières / autres sujets)."
         );
 
-        // QueryRouter basé sur le LLM :
-        // Le LLM lit la question + les descriptions et décide quel retriever utiliser.
-        QueryRouter queryRouter = LanguageModelQueryRouter.builder()
-                .chatModel(chatModel)
-                .retrieverToDescription(retrieverToDescription)
-                .build();
+        // QueryRouter choisi par la propriété système "rag.router" :
+        //  - "centroid" (défaut) : routage local, la question est comparée au centroïde
+        //    et à quelques segments de chaque source (embeddings déjà calculés à l'ingestion)
+        //  - "llm" : le LLM lit la question + les descriptions et décide quel retriever utiliser
+        String routerType = System.getProperty("rag.router", "centroid");
+        CentroidQueryRouter centroidRouter = null;
+        QueryRouter queryRouter;
+        switch (routerType) {
+            case "centroid" -> {
+                centroidRouter = CentroidQueryRouter.builder()
+                        .embeddingModel(queryEmbeddingModel)
+                        .route("cours IA", iaRetriever, indexes.get(iaPdf))
+                        .route("autre", autreRetriever, indexes.get(autrePdf))
+                        .build();
+                queryRouter = centroidRouter;
+            }
+            case "llm" -> queryRouter = LanguageModelQueryRouter.builder()
+                    .chatModel(chatModel)
+                    .retrieverToDescription(retrieverToDescription)
+                    .build();
+            default -> throw new IllegalArgumentException("Type de routeur inconnu (rag.router) : " + routerType);
+        }
 
-        // RetrievalAugmentor qui s'appuie sur ce QueryRouter
+        // RetrievalAugmentor qui s'appuie sur ce QueryRouter ; le contexte récupéré
+        // (jusqu'à 5 segments) est compressé sous un budget de tokens avant l'appel au LLM
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
+                .contentAggregator(contentAggregator)
                 .build();
 
         // ---------------------------------------------------------
-        // Assistant avec RetrievalAugmentor + mémoire (10 messages)
+        // Assistant (streaming) avec RetrievalAugmentor + mémoire (budget de tokens)
         // ---------------------------------------------------------
-        Assistant assistant =
-                AiServices.builder(Assistant.class)
-                        .chatModel(chatModel)
-                        .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+        // Mémoire bornée par un budget de tokens (et non plus 10 messages entiers) :
+        // le contexte RAG des anciennes questions est retiré, les tours les plus anciens oubliés
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
+        StreamingAssistant streamingAssistant =
+                AiServices.builder(StreamingAssistant.class)
+                        .streamingChatModel(streamingChatModel)
+                        .chatMemory(chatMemory)
                         .retrievalAugmentor(retrievalAugmentor)
                         .build();
+        ConsoleStreamRenderer renderer = new ConsoleStreamRenderer();
 
         // ---------------------------------------------------------
         // Boucle de tests interactifs (vérifier le routage via les logs)
@@ -221,11 +252,26 @@ public class Test3Routage {
                     continue;
                 }
 
-                String reponse = assistant.chat(question);
-                System.out.println("--------------------------------------------------");
-                System.out.println("Assistant : " + reponse);
+                // Réponse affichée au fil des tokens (temps au premier token mesuré)
+                renderer.ask(streamingAssistant, question);
                 System.out.println("--------------------------------------------------");
             }
         }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(renderer.stats());
+        System.out.println(chatMemory.metrics().stats());
+        System.out.println(contentAggregator.stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+        if (logHandler != null) {
+            System.out.println(logHandler.stats());
+        }
+        if (centroidRouter != null) {
+            System.out.println(centroidRouter.stats());
+        }
+        if (pipeline.deduplicator() != null) {
+            System.out.println(pipeline.deduplicator().stats());
+        }
     }
 }
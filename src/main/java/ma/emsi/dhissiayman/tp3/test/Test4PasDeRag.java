@@ -9,7 +9,10 @@ package ma.emsi.dhissiayman.tp3.test;
  *  - Créer un QueryRouter personnalisé qui décide :
  *      • d’utiliser le RAG si la question porte sur l’IA / le cours
  *      • de NE PAS utiliser le RAG pour les questions générales (ex : “Bonjour”)
- *  - Poser la question de routage via un PromptTemplate au LLM
+ *  - Poser la question de routage via un PromptTemplate au LLM,
+ *    uniquement pour les requêtes ambiguës (voir CachedRagRouter)
+ *  - Récupérer le contexte par recherche hybride BM25 + vecteurs (-Drag.hybrid=false : vecteurs seuls) ;
+ *    les questions sur un nom d'API exact ("AiServices") sont servies par BM25 sans appel au modèle ONNX
  *
  * Le LLM répond uniquement par :
  *  - "oui"    → RAG utilisé
@@ -17,43 +20,40 @@ package ma.emsi.dhissiayman.tp3.test;
  *  - "non"    → RAG désactivé (pas de récupération de contexte)
  */
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.input.Prompt;
 import dev.langchain4j.model.input.PromptTemplate;
-import dev.langchain4j.model.output.Response;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
-import dev.langchain4j.rag.query.Query;
-import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.assistant.ConsoleStreamRenderer;
+import ma.emsi.dhissiayman.tp3.assistant.StreamingAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.logging.AsyncLogHandler;
+import ma.emsi.dhissiayman.tp3.logging.SampledLoggingChatModelListener;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.retrieval.Bm25Index;
+import ma.emsi.dhissiayman.tp3.retrieval.HybridContentRetriever;
+import ma.emsi.dhissiayman.tp3.routing.CachedRagRouter;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
 
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class Test4PasDeRag {
 
@@ -63,86 +63,72 @@ public class Test4PasDeRag {
      *  - les détails internes de LangChain4j
      *  - les requêtes / réponses HTTP vers Gemini
      */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-
-        packageLogger.setUseParentHandlers(false);
-        packageLogger.addHandler(handler);
+    private static AsyncLogHandler configureLogger() {
+        // Écriture asynchrone (tampon borné, logs abandonnés plutôt que bloquer l'appelant)
+        return AsyncLogHandler.install(Level.FINE, Integer.getInteger("rag.log.bufferSize", 10_000),
+                "dev.langchain4j", SampledLoggingChatModelListener.LOGGER_NAME);
     }
 
-    // ---------- PHASE 1 : ingestion d'un seul PDF dans un EmbeddingStore ----------
-    /**
-     * Charge un PDF depuis le classpath, le découpe en segments,
-     * calcule leurs embeddings et les enregistre dans un EmbeddingStore en mémoire.
-     *
-     * @param resourceName   nom du fichier dans src/main/resources
-     * @param embeddingModel modèle d’embeddings à utiliser
-     * @return EmbeddingStore contenant tous les segments + embeddings
-     */
-    private static EmbeddingStore<TextSegment> ingestRagPdf(
-            String resourceName,
-            EmbeddingModel embeddingModel) throws URISyntaxException {
-
-        URL resource = Test4PasDeRag.class.getClassLoader().getResource(resourceName);
-        if (resource == null) {
-            throw new IllegalStateException("Le fichier " + resourceName + " n'a pas été trouvé dans resources");
-        }
-        Path pdfPath = Paths.get(resource.toURI());
-
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(pdfPath, parser);
-
-        DocumentSplitter splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        Response<List<Embedding>> response = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = response.content();
-
-        EmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
-        store.addAll(embeddings, segments);
-
-        System.out.println("Ingestion RAG terminée pour " + resourceName + " : "
-                + segments.size() + " segments enregistrés.");
-        return store;
-    }
-
-    public static void main(String[] args) throws URISyntaxException {
+    public static void main(String[] args) {
 
         // ---------------------------------------------------------
-        // 0) Activation du logging détaillé
+        // 0) Logging détaillé seulement avec -Drag.debug=true ;
+        //    par défaut, latences par étape et tokens exposés en JMX (+ /metrics si rag.metrics.port)
         // ---------------------------------------------------------
-        configureLogger();
+        boolean debug = Boolean.getBoolean("rag.debug");
+        AsyncLogHandler logHandler = debug ? configureLogger() : null;
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
 
         // ---------------------------------------------------------
         // 1) ChatModel Gemini (utilisé pour l'assistant ET le routage)
         // ---------------------------------------------------------
-        String apiKey = System.getenv("GEMINI_KEY");
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
-                .apiKey(apiKey)
-                .modelName("gemini-2.5-flash")
-                .temperature(0.3)
-                .logRequestsAndResponses(true)   // pour voir les requêtes/réponses brutes
-                .build();
+        // Métriques toujours ; échanges avec le LLM journalisés (échantillonnés) en debug
+        List<ChatModelListener> listeners = debug
+                ? List.of(new MetricsChatModelListener(), SampledLoggingChatModelListener.fromSystemProperties())
+                : List.of(new MetricsChatModelListener());
+
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+
+        // Variante streaming du même modèle : la réponse s'affiche token par token
+        StreamingChatModel streamingChatModel = GeminiModels.streamingChatModel(chatModel, listeners);
 
         // ---------------------------------------------------------
         // 2) Modèle d'embeddings + ingestion du support RAG
         // ---------------------------------------------------------
         EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        EmbeddingStore<TextSegment> embeddingStore =
-                ingestRagPdf("langchain4j.pdf", embeddingModel); // support de cours RAG
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build();
+        EmbeddingIndex index = pipeline.ingest(IngestionPipeline.resourcePath("langchain4j.pdf")); // support de cours RAG
+
+        EmbeddingStore<TextSegment> embeddingStore = DenseVectorStore.of(index);
+        System.out.println("Ingestion RAG terminée : " + index.size() + " segments enregistrés.");
+
+        // Cache LRU des embeddings de questions : une question déjà posée
+        // ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
 
         // ---------------------------------------------------------
-        // 3) ContentRetriever basé sur ce seul EmbeddingStore
+        // 3) ContentRetriever basé sur ce seul EmbeddingStore :
+        //    BM25 (index lexical des mêmes segments) + vecteurs, fusionnés par RRF
         // ---------------------------------------------------------
-        ContentRetriever contentRetriever =
-                EmbeddingStoreContentRetriever.builder()
+        boolean hybrid = Boolean.parseBoolean(System.getProperty("rag.hybrid", "true"));
+        Bm25Index lexicalIndex = hybrid ? Bm25Index.of(index.segments()) : null;
+        HybridContentRetriever hybridRetriever = hybrid
+                ? HybridContentRetriever.builder()
+                        .lexicalIndex(lexicalIndex)
+                        .embeddingStore(embeddingStore)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(5)
+                        .minScore(0.5)
+                        .build()
+                : null;
+        ContentRetriever contentRetriever = hybrid
+                ? hybridRetriever
+                : EmbeddingStoreContentRetriever.builder()
                         .embeddingStore(embeddingStore)
-                        .embeddingModel(embeddingModel)
-                        .maxResults(2)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(5)
                         .minScore(0.5)
                         .build();
 
@@ -157,48 +143,41 @@ public class Test4PasDeRag {
 
         // ---------------------------------------------------------
         // 5) QueryRouter personnalisé : utiliser le RAG ou pas
-        // ---------------------------------------------------------
-        QueryRouter queryRouter = new QueryRouter() {
-            @Override
-            public List<ContentRetriever> route(Query query) {
-
-                // Construction du Prompt à partir du template + texte de la requête
-                Prompt prompt = routerTemplate.apply(Map.of(
-                        "query", query.text()
-                ));
-
-                // On interroge directement le ChatModel avec le texte du Prompt
-                String answer = chatModel.chat(prompt.text()).trim().toLowerCase();
-
-                System.out.println("[Router] Question utilisateur : " + query.text());
-                System.out.println("[Router] Réponse du LM pour le routage : " + answer);
-
-                if (answer.startsWith("non")) {
-                    // ❌ La requête ne porte pas sur l'IA → on désactive le RAG
-                    return List.of();
-                } else {
-                    // ✅ "oui" ou "peut-être" → on active le RAG (ContentRetriever utilisé)
-                    return List.of(contentRetriever);
-                }
-            }
-        };
+        //    (mémo + salutations + score d'embedding ; LLM seulement si ambigu)
+        // ---------------------------------------------------------
+        CachedRagRouter queryRouter = CachedRagRouter.builder()
+                .contentRetriever(contentRetriever)
+                .embeddingModel(queryEmbeddingModel)
+                .embeddingStore(embeddingStore)
+                .keywordIndex(lexicalIndex)
+                .chatModel(chatModel)
+                .routerTemplate(routerTemplate)
+                .build();
 
         // ---------------------------------------------------------
-        // 6) RetrievalAugmentor utilisant ce QueryRouter
+        // 6) RetrievalAugmentor utilisant ce QueryRouter ; le contexte récupéré
+        //    (jusqu'à 5 segments) est compressé sous un budget de tokens avant l'appel au LLM
         // ---------------------------------------------------------
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
+                .contentAggregator(contentAggregator)
                 .build();
 
         // ---------------------------------------------------------
-        // 7) Assistant avec RetrievalAugmentor (et mémoire de 10 messages)
+        // 7) Assistant (streaming) avec RetrievalAugmentor (et mémoire bornée en tokens)
         // ---------------------------------------------------------
-        Assistant assistant =
-                AiServices.builder(Assistant.class)
-                        .chatModel(chatModel)
-                        .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+        // Mémoire bornée par un budget de tokens (et non plus 10 messages entiers) :
+        // le contexte RAG des anciennes questions est retiré, les tours les plus anciens oubliés
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
+        StreamingAssistant streamingAssistant =
+                AiServices.builder(StreamingAssistant.class)
+                        .streamingChatModel(streamingChatModel)
+                        .chatMemory(chatMemory)
                         .retrievalAugmentor(retrievalAugmentor)
                         .build();
+        ConsoleStreamRenderer renderer = new ConsoleStreamRenderer();
 
         // ---------------------------------------------------------
         // 8) Boucle de test : d’abord "Bonjour", puis une question IA
@@ -208,6 +187,7 @@ public class Test4PasDeRag {
         System.out.println("- \"Bonjour\"  (devrait répondre sans RAG)");
         System.out.println("- \"Qu'est-ce que le RAG ?\"  (devrait utiliser le RAG)");
         System.out.println("- \"À quoi sert LangChain4j ?\"");
+        System.out.println("- \"AiServices\"  (recherche par mot-clé : BM25 seul, sans embedding)");
         System.out.println("Tapez 'fin' pour quitter.");
         System.out.println("===============================================");
 
@@ -222,11 +202,24 @@ public class Test4PasDeRag {
                     continue;
                 }
 
-                String reponse = assistant.chat(question);
-                System.out.println("--------------------------------------------------");
-                System.out.println("Assistant : " + reponse);
+                // Réponse affichée au fil des tokens (temps au premier token mesuré)
+                renderer.ask(streamingAssistant, question);
                 System.out.println("--------------------------------------------------");
             }
         }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(renderer.stats());
+        System.out.println(chatMemory.metrics().stats());
+        System.out.println(contentAggregator.stats());
+        System.out.println(chatModel.stats());
+        System.out.println(StageMetrics.global().summary());
+        if (logHandler != null) {
+            System.out.println(logHandler.stats());
+        }
+        System.out.println(queryRouter.stats());
+        if (hybridRetriever != null) {
+            System.out.println(hybridRetriever.stats());
+        }
     }
 }
@@ -11,26 +11,19 @@ package ma.emsi.dhissiayman.tp3.test;
  *  - Construire un RetrievalAugmentor qui interroge :
  *      • le contenu du PDF (RAG classique)
  *      • des sources Web (via Tavily)
+ *    en parallèle, chaque source ayant un temps d'attente maximum
  *
  * Remarque :
  *  - La clé Tavily doit être définie dans la variable d'environnement TAVILY_API_KEY
+ *    (sauf avec -Drag.web.stub=true : recherche Web simulée, sans réseau)
  *  - La clé Gemini doit être définie dans GEMINI_KEY
  */
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.output.Response;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
@@ -40,20 +33,37 @@ import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine;
-import ma.emsi.dhissiayman.tp3.assistant.Assistant;
+import ma.emsi.dhissiayman.tp3.assistant.ConsoleStreamRenderer;
+import ma.emsi.dhissiayman.tp3.assistant.StreamingAssistant;
+import ma.emsi.dhissiayman.tp3.cache.CachingEmbeddingModel;
+import ma.emsi.dhissiayman.tp3.ingestion.EmbeddingIndex;
+import ma.emsi.dhissiayman.tp3.ingestion.IngestionPipeline;
+import ma.emsi.dhissiayman.tp3.llm.GeminiModels;
+import ma.emsi.dhissiayman.tp3.llm.ResilientChatModel;
+import ma.emsi.dhissiayman.tp3.logging.AsyncLogHandler;
+import ma.emsi.dhissiayman.tp3.logging.SampledLoggingChatModelListener;
+import ma.emsi.dhissiayman.tp3.memory.TokenBudgetChatMemory;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsChatModelListener;
+import ma.emsi.dhissiayman.tp3.metrics.MetricsEndpoint;
+import ma.emsi.dhissiayman.tp3.metrics.StageMetrics;
+import ma.emsi.dhissiayman.tp3.retrieval.BudgetedContentAggregator;
+import ma.emsi.dhissiayman.tp3.retrieval.DeadlineContentRetriever;
+import ma.emsi.dhissiayman.tp3.store.DenseVectorStore;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubWebSearchEngine;
 
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class Test5RagWeb {
 
@@ -62,38 +72,34 @@ public class Test5RagWeb {
      *  - les logs internes de LangChain4j
      *  - les requêtes / réponses HTTP liées à Gemini et Tavily
      */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-
-        packageLogger.setUseParentHandlers(false);
-        packageLogger.addHandler(handler);
+    private static AsyncLogHandler configureLogger() {
+        // Écriture asynchrone (tampon borné, logs abandonnés plutôt que bloquer l'appelant)
+        return AsyncLogHandler.install(Level.FINE, Integer.getInteger("rag.log.bufferSize", 10_000),
+                "dev.langchain4j", SampledLoggingChatModelListener.LOGGER_NAME);
     }
 
     public static void main(String[] args) throws URISyntaxException {
 
         // ---------------------------------------------------------
-        // 0) Activation du logging
+        // 0) Logging détaillé seulement avec -Drag.debug=true ;
+        //    par défaut, latences par étape et tokens exposés en JMX (+ /metrics si rag.metrics.port)
         // ---------------------------------------------------------
-        configureLogger();
+        boolean debug = Boolean.getBoolean("rag.debug");
+        AsyncLogHandler logHandler = debug ? configureLogger() : null;
+        MetricsEndpoint.exposeFromSystemProperties(StageMetrics.global());
 
         // ---------------------------------------------------------
-        // 1) ChatModel Gemini (LLM principal)
+        // 1) ChatModel Gemini (LLM principal), en streaming :
+        //    la réponse s'affiche token par token
         // ---------------------------------------------------------
-        String geminiKey = System.getenv("GEMINI_KEY");
-        if (geminiKey == null) {
-            throw new IllegalStateException("La variable d'environnement GEMINI_KEY n'est pas définie");
-        }
+        // Métriques toujours ; échanges avec le LLM journalisés (échantillonnés) en debug
+        List<ChatModelListener> listeners = debug
+                ? List.of(new MetricsChatModelListener(), SampledLoggingChatModelListener.fromSystemProperties())
+                : List.of(new MetricsChatModelListener());
 
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
-                .apiKey(geminiKey)
-                .modelName("gemini-2.5-flash")
-                .temperature(0.3)
-                .logRequestsAndResponses(true)
-                .build();
+        // Limite d'appels simultanés, retries et disjoncteur partagés (ResilientChatModel)
+        ResilientChatModel chatModel = GeminiModels.chatModel(listeners);
+        StreamingChatModel streamingChatModel = GeminiModels.streamingChatModel(chatModel, listeners);
 
         // ---------------------------------------------------------
         // PHASE 1 : RAG naïf sur le PDF (comme dans RagNaif)
@@ -105,75 +111,109 @@ public class Test5RagWeb {
         }
         Path pdfPath = Paths.get(resource.toURI());
 
-        // Lecture du PDF
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(pdfPath, parser);
-
-        // Découpage en segments
-        DocumentSplitter splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        // Calcul des embeddings
+        // Lecture + découpage + embeddings, ou rechargement depuis le cache disque
         EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        Response<List<Embedding>> response = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = response.content();
+        EmbeddingIndex index = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .build()
+                .ingest(pdfPath);
 
-        // Stockage dans un EmbeddingStore en mémoire
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
+        // Stockage dans un EmbeddingStore en mémoire (vecteurs contigus, produit scalaire SIMD)
+        EmbeddingStore<TextSegment> embeddingStore = DenseVectorStore.of(index);
 
         System.out.println("Phase 1 terminée : "
-                + segments.size() + " segments enregistrés dans le magasin d'embeddings.");
+                + index.size() + " segments enregistrés dans le magasin d'embeddings.");
 
         // ---------------------------------------------------------
         // PHASE 2 : ajout d'un ContentRetriever Web (Tavily) + QueryRouter
         // ---------------------------------------------------------
 
+        // Cache LRU des embeddings de questions : une question déjà posée
+        // ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel, 1000);
+
         // 2.1 ContentRetriever sur le PDF (RAG local)
         ContentRetriever pdfRetriever =
                 EmbeddingStoreContentRetriever.builder()
                         .embeddingStore(embeddingStore)
-                        .embeddingModel(embeddingModel)
-                        .maxResults(2)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(5)
                         .minScore(0.5)
                         .build();
 
-        // 2.2 WebSearchEngine Tavily (recherche Web externe)
-        String tavilyKey = System.getenv("TAVILY_API_KEY");
-        if (tavilyKey == null) {
-            throw new IllegalStateException("La variable d'environnement TAVILY_API_KEY n'est pas définie");
+        // 2.2 WebSearchEngine : Tavily (recherche Web externe),
+        //     ou moteur simulé local avec latence artificielle (-Drag.web.stub=true)
+        WebSearchEngine webSearchEngine;
+        if (Boolean.getBoolean("rag.web.stub")) {
+            webSearchEngine = new StubWebSearchEngine(
+                    LatencyDistribution.logNormal(Duration.ofMillis(800), 0.8, 42));
+            System.out.println("Recherche Web simulée (StubWebSearchEngine)");
+        } else {
+            String tavilyKey = System.getenv("TAVILY_API_KEY");
+            if (tavilyKey == null) {
+                throw new IllegalStateException("La variable d'environnement TAVILY_API_KEY n'est pas définie");
+            }
+            webSearchEngine = TavilyWebSearchEngine.builder()
+                    .apiKey(tavilyKey)
+                    .build();
         }
 
-        WebSearchEngine tavilyEngine = TavilyWebSearchEngine.builder()
-                .apiKey(tavilyKey)
-                .build();
-
-        // 2.3 ContentRetriever basé sur le Web (Tavily)
-        ContentRetriever webRetriever =
+        // 2.3 ContentRetriever basé sur le Web (chaque recherche est chronométrée)
+        WebSearchEngine timedWebSearchEngine = request ->
+                StageMetrics.global().time(StageMetrics.Stage.WEB_SEARCH, () -> webSearchEngine.search(request));
+        ContentRetriever webSearchRetriever =
                 WebSearchContentRetriever.builder()
-                        .webSearchEngine(tavilyEngine)
+                        .webSearchEngine(timedWebSearchEngine)
                         // Possibilité d'ajouter des options (maxResults, etc.) si nécessaire
                         .build();
 
-        // 2.4 QueryRouter qui combine les 2 retrievers (PDF + Web)
+        // 2.4 Chaque source a un temps d'attente maximum : une source en retard
+        //     est abandonnée au lieu de bloquer la réponse.
+        //     Pour le Web, un second appel est lancé si le premier tarde (hedging).
+        //     La première requête PDF (modèle ONNX et store encore froids) a droit à coldDeadline.
+        DeadlineContentRetriever pdfSource = DeadlineContentRetriever.builder()
+                .name("pdf")
+                .delegate(pdfRetriever)
+                .deadline(Duration.ofMillis(Long.getLong("rag.pdf.deadlineMs", 500)))
+                .coldDeadline(Duration.ofMillis(Long.getLong("rag.pdf.coldDeadlineMs", 10_000)))
+                .build();
+        DeadlineContentRetriever webSource = DeadlineContentRetriever.builder()
+                .name("web")
+                .delegate(webSearchRetriever)
+                .deadline(Duration.ofMillis(Long.getLong("rag.web.deadlineMs", 2500)))
+                .hedgeAfter(Duration.ofMillis(Long.getLong("rag.web.hedgeMs", 1200)))
+                .build();
+
+        // 2.5 QueryRouter qui combine les 2 sources (PDF + Web)
         // DefaultQueryRouter interroge tous les ContentRetrievers fournis.
-        QueryRouter queryRouter = new DefaultQueryRouter(pdfRetriever, webRetriever);
+        QueryRouter queryRouter = new DefaultQueryRouter(pdfSource, webSource);
 
-        // 2.5 RetrievalAugmentor basé sur ce QueryRouter
+        // 2.6 RetrievalAugmentor basé sur ce QueryRouter :
+        //     les sources sont interrogées en parallèle sur des threads virtuels,
+        //     puis segments PDF et extraits Web sont compressés sous un budget de tokens
+        ExecutorService retrievalExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        BudgetedContentAggregator contentAggregator = BudgetedContentAggregator.fromSystemProperties();
         RetrievalAugmentor retrievalAugmentor =
                 DefaultRetrievalAugmentor.builder()
                         .queryRouter(queryRouter)
+                        .contentAggregator(contentAggregator)
+                        .executor(retrievalExecutor)
                         .build();
 
         // ---------------------------------------------------------
-        // 3) Assistant avec RAG hybride (PDF + Web) + mémoire
+        // 3) Assistant (streaming) avec RAG hybride (PDF + Web) + mémoire bornée en tokens
         // ---------------------------------------------------------
-        Assistant assistant =
-                AiServices.builder(Assistant.class)
-                        .chatModel(chatModel)
-                        .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+        // Mémoire bornée par un budget de tokens (et non plus 10 messages entiers) :
+        // le contexte RAG des anciennes questions est retiré, les tours les plus anciens oubliés
+        TokenBudgetChatMemory chatMemory = TokenBudgetChatMemory.withMaxTokens(
+                Integer.getInteger("rag.memory.maxTokens", 2000));
+        StreamingAssistant streamingAssistant =
+                AiServices.builder(StreamingAssistant.class)
+                        .streamingChatModel(streamingChatModel)
+                        .chatMemory(chatMemory)
                         .retrievalAugmentor(retrievalAugmentor)
                         .build();
+        ConsoleStreamRenderer renderer = new ConsoleStreamRenderer();
 
         // ---------------------------------------------------------
         // 4) Boucle de test interactive
@@ -198,11 +238,23 @@ public class Test5RagWeb {
                     continue;
                 }
 
-                String reponse = assistant.chat(question);
-                System.out.println("--------------------------------------------------");
-                System.out.println("Assistant : " + reponse);
+                // Réponse affichée au fil des tokens (temps au premier token mesuré)
+                renderer.ask(streamingAssistant, question);
                 System.out.println("--------------------------------------------------");
             }
         }
+
+        System.out.println(queryEmbeddingModel.stats());
+        System.out.println(renderer.stats());
+        System.out.println(chatMemory.metrics().stats());
+        System.out.println(chatModel.stats());
+        System.out.println(contentAggregator.stats());
+        System.out.println(StageMetrics.global().summary());
+        if (logHandler != null) {
+            System.out.println(logHandler.stats());
+        }
+        System.out.println(pdfSource.stats());
+        System.out.println(webSource.stats());
+        retrievalExecutor.shutdown();
     }
 }
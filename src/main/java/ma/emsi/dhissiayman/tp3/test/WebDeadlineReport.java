@@ -0,0 +1,76 @@
+package ma.emsi.dhissiayman.tp3.test;
+
+/**
+ * TP4 - Rapport latence des sources Web (deadline + hedging)
+ * Auteur : DHISSI AYMAN
+ *
+ * Objectif :
+ *  - Simuler une recherche Web lente et irrégulière (StubWebSearchEngine, sans réseau)
+ *  - Comparer, sur les mêmes requêtes, la latence de l'étape de récupération :
+ *      • sans limite (attente de la source quoi qu'il arrive)
+ *      • avec deadline (source abandonnée si elle tarde)
+ *      • avec deadline + hedging (second appel si le premier tarde)
+ *  - Afficher p50 / p95 / max et le nombre de sources abandonnées
+ */
+
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.WebSearchContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import ma.emsi.dhissiayman.tp3.retrieval.DeadlineContentRetriever;
+import ma.emsi.dhissiayman.tp3.stub.LatencyDistribution;
+import ma.emsi.dhissiayman.tp3.stub.StubWebSearchEngine;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+public class WebDeadlineReport {
+
+    private static final int REQUESTS = 100;
+
+    public static void main(String[] args) {
+
+        // Médiane 300 ms, queue lourde (sigma = 1) : quelques appels dépassent la seconde
+        Duration median = Duration.ofMillis(300);
+        double sigma = 1.0;
+
+        System.out.printf("%-22s %-10s %-10s %-10s %-10s%n", "configuration", "p50 (ms)", "p95 (ms)", "max (ms)", "abandons");
+
+        run("sans limite", webRetriever(median, sigma), null, null);
+        run("deadline 800 ms", webRetriever(median, sigma), Duration.ofMillis(800), null);
+        run("deadline + hedge", webRetriever(median, sigma), Duration.ofMillis(800), Duration.ofMillis(400));
+    }
+
+    private static ContentRetriever webRetriever(Duration median, double sigma) {
+        // même graine pour chaque configuration : mêmes latences tirées
+        StubWebSearchEngine engine = new StubWebSearchEngine(LatencyDistribution.logNormal(median, sigma, 7));
+        return WebSearchContentRetriever.builder()
+                .webSearchEngine(engine)
+                .build();
+    }
+
+    private static void run(String label, ContentRetriever web, Duration deadline, Duration hedgeAfter) {
+        ContentRetriever retriever = web;
+        DeadlineContentRetriever bounded = null;
+        if (deadline != null) {
+            bounded = DeadlineContentRetriever.builder()
+                    .name("web")
+                    .delegate(web)
+                    .deadline(deadline)
+                    .hedgeAfter(hedgeAfter)
+                    .build();
+            retriever = bounded;
+        }
+
+        long[] millis = new long[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            long start = System.nanoTime();
+            retriever.retrieve(Query.from("question " + i));
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(millis);
+
+        System.out.printf("%-22s %-10d %-10d %-10d %-10s%n", label,
+                millis[REQUESTS / 2], millis[REQUESTS * 95 / 100], millis[REQUESTS - 1],
+                bounded == null ? "-" : String.valueOf(bounded.stats().timeouts()));
+    }
+}